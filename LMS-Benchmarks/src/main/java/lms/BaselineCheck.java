@@ -0,0 +1,126 @@
+package lms;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compares a JMH CSV result (-rf csv) with the committed baseline and exits
+// with status 1 if any benchmark got slower by more than the threshold.
+//
+//   java -cp target/benchmarks.jar lms.BaselineCheck baseline.csv jmh-result.csv [0.25]
+//
+// Benchmarks missing from either file are listed but do not fail the check.
+public class BaselineCheck {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineCheck <baseline.csv> <result.csv> [threshold]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.25;
+        Map<String, Score> baseline = read(args[0]);
+        Map<String, Score> result = read(args[1]);
+
+        int regressions = 0;
+        for (Map.Entry<String, Score> entry : result.entrySet()) {
+            Score before = baseline.get(entry.getKey());
+            Score after = entry.getValue();
+            if (before == null) {
+                System.out.printf("%-60s %12.3f %-6s (no baseline)%n", entry.getKey(), after.value, after.unit);
+                continue;
+            }
+            // Throughput is better when higher; every other mode is a time
+            double change = after.higherIsBetter
+                    ? (before.value - after.value) / before.value
+                    : (after.value - before.value) / before.value;
+            boolean regressed = change > threshold;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-60s %12.3f -> %12.3f %-6s %+7.1f%%%s%n", entry.getKey(), before.value, after.value,
+                    after.unit, change * 100, regressed ? "  REGRESSION" : "");
+        }
+        for (String key : baseline.keySet()) {
+            if (!result.containsKey(key)) {
+                System.out.printf("%-60s (not run)%n", key);
+            }
+        }
+
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmark(s) regressed by more than " + Math.round(threshold * 100) + "%");
+            System.exit(1);
+        }
+        System.out.println("No regressions above " + Math.round(threshold * 100) + "%");
+    }
+
+    private static final class Score {
+        final double value;
+        final String unit;
+        final boolean higherIsBetter;
+
+        Score(double value, String unit, boolean higherIsBetter) {
+            this.value = value;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+        }
+    }
+
+    // Keyed by benchmark name plus its parameter values, e.g.
+    // lms.LibraryBenchmark.searchBooks:catalogSize=100000
+    private static Map<String, Score> read(String path) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8);
+        Map<String, Score> scores = new LinkedHashMap<>();
+        if (lines.isEmpty()) {
+            return scores;
+        }
+        List<String> header = split(lines.get(0));
+        int name = header.indexOf("Benchmark");
+        int mode = header.indexOf("Mode");
+        int score = header.indexOf("Score");
+        int unit = header.indexOf("Unit");
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            List<String> fields = split(line);
+            StringBuilder key = new StringBuilder(fields.get(name));
+            for (int i = 0; i < header.size() && i < fields.size(); i++) {
+                if (header.get(i).startsWith("Param: ") && !fields.get(i).isEmpty()) {
+                    key.append(':').append(header.get(i).substring(7)).append('=').append(fields.get(i));
+                }
+            }
+            scores.put(key.toString(), new Score(Double.parseDouble(fields.get(score)), fields.get(unit),
+                    fields.get(mode).equals("thrpt")));
+        }
+        return scores;
+    }
+
+    // One CSV record; JMH quotes every text field and never embeds newlines
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
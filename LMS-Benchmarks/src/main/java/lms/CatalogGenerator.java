@@ -0,0 +1,209 @@
+package lms;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Builds a synthetic catalog and writes it as books.dat and members.dat, the
+// same files the Library loads at startup. Genres, authors and title words are
+// drawn from Zipf distributions, so a few of each cover most of the books as in
+// a real collection. ISBNs are valid ISBN-13s. About 5% of the books are on
+// loan, a third of those overdue, and no member holds more than five.
+final class CatalogGenerator {
+    static final String[] GENRES = {
+        "Fiction", "Mystery", "Fantasy", "Romance", "Science Fiction",
+        "Thriller", "Biography", "History", "Children", "Young Adult",
+        "Horror", "Self-Help", "Science", "Business", "Poetry",
+        "Travel", "Cooking", "Art", "Philosophy", "Programming"
+    };
+
+    private static final String[] FIRST_NAMES = {
+        "James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael", "Linda",
+        "William", "Elizabeth", "David", "Barbara", "Richard", "Susan", "Joseph", "Jessica",
+        "Thomas", "Sarah", "Charles", "Karen", "Daniel", "Nancy", "Matthew", "Lisa",
+        "Anthony", "Betty", "Mark", "Margaret", "Donald", "Sandra", "Steven", "Ashley",
+        "Paul", "Emily", "Andrew", "Donna", "Joshua", "Michelle", "Kenneth", "Carol",
+        "Kevin", "Amanda", "Brian", "Melissa", "George", "Deborah", "Edward", "Laura"
+    };
+
+    private static final String[] LAST_NAMES = {
+        "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis",
+        "Rodriguez", "Martinez", "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas",
+        "Taylor", "Moore", "Jackson", "Martin", "Lee", "Perez", "Thompson", "White",
+        "Harris", "Sanchez", "Clark", "Ramirez", "Lewis", "Robinson", "Walker", "Young",
+        "Allen", "King", "Wright", "Scott", "Torres", "Nguyen", "Hill", "Flores",
+        "Green", "Adams", "Nelson", "Baker", "Hall", "Rivera", "Campbell", "Mitchell",
+        "Carter", "Roberts", "Gomez", "Phillips", "Evans", "Turner", "Diaz", "Parker",
+        "Cruz", "Edwards", "Collins", "Reyes", "Stewart", "Morris", "Morales", "Murphy"
+    };
+
+    private static final String[] TITLE_WORDS = {
+        "the", "of", "and", "a", "in", "night", "house", "shadow", "last", "world",
+        "love", "secret", "dark", "war", "king", "river", "city", "girl", "man", "star",
+        "fire", "lost", "blood", "stone", "garden", "ghost", "winter", "summer", "light", "time",
+        "dragon", "queen", "road", "sea", "storm", "heart", "empire", "silent", "broken", "golden",
+        "island", "forest", "crown", "mirror", "letter", "journey", "memory", "promise", "thief", "wolf",
+        "mountain", "bridge", "clock", "harbor", "hunter", "kingdom", "machine", "mystery", "ocean", "orchard",
+        "painter", "prince", "rain", "ring", "ruin", "salt", "silver", "sky", "song", "spring",
+        "station", "stranger", "sword", "tide", "tower", "traveler", "valley", "voyage", "wall", "wind",
+        "wings", "witch", "wonder", "code", "data", "java", "systems", "design", "patterns", "algorithms",
+        "history", "guide", "cooking", "art", "science", "mind", "life", "story", "book", "year"
+    };
+
+    static final double LOANED_FRACTION = 0.05;
+    static final double OVERDUE_FRACTION = 1.0 / 3;
+    static final int MAX_LOANS = 5;
+
+    // What the benchmarks need to know about a generated catalog
+    static final class Catalog {
+        final int size;
+        final String[] isbns;
+        final String[] memberIds;
+        // Books on the shelf, and members with no loans, for borrow/return cycles
+        final String[] availableIsbns;
+        final String[] idleMemberIds;
+
+        Catalog(int size, String[] isbns, String[] memberIds, String[] availableIsbns, String[] idleMemberIds) {
+            this.size = size;
+            this.isbns = isbns;
+            this.memberIds = memberIds;
+            this.availableIsbns = availableIsbns;
+            this.idleMemberIds = idleMemberIds;
+        }
+    }
+
+    private CatalogGenerator() {
+    }
+
+    static int memberCount(int books) {
+        return Math.max(100, books / 10);
+    }
+
+    // ISBN-13 number n of the synthetic range; distinct for n below 10^9.
+    // Multiplying by a unit modulo 10^9 scatters neighbours across the range.
+    static String isbn(int n) {
+        long body = 978_000_000_000L + (n * 387_420_489L) % 1_000_000_000L;
+        String digits = Long.toString(body);
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            int digit = digits.charAt(i) - '0';
+            sum += (i % 2 == 0) ? digit : digit * 3;
+        }
+        return digits + (10 - sum % 10) % 10;
+    }
+
+    static Catalog write(File dir, int size, long seed) throws IOException {
+        Random random = new Random(seed);
+        Zipf genres = new Zipf(GENRES.length, 1.0);
+        int authorCount = Math.max(50, size / 20);
+        Zipf authors = new Zipf(authorCount, 1.1);
+        Zipf words = new Zipf(TITLE_WORDS.length, 1.0);
+        LocalDate today = LocalDate.now();
+
+        int memberCount = memberCount(size);
+        List<Member> members = new ArrayList<>(memberCount);
+        for (int i = 0; i < memberCount; i++) {
+            String id = "M" + (100000 + i);
+            members.add(new Member(id, "Member " + i, "member" + i + "@example.org", "555-" + (1000000 + i)));
+        }
+
+        List<Book> books = new ArrayList<>(size);
+        List<String> isbns = new ArrayList<>(size);
+        List<String> available = new ArrayList<>();
+        int nextBorrower = 0;
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            title.setLength(0);
+            int length = 1 + random.nextInt(5);
+            for (int w = 0; w < length; w++) {
+                String word = TITLE_WORDS[words.sample(random)];
+                if (w > 0) {
+                    title.append(' ');
+                }
+                title.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+            }
+            int author = authors.sample(random);
+            String authorName = FIRST_NAMES[author % FIRST_NAMES.length] + " "
+                    + LAST_NAMES[(author / FIRST_NAMES.length) % LAST_NAMES.length]
+                    + (author >= FIRST_NAMES.length * LAST_NAMES.length ? " " + author : "");
+            String isbn = isbn(i);
+            Book book = new Book(isbn, title.toString(), authorName, GENRES[genres.sample(random)]);
+
+            // Loans go round the members in turn so the limit is never exceeded
+            Member borrower = members.get(nextBorrower % memberCount);
+            if (random.nextDouble() < LOANED_FRACTION && borrower.getBorrowedCount() < MAX_LOANS) {
+                boolean overdue = random.nextDouble() < OVERDUE_FRACTION;
+                LocalDate due = overdue ? today.minusDays(1 + random.nextInt(30)) : today.plusDays(random.nextInt(15));
+                book.setAvailable(false);
+                book.setBorrowedBy(borrower.getMemberId());
+                book.setBorrowDate(due.minusDays(14));
+                book.setDueDate(due);
+                borrower.borrowBook(isbn);
+                nextBorrower++;
+            } else {
+                available.add(isbn);
+            }
+            books.add(book);
+            isbns.add(isbn);
+        }
+
+        List<String> idle = new ArrayList<>();
+        for (Member member : members) {
+            if (member.getBorrowedCount() == 0) {
+                idle.add(member.getMemberId());
+            }
+        }
+
+        try (OutputStream out = new FileOutputStream(new File(dir, "books.dat"))) {
+            CatalogFormat.writeBooks(out, books, 0);
+        }
+        try (OutputStream out = new FileOutputStream(new File(dir, "members.dat"))) {
+            CatalogFormat.writeMembers(out, members, 0);
+        }
+
+        String[] memberIds = new String[memberCount];
+        for (int i = 0; i < memberCount; i++) {
+            memberIds[i] = members.get(i).getMemberId();
+        }
+        String[] shuffled = available.toArray(new String[0]);
+        shuffle(shuffled, random);
+        return new Catalog(size, isbns.toArray(new String[0]), memberIds, shuffled, idle.toArray(new String[0]));
+    }
+
+    static void shuffle(String[] values, Random random) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            String swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+    }
+
+    // Rank k (0-based) drawn with probability proportional to 1 / (k + 1)^s
+    static final class Zipf {
+        private final double[] cumulative;
+
+        Zipf(int n, double s) {
+            cumulative = new double[n];
+            double total = 0;
+            for (int k = 0; k < n; k++) {
+                total += 1.0 / Math.pow(k + 1, s);
+                cumulative[k] = total;
+            }
+            for (int k = 0; k < n; k++) {
+                cumulative[k] /= total;
+            }
+        }
+
+        int sample(Random random) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+        }
+    }
+}
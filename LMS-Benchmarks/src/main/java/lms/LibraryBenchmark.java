@@ -0,0 +1,136 @@
+package lms;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// The Library operations behind the GUI's buttons and tables, on catalogs of
+// 1k, 100k and 1M books loaded from generated books.dat and members.dat files.
+// Mutations mark the library dirty like in the application, so the background
+// save runs during those benchmarks and its lock time is part of the score.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class LibraryBenchmark {
+    // More distinct queries than the search cache holds, so most searches miss
+    static final int QUERY_COUNT = 512;
+
+    @Param({"1000", "100000", "1000000"})
+    int catalogSize;
+
+    private File dataDir;
+    private Library library;
+    private CatalogGenerator.Catalog catalog;
+    private String[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDir = Files.createTempDirectory("lms-bench").toFile();
+        catalog = CatalogGenerator.write(dataDir, catalogSize, 42);
+        library = new Library(dataDir);
+        queries = queries(library, new Random(7));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        library.close();
+        deleteDirectory(dataDir);
+    }
+
+    // Title words, author surnames, genres and ISBN prefixes, as typed into the
+    // search box. Small catalogs may run out of distinct queries before QUERY_COUNT.
+    static String[] queries(Library library, Random random) {
+        List<Book> books = library.getAllBooks();
+        List<String> queries = new ArrayList<>(QUERY_COUNT);
+        for (int attempt = 0; attempt < QUERY_COUNT * 20 && queries.size() < QUERY_COUNT; attempt++) {
+            Book book = books.get(random.nextInt(books.size()));
+            String query;
+            switch (attempt % 4) {
+                case 0:
+                    String[] words = book.getTitle().split(" ");
+                    query = words[random.nextInt(words.length)];
+                    break;
+                case 1:
+                    String author = book.getAuthor();
+                    query = author.substring(author.indexOf(' ') + 1);
+                    break;
+                case 2:
+                    query = book.getGenre().substring(0, 3 + random.nextInt(book.getGenre().length() - 2));
+                    break;
+                default:
+                    query = book.getIsbn().substring(0, 5 + random.nextInt(8));
+                    break;
+            }
+            if (!queries.contains(query)) {
+                queries.add(query);
+            }
+        }
+        String[] shuffled = queries.toArray(new String[0]);
+        CatalogGenerator.shuffle(shuffled, random);
+        return shuffled;
+    }
+
+    static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public void addAndRemoveBook(Blackhole bh) {
+        String isbn = CatalogGenerator.isbn(catalogSize + (next++ & 0xFFFF));
+        bh.consume(library.addBook(isbn, "Benchmark Edition", "Jane Doe", "Fiction"));
+        bh.consume(library.removeBook(isbn));
+    }
+
+    @Benchmark
+    public List<Book> searchBooks() {
+        return library.searchBooks(queries[next++ % queries.length]);
+    }
+
+    @Benchmark
+    public void borrowAndReturnBook(Blackhole bh) {
+        int i = next++;
+        String isbn = catalog.availableIsbns[i % catalog.availableIsbns.length];
+        String memberId = catalog.idleMemberIds[i % catalog.idleMemberIds.length];
+        bh.consume(library.borrowBook(isbn, memberId));
+        bh.consume(library.returnBook(isbn));
+    }
+
+    @Benchmark
+    public List<Book> getOverdueBooks() {
+        return library.getOverdueBooks();
+    }
+
+    @Benchmark
+    public Object getLibraryStats() {
+        return library.getLibraryStats();
+    }
+}
@@ -0,0 +1,62 @@
+package lms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Member's fixed-size loan array against the ArrayList it replaced: a borrow,
+// limit check and return on a member already holding four books. Run with
+// -prof gc to compare allocation as well as time.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemberLoansBenchmark {
+    private final String[] isbns = new String[5];
+    private Member member;
+    private List<String> list;
+
+    @Setup
+    public void setUp() {
+        member = new Member("M100000", "Member", "member@example.org", "555-1000000");
+        list = new ArrayList<>();
+        for (int i = 0; i < isbns.length; i++) {
+            isbns[i] = CatalogGenerator.isbn(i);
+        }
+        for (int i = 0; i < 4; i++) {
+            member.borrowBook(isbns[i]);
+            list.add(isbns[i]);
+        }
+    }
+
+    @Benchmark
+    public boolean memberArray() {
+        member.borrowBook(isbns[4]);
+        boolean atLimit = member.getBorrowedCount() >= 5;
+        member.returnBook(isbns[4]);
+        return atLimit;
+    }
+
+    @Benchmark
+    public boolean arrayList() {
+        if (!list.contains(isbns[4])) {
+            list.add(isbns[4]);
+        }
+        boolean atLimit = list.size() >= 5;
+        list.remove(isbns[4]);
+        return atLimit;
+    }
+}
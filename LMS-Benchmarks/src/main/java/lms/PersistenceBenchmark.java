@@ -0,0 +1,79 @@
+package lms;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Startup and save cost: loading the snapshot of books.dat, members.dat and
+// books.idx into a new Library, and one full snapshot write of all three files,
+// fsyncs included. Single-shot because a load of the 1M catalog takes several
+// seconds.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class PersistenceBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    int catalogSize;
+
+    private File dataDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDir = Files.createTempDirectory("lms-bench").toFile();
+        CatalogGenerator.write(dataDir, catalogSize, 42);
+        Library library = new Library(dataDir);
+        library.writeData(); // Writes a snapshot with books.idx, so loads take that path
+        library.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        LibraryBenchmark.deleteDirectory(dataDir);
+    }
+
+    // A loaded library for saveData only, so loadData never holds two at once
+    @State(Scope.Benchmark)
+    public static class Loaded {
+        Library library;
+
+        @Setup(Level.Trial)
+        public void setUp(PersistenceBenchmark catalog) {
+            library = new Library(catalog.dataDir);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            library.close();
+        }
+    }
+
+    @Benchmark
+    public Library loadData() {
+        Library loaded = new Library(dataDir);
+        loaded.close();
+        return loaded;
+    }
+
+    @Benchmark
+    public void saveData(Loaded loaded) {
+        loaded.library.writeData();
+    }
+}
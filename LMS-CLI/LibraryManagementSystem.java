@@ -1,15 +1,113 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+// Dictionary for low-cardinality string columns. Each distinct value gets a
+// small int code the first time it is seen, so books share one String per
+// author and genre and filters compare codes. Codes are only meaningful within
+// one run; the data files carry their own dictionary.
+class SymbolTable {
+    static final SymbolTable AUTHORS = new SymbolTable();
+    static final SymbolTable GENRES = new SymbolTable();
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    // Replaced, never modified, when a value is added, so lookups need no lock
+    private volatile String[] values = new String[0];
+    private volatile String[] lowerValues = new String[0];
+
+    public synchronized int intern(String value) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        int next = values.length;
+        String[] grownValues = Arrays.copyOf(values, next + 1);
+        String[] grownLower = Arrays.copyOf(lowerValues, next + 1);
+        grownValues[next] = value;
+        grownLower[next] = value.toLowerCase();
+        codes.put(value, next);
+        lowerValues = grownLower;
+        values = grownValues;
+        return next;
+    }
+
+    // Code for the value, or -1 if it has never been interned
+    public synchronized int find(String value) {
+        Integer code = codes.get(value);
+        return code != null ? code : -1;
+    }
+
+    public String lookup(int code) {
+        return values[code];
+    }
+
+    public String lookupLowerCase(int code) {
+        return lowerValues[code];
+    }
+
+    public int size() {
+        return values.length;
+    }
+}
 
 // Book class to represent books in the library
 class Book implements Serializable {
     private static final long serialVersionUID = 1L;
     private String isbn;
     private String title;
-    private String author;
-    private String genre;
+    private int authorCode;
+    private int genreCode;
     private boolean isAvailable;
     private String borrowedBy;
     private LocalDate borrowDate;
@@ -18,19 +116,30 @@ class Book implements Serializable {
     public Book(String isbn, String title, String author, String genre) {
         this.isbn = isbn;
         this.title = title;
-        this.author = author;
-        this.genre = genre;
+        this.authorCode = SymbolTable.AUTHORS.intern(author);
+        this.genreCode = SymbolTable.GENRES.intern(genre);
         this.isAvailable = true;
         this.borrowedBy = null;
         this.borrowDate = null;
         this.dueDate = null;
     }
 
+    // For readers that have already interned author and genre
+    Book(String isbn, String title, int authorCode, int genreCode) {
+        this.isbn = isbn;
+        this.title = title;
+        this.authorCode = authorCode;
+        this.genreCode = genreCode;
+        this.isAvailable = true;
+    }
+
     // Getters and setters
     public String getIsbn() { return isbn; }
     public String getTitle() { return title; }
-    public String getAuthor() { return author; }
-    public String getGenre() { return genre; }
+    public String getAuthor() { return SymbolTable.AUTHORS.lookup(authorCode); }
+    public String getGenre() { return SymbolTable.GENRES.lookup(genreCode); }
+    public int getAuthorCode() { return authorCode; }
+    public int getGenreCode() { return genreCode; }
     public boolean isAvailable() { return isAvailable; }
     public String getBorrowedBy() { return borrowedBy; }
     public LocalDate getBorrowDate() { return borrowDate; }
@@ -41,11 +150,59 @@ class Book implements Serializable {
     public void setBorrowDate(LocalDate borrowDate) { this.borrowDate = borrowDate; }
     public void setDueDate(LocalDate dueDate) { this.dueDate = dueDate; }
 
+    // Detached copy of the record, for saving while the library keeps changing
+    Book copy() {
+        Book copy = new Book(isbn, title, authorCode, genreCode);
+        copy.isAvailable = isAvailable;
+        copy.borrowedBy = borrowedBy;
+        copy.borrowDate = borrowDate;
+        copy.dueDate = dueDate;
+        return copy;
+    }
+
+    // The serialized form keeps the original String fields, so data written
+    // by older versions can still be read and migrated
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("isbn", String.class),
+        new ObjectStreamField("title", String.class),
+        new ObjectStreamField("author", String.class),
+        new ObjectStreamField("genre", String.class),
+        new ObjectStreamField("isAvailable", boolean.class),
+        new ObjectStreamField("borrowedBy", String.class),
+        new ObjectStreamField("borrowDate", LocalDate.class),
+        new ObjectStreamField("dueDate", LocalDate.class)
+    };
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("isbn", isbn);
+        fields.put("title", title);
+        fields.put("author", getAuthor());
+        fields.put("genre", getGenre());
+        fields.put("isAvailable", isAvailable);
+        fields.put("borrowedBy", borrowedBy);
+        fields.put("borrowDate", borrowDate);
+        fields.put("dueDate", dueDate);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        isbn = (String) fields.get("isbn", null);
+        title = (String) fields.get("title", null);
+        authorCode = SymbolTable.AUTHORS.intern((String) fields.get("author", ""));
+        genreCode = SymbolTable.GENRES.intern((String) fields.get("genre", ""));
+        isAvailable = fields.get("isAvailable", true);
+        borrowedBy = (String) fields.get("borrowedBy", null);
+        borrowDate = (LocalDate) fields.get("borrowDate", null);
+        dueDate = (LocalDate) fields.get("dueDate", null);
+    }
+
     @Override
     public String toString() {
         String status = isAvailable ? "Available" : "Borrowed by " + borrowedBy;
         return String.format("ISBN: %s | Title: %s | Author: %s | Genre: %s | Status: %s",
-                isbn, title, author, genre, status);
+                isbn, title, getAuthor(), getGenre(), status);
     }
 }
 
@@ -56,15 +213,22 @@ class Member implements Serializable {
     private String name;
     private String email;
     private String phone;
-    private List<String> borrowedBooks;
+    // ISBNs on loan, in borrowing order, in the first borrowedCount slots. The
+    // array is sized to the borrowing limit on the first loan and shared while
+    // empty, so borrowing and returning allocate nothing.
+    private String[] borrowedBooks;
+    private int borrowedCount;
     private LocalDate membershipDate;
 
+    private static final String[] NO_LOANS = new String[0];
+    private static final int LOAN_CAPACITY = 5;
+
     public Member(String memberId, String name, String email, String phone) {
         this.memberId = memberId;
         this.name = name;
         this.email = email;
         this.phone = phone;
-        this.borrowedBooks = new ArrayList<>();
+        this.borrowedBooks = NO_LOANS;
         this.membershipDate = LocalDate.now();
     }
 
@@ -73,312 +237,4730 @@ class Member implements Serializable {
     public String getName() { return name; }
     public String getEmail() { return email; }
     public String getPhone() { return phone; }
-    public List<String> getBorrowedBooks() { return borrowedBooks; }
+    public int getBorrowedCount() { return borrowedCount; }
+    public String getBorrowedBook(int index) { return borrowedBooks[index]; }
     public LocalDate getMembershipDate() { return membershipDate; }
 
-    public void setName(String name) { this.name = name; }
-    public void setEmail(String email) { this.email = email; }
-    public void setPhone(String phone) { this.phone = phone; }
+    public void setName(String name) { this.name = name; }
+    public void setEmail(String email) { this.email = email; }
+    public void setPhone(String phone) { this.phone = phone; }
+    public void setMembershipDate(LocalDate membershipDate) { this.membershipDate = membershipDate; }
+
+    // Copy of the ISBNs on loan, for display and export
+    public List<String> getBorrowedBooks() {
+        return Arrays.asList(Arrays.copyOf(borrowedBooks, borrowedCount));
+    }
+
+    public boolean hasBorrowed(String isbn) {
+        return indexOf(isbn) >= 0;
+    }
+
+    // Pass the Book's own ISBN string so the member does not hold a copy
+    public void borrowBook(String isbn) {
+        if (indexOf(isbn) >= 0) {
+            return;
+        }
+        if (borrowedCount == borrowedBooks.length) {
+            borrowedBooks = Arrays.copyOf(borrowedBooks, Math.max(LOAN_CAPACITY, borrowedCount * 2));
+        }
+        borrowedBooks[borrowedCount++] = isbn;
+    }
+
+    public void returnBook(String isbn) {
+        int index = indexOf(isbn);
+        if (index < 0) {
+            return;
+        }
+        System.arraycopy(borrowedBooks, index + 1, borrowedBooks, index, borrowedCount - index - 1);
+        borrowedBooks[--borrowedCount] = null;
+    }
+
+    // Detached copy of the record, for saving while the library keeps changing
+    Member copy() {
+        Member copy = new Member(memberId, name, email, phone);
+        copy.membershipDate = membershipDate;
+        copy.borrowedBooks = borrowedCount == 0 ? NO_LOANS : Arrays.copyOf(borrowedBooks, borrowedCount);
+        copy.borrowedCount = borrowedCount;
+        return copy;
+    }
+
+    // Replaces loan ISBNs read from a file with the catalog's own strings
+    void shareIsbns(Map<String, Book> books) {
+        for (int i = 0; i < borrowedCount; i++) {
+            Book book = books.get(borrowedBooks[i]);
+            if (book != null) {
+                borrowedBooks[i] = book.getIsbn();
+            }
+        }
+    }
+
+    private int indexOf(String isbn) {
+        for (int i = 0; i < borrowedCount; i++) {
+            String borrowed = borrowedBooks[i];
+            if (borrowed == isbn || borrowed.equals(isbn)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // The serialized form keeps the original List field, so data written by
+    // older versions can still be read and migrated
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("memberId", String.class),
+        new ObjectStreamField("name", String.class),
+        new ObjectStreamField("email", String.class),
+        new ObjectStreamField("phone", String.class),
+        new ObjectStreamField("borrowedBooks", List.class),
+        new ObjectStreamField("membershipDate", LocalDate.class)
+    };
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("memberId", memberId);
+        fields.put("name", name);
+        fields.put("email", email);
+        fields.put("phone", phone);
+        fields.put("borrowedBooks", new ArrayList<>(getBorrowedBooks()));
+        fields.put("membershipDate", membershipDate);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        memberId = (String) fields.get("memberId", null);
+        name = (String) fields.get("name", null);
+        email = (String) fields.get("email", null);
+        phone = (String) fields.get("phone", null);
+        membershipDate = (LocalDate) fields.get("membershipDate", null);
+        borrowedBooks = NO_LOANS;
+        List<String> borrowed = (List<String>) fields.get("borrowedBooks", null);
+        if (borrowed != null) {
+            for (String isbn : borrowed) {
+                borrowBook(isbn);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ID: %s | Name: %s | Email: %s | Phone: %s | Books Borrowed: %d | Member Since: %s",
+                memberId, name, email, phone, borrowedCount, membershipDate.format(DateTimeFormatter.ofPattern("dd-MM-yyyy")));
+    }
+}
+
+// Inverted trigram index over the lowercased title, author, genre and ISBN of
+// every book. Books get an int id in the order they are added, and each
+// trigram keeps a sorted array of the ids containing it, so the index is a few
+// thousand int arrays rather than a set entry per trigram of every book.
+// Queries of three or more characters only check the books that contain all of
+// the query's trigrams; shorter queries scan the cached lowercase fields
+// instead of lowercasing every book again. A removed book's id is skipped by
+// searches until enough have built up to renumber the rest. Methods are
+// synchronized so the index can be shared between threads.
+class SearchIndex {
+    private static final int GRAM = 3;
+    private static final int BUILD_CHUNK = 16384;
+    private static final int MIN_RENUMBER = 1024;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    // Id -> ISBN and lowercased fields, both null once the book is removed
+    private String[] isbnsById = new String[16];
+    private String[][] fieldsById = new String[16][];
+    private int nextId;
+    private int removedIds;
+    private GramTable postings = new GramTable();
+
+    public synchronized void add(Book book) {
+        remove(book.getIsbn());
+        int id = assignId(book.getIsbn(), lowerFields(book));
+        postings.addGrams(fieldsById[id], id);
+    }
+
+    // Adds a whole catalog. The fields are lowercased and the postings built a
+    // chunk of books at a time in parallel on the common ForkJoinPool, then the
+    // chunks' postings are appended in id order.
+    public synchronized void addAll(List<Book> books) {
+        for (Book book : books) {
+            remove(book.getIsbn());
+        }
+        int firstId = nextId;
+        int count = books.size();
+        ensureCapacity(firstId + count);
+        String[][] fields = fieldsById;
+        IntStream.range(0, count).parallel().forEach(i -> fields[firstId + i] = lowerFields(books.get(i)));
+        for (int i = 0; i < count; i++) {
+            String isbn = books.get(i).getIsbn();
+            isbnsById[firstId + i] = isbn;
+            ids.put(isbn, firstId + i);
+        }
+        nextId += count;
+
+        List<GramTable> chunks = IntStream.range(0, (count + BUILD_CHUNK - 1) / BUILD_CHUNK).parallel()
+                .mapToObj(chunk -> {
+                    GramTable table = new GramTable();
+                    int end = firstId + Math.min(count, (chunk + 1) * BUILD_CHUNK);
+                    for (int id = firstId + chunk * BUILD_CHUNK; id < end; id++) {
+                        table.addGrams(fields[id], id);
+                    }
+                    return table;
+                })
+                .collect(Collectors.toList());
+        for (GramTable chunk : chunks) {
+            postings.appendAll(chunk);
+        }
+    }
+
+    public synchronized void remove(String isbn) {
+        Integer id = ids.remove(isbn);
+        if (id == null) {
+            return;
+        }
+        isbnsById[id] = null;
+        fieldsById[id] = null;
+        removedIds++;
+        if (removedIds >= MIN_RENUMBER && removedIds > ids.size()) {
+            renumber();
+        }
+    }
+
+    public synchronized void clear() {
+        ids.clear();
+        isbnsById = new String[16];
+        fieldsById = new String[16][];
+        nextId = 0;
+        removedIds = 0;
+        postings = new GramTable();
+    }
+
+    // Returns the ISBNs of books with a field containing the query (case-insensitive)
+    public synchronized List<String> search(String query) {
+        String lowerQuery = query.toLowerCase();
+        List<String> results = new ArrayList<>();
+
+        if (lowerQuery.length() < GRAM) {
+            for (int id = 0; id < nextId; id++) {
+                if (fieldsById[id] != null && matches(fieldsById[id], lowerQuery)) {
+                    results.add(isbnsById[id]);
+                }
+            }
+            return results;
+        }
+
+        List<Posting> lists = new ArrayList<>();
+        for (int i = 0; i + GRAM <= lowerQuery.length(); i++) {
+            Posting posting = postings.get(gram(lowerQuery, i));
+            if (posting == null) {
+                return results;
+            }
+            lists.add(posting);
+        }
+        lists.sort(Comparator.comparingInt(posting -> posting.size));
+
+        // Walk the rarest trigram's list and check the rest, then verify the
+        // candidate really contains the whole query in a single field
+        Posting rarest = lists.get(0);
+        for (int k = 0; k < rarest.size; k++) {
+            int id = rarest.ids[k];
+            if (fieldsById[id] == null) {
+                continue;
+            }
+            boolean inAll = true;
+            for (int i = 1; i < lists.size() && inAll; i++) {
+                inAll = lists.get(i).contains(id);
+            }
+            if (inAll && matches(fieldsById[id], lowerQuery)) {
+                results.add(isbnsById[id]);
+            }
+        }
+        return results;
+    }
+
+    // Returns the given ISBNs whose book still has a field containing the query
+    public synchronized List<String> filter(List<String> isbns, String query) {
+        String lowerQuery = query.toLowerCase();
+        List<String> results = new ArrayList<>();
+        for (String isbn : isbns) {
+            Integer id = ids.get(isbn);
+            if (id != null && matches(fieldsById[id], lowerQuery)) {
+                results.add(isbn);
+            }
+        }
+        return results;
+    }
+
+    private int assignId(String isbn, String[] fields) {
+        ensureCapacity(nextId + 1);
+        int id = nextId++;
+        isbnsById[id] = isbn;
+        fieldsById[id] = fields;
+        ids.put(isbn, id);
+        return id;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > isbnsById.length) {
+            int grown = Math.max(capacity, isbnsById.length + (isbnsById.length >> 1));
+            isbnsById = Arrays.copyOf(isbnsById, grown);
+            fieldsById = Arrays.copyOf(fieldsById, grown);
+        }
+    }
+
+    // Gives the remaining books consecutive ids again and rebuilds the
+    // postings without the removed ones
+    private void renumber() {
+        String[] isbns = isbnsById;
+        String[][] fields = fieldsById;
+        int count = nextId;
+        clear();
+        for (int old = 0; old < count; old++) {
+            if (isbns[old] != null) {
+                int id = assignId(isbns[old], fields[old]);
+                postings.addGrams(fields[old], id);
+            }
+        }
+    }
+
+    private static String[] lowerFields(Book book) {
+        return new String[] {
+            book.getTitle().toLowerCase(),
+            SymbolTable.AUTHORS.lookupLowerCase(book.getAuthorCode()),
+            SymbolTable.GENRES.lookupLowerCase(book.getGenreCode()),
+            book.getIsbn().toLowerCase()
+        };
+    }
+
+    // The three chars of a trigram packed into one long
+    private static long gram(String field, int i) {
+        return ((long) field.charAt(i) << 32) | ((long) field.charAt(i + 1) << 16) | field.charAt(i + 2);
+    }
+
+    private static boolean matches(String[] fields, String lowerQuery) {
+        for (String field : fields) {
+            if (field.contains(lowerQuery)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Ascending book ids; adding the id just added again is a no-op, so a
+    // trigram that occurs twice in one book is only listed once
+    private static final class Posting {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        // The other posting's ids must all be higher than these
+        void append(Posting other) {
+            if (size + other.size > ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(size + other.size, size * 2));
+            }
+            System.arraycopy(other.ids, 0, ids, size, other.size);
+            size += other.size;
+        }
+
+        boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+    }
+
+    // Open-addressing map from a packed trigram to its posting
+    private static final class GramTable {
+        private static final long EMPTY = -1;
+
+        private long[] keys = emptyKeys(1024);
+        private Posting[] values = new Posting[1024];
+        private int size;
+
+        Posting get(long gram) {
+            int mask = keys.length - 1;
+            for (int i = slot(gram, mask); keys[i] != EMPTY; i = (i + 1) & mask) {
+                if (keys[i] == gram) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        void addGrams(String[] fields, int id) {
+            for (String field : fields) {
+                for (int i = 0; i + GRAM <= field.length(); i++) {
+                    postingFor(gram(field, i)).add(id);
+                }
+            }
+        }
+
+        void appendAll(GramTable other) {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.keys[i] != EMPTY) {
+                    postingFor(other.keys[i]).append(other.values[i]);
+                }
+            }
+        }
+
+        private Posting postingFor(long gram) {
+            int mask = keys.length - 1;
+            int i = slot(gram, mask);
+            while (keys[i] != EMPTY) {
+                if (keys[i] == gram) {
+                    return values[i];
+                }
+                i = (i + 1) & mask;
+            }
+            if (size * 2 >= keys.length) {
+                grow();
+                return postingFor(gram);
+            }
+            keys[i] = gram;
+            values[i] = new Posting();
+            size++;
+            return values[i];
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Posting[] oldValues = values;
+            keys = emptyKeys(oldKeys.length * 2);
+            values = new Posting[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] != EMPTY) {
+                    int i = slot(oldKeys[j], mask);
+                    while (keys[i] != EMPTY) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+
+        private static long[] emptyKeys(int length) {
+            long[] keys = new long[length];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        private static int slot(long gram, int mask) {
+            long h = gram * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
+
+// LRU cache of search results keyed by the lowercased query. A query that
+// extends a cached one ("tolk" after "tol") only re-checks the cached ISBNs,
+// since any book matching the longer query also matches its prefix. Entries
+// record the catalog generation they were computed at; invalidate() bumps the
+// generation whenever books are added or removed, and stale entries are dropped.
+class SearchCache {
+    private static final int CAPACITY = 128;
+    private static final int MAX_CACHED_RESULTS = 100000;
+
+    private final SearchIndex index;
+    private final Map<String, CachedResult> entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+    private long generation;
+    private long hits;
+    private long refinements;
+    private long misses;
+
+    private static class CachedResult {
+        final long generation;
+        final List<String> isbns;
+
+        CachedResult(long generation, List<String> isbns) {
+            this.generation = generation;
+            this.isbns = isbns;
+        }
+    }
+
+    public SearchCache(SearchIndex index) {
+        this.index = index;
+    }
+
+    // Call after the search index has been updated
+    public synchronized void invalidate() {
+        generation++;
+    }
+
+    public synchronized List<String> search(String query) {
+        String key = query.toLowerCase();
+        CachedResult exact = freshEntry(key);
+        if (exact != null) {
+            hits++;
+            return new ArrayList<>(exact.isbns);
+        }
+
+        List<String> results = null;
+        for (int length = key.length() - 1; length > 0 && results == null; length--) {
+            CachedResult prefix = freshEntry(key.substring(0, length));
+            if (prefix != null) {
+                refinements++;
+                results = index.filter(prefix.isbns, key);
+            }
+        }
+        if (results == null) {
+            misses++;
+            results = index.search(key);
+        }
+        if (results.size() <= MAX_CACHED_RESULTS) {
+            entries.put(key, new CachedResult(generation, results));
+        }
+        return new ArrayList<>(results);
+    }
+
+    private CachedResult freshEntry(String key) {
+        CachedResult entry = entries.get(key);
+        if (entry != null && entry.generation != generation) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    public synchronized long getHits() { return hits; }
+    public synchronized long getRefinements() { return refinements; }
+    public synchronized long getMisses() { return misses; }
+
+    @Override
+    public synchronized String toString() {
+        long total = hits + refinements + misses;
+        return String.format("%d hits, %d refined, %d misses (%.0f%% answered from cache)",
+                hits, refinements, misses, total == 0 ? 0.0 : (hits + refinements) * 100.0 / total);
+    }
+}
+
+// Secondary indexes over borrowed books: the set of borrowed ISBNs and a map
+// from due date (epoch day) to the ISBNs due that day. Overdue and due-soon
+// queries become range reads instead of scans over the whole catalog.
+// Methods are synchronized so the index can be shared between threads.
+// The overdue count is cached for one day and rolled forward bucket by bucket
+// when the date changes, so statistics cost the same for any catalog size.
+class LoanIndex {
+    private static final long NOT_COUNTED = Long.MIN_VALUE;
+
+    private final Set<String> borrowed = new LinkedHashSet<>();
+    private final NavigableMap<Long, Set<String>> byDueDay = new TreeMap<>();
+    private long overdueAsOf = NOT_COUNTED;
+    private int overdueCount;
+
+    public synchronized void add(String isbn, LocalDate dueDate) {
+        borrowed.add(isbn);
+        if (dueDate != null && byDueDay.computeIfAbsent(dueDate.toEpochDay(), k -> new LinkedHashSet<>()).add(isbn)
+                && dueDate.toEpochDay() < overdueAsOf) {
+            overdueCount++;
+        }
+    }
+
+    public synchronized void remove(String isbn, LocalDate dueDate) {
+        borrowed.remove(isbn);
+        if (dueDate != null) {
+            Set<String> isbns = byDueDay.get(dueDate.toEpochDay());
+            if (isbns != null && isbns.remove(isbn)) {
+                if (isbns.isEmpty()) {
+                    byDueDay.remove(dueDate.toEpochDay());
+                }
+                if (dueDate.toEpochDay() < overdueAsOf) {
+                    overdueCount--;
+                }
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        borrowed.clear();
+        byDueDay.clear();
+        overdueAsOf = NOT_COUNTED;
+        overdueCount = 0;
+    }
+
+    // Number of books due before today
+    public synchronized int getOverdueCount(LocalDate today) {
+        long day = today.toEpochDay();
+        if (overdueAsOf == NOT_COUNTED || day < overdueAsOf) {
+            overdueCount = countDays(byDueDay.headMap(day, false));
+        } else if (day > overdueAsOf) {
+            overdueCount += countDays(byDueDay.subMap(overdueAsOf, true, day, false));
+        }
+        overdueAsOf = day;
+        return overdueCount;
+    }
+
+    public synchronized List<String> getBorrowed() {
+        return new ArrayList<>(borrowed);
+    }
+
+    public synchronized int getBorrowedCount() {
+        return borrowed.size();
+    }
+
+    // Books due before today, oldest due date first
+    public synchronized List<String> getOverdue(LocalDate today) {
+        return collect(byDueDay.headMap(today.toEpochDay(), false));
+    }
+
+    // Books due between the two dates (inclusive), earliest first
+    public synchronized List<String> getDueBetween(LocalDate from, LocalDate to) {
+        return collect(byDueDay.subMap(from.toEpochDay(), true, to.toEpochDay(), true));
+    }
+
+    private static int countDays(Map<Long, Set<String>> days) {
+        int count = 0;
+        for (Set<String> day : days.values()) {
+            count += day.size();
+        }
+        return count;
+    }
+
+    private static List<String> collect(Map<Long, Set<String>> days) {
+        List<String> isbns = new ArrayList<>();
+        for (Set<String> day : days.values()) {
+            isbns.addAll(day);
+        }
+        return isbns;
+    }
+}
+
+// Versioned binary format for books.dat and members.dat. A file is a header
+// (magic, version, kind, journal generation, record count) followed by fixed
+// field order records: length-prefixed UTF-8 strings, epoch-day ints for dates
+// and a flag byte for availability and optional fields. From version 2 a books
+// file has author and genre dictionaries after the header, and each book
+// stores varint indexes into them instead of the strings. From version 3 the
+// records are grouped in chunks of up to CHUNK_RECORDS, each prefixed with its
+// length in bytes and its record count, so the chunks of a file held in memory
+// can be decoded independently and in parallel.
+class CatalogFormat {
+    static final int MAGIC = 0x4C4D5343; // "LMSC"
+    static final byte VERSION = 3;
+    static final byte FIRST_DICTIONARY_VERSION = 2;
+    static final byte FIRST_CHUNKED_VERSION = 3;
+    static final int CHUNK_RECORDS = 8192;
+    static final byte BOOKS = 1;
+    static final byte MEMBERS = 2;
+
+    static final int FLAG_AVAILABLE = 1;
+    static final int FLAG_BORROWED_BY = 2;
+    static final int FLAG_BORROW_DATE = 4;
+    static final int FLAG_DUE_DATE = 8;
+
+    private static final int LEGACY_MAGIC = 0xACED; // java.io serialization stream
+
+    // True if the file is an old ObjectOutputStream dump that needs migrating
+    static boolean isLegacy(File file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readUnsignedShort() == LEGACY_MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // One-time conversion of a legacy HashMap dump to the binary format. The
+    // original file is kept next to the new one with a .bak suffix.
+    @SuppressWarnings("unchecked")
+    static void migrateLegacy(File file, byte kind) throws IOException {
+        Map<String, ?> data;
+        long generation = 0;
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            data = (Map<String, ?>) ois.readObject();
+            try {
+                generation = ois.readLong();
+            } catch (EOFException e) {
+                // Written before snapshots carried a journal generation
+            }
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Unrecognised data in " + file.getName(), e);
+        }
+
+        File converted = new File(file.getPath() + ".new");
+        try (OutputStream out = new FileOutputStream(converted)) {
+            if (kind == BOOKS) {
+                writeBooks(out, (Collection<Book>) data.values(), generation);
+            } else {
+                writeMembers(out, (Collection<Member>) data.values(), generation);
+            }
+        }
+        Files.move(file.toPath(), new File(file.getPath() + ".bak").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(converted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static void writeBooks(OutputStream out, Collection<Book> books, long generation) throws IOException {
+        CatalogWriter writer = new CatalogWriter(out, BOOKS, generation, books.size());
+        writer.writeDictionaries(books);
+        for (Book book : books) {
+            writer.writeBook(book);
+        }
+        writer.flush();
+    }
+
+    static void writeMembers(OutputStream out, Collection<Member> members, long generation) throws IOException {
+        CatalogWriter writer = new CatalogWriter(out, MEMBERS, generation, members.size());
+        for (Member member : members) {
+            writer.writeMember(member);
+        }
+        writer.flush();
+    }
+}
+
+// Streaming writer for the CatalogFormat layout. Records are collected in a
+// buffer and written out a chunk at a time.
+class CatalogWriter implements Closeable {
+    private final DataOutputStream file;
+    private final ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream(64 * 1024);
+    private final DataOutputStream chunk = new DataOutputStream(chunkBytes);
+    // The file until the first record, then the chunk buffer
+    private DataOutputStream out;
+    private int recordsInChunk;
+    // Symbol table code -> index in this file's dictionary
+    private int[] authorIndex = new int[0];
+    private int[] genreIndex = new int[0];
+
+    public CatalogWriter(OutputStream out, byte kind, long generation, int count) throws IOException {
+        this.file = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        this.out = file;
+        file.writeInt(CatalogFormat.MAGIC);
+        file.writeByte(CatalogFormat.VERSION);
+        file.writeByte(kind);
+        file.writeLong(generation);
+        file.writeInt(count);
+    }
+
+    public void writeBook(Book book) throws IOException {
+        out = chunk;
+        int flags = 0;
+        if (book.isAvailable()) flags |= CatalogFormat.FLAG_AVAILABLE;
+        if (book.getBorrowedBy() != null) flags |= CatalogFormat.FLAG_BORROWED_BY;
+        if (book.getBorrowDate() != null) flags |= CatalogFormat.FLAG_BORROW_DATE;
+        if (book.getDueDate() != null) flags |= CatalogFormat.FLAG_DUE_DATE;
+
+        out.writeByte(flags);
+        writeString(book.getIsbn());
+        writeString(book.getTitle());
+        writeVarInt(authorIndex[book.getAuthorCode()]);
+        writeVarInt(genreIndex[book.getGenreCode()]);
+        if (book.getBorrowedBy() != null) writeString(book.getBorrowedBy());
+        if (book.getBorrowDate() != null) out.writeInt((int) book.getBorrowDate().toEpochDay());
+        if (book.getDueDate() != null) out.writeInt((int) book.getDueDate().toEpochDay());
+        endRecord();
+    }
+
+    // Writes the author and genre values used by the books; must come before writeBook
+    public void writeDictionaries(Collection<Book> books) throws IOException {
+        List<String> authors = new ArrayList<>();
+        List<String> genres = new ArrayList<>();
+        authorIndex = new int[SymbolTable.AUTHORS.size()];
+        genreIndex = new int[SymbolTable.GENRES.size()];
+        Arrays.fill(authorIndex, -1);
+        Arrays.fill(genreIndex, -1);
+        for (Book book : books) {
+            int author = book.getAuthorCode();
+            if (author >= authorIndex.length) {
+                authorIndex = grow(authorIndex, author);
+            }
+            if (authorIndex[author] < 0) {
+                authorIndex[author] = authors.size();
+                authors.add(book.getAuthor());
+            }
+            int genre = book.getGenreCode();
+            if (genre >= genreIndex.length) {
+                genreIndex = grow(genreIndex, genre);
+            }
+            if (genreIndex[genre] < 0) {
+                genreIndex[genre] = genres.size();
+                genres.add(book.getGenre());
+            }
+        }
+        writeVarInt(authors.size());
+        for (String author : authors) {
+            writeString(author);
+        }
+        writeVarInt(genres.size());
+        for (String genre : genres) {
+            writeString(genre);
+        }
+    }
+
+    // Codes interned after the arrays were sized (by another thread) still fit
+    private static int[] grow(int[] index, int code) {
+        int[] grown = Arrays.copyOf(index, code + 1);
+        Arrays.fill(grown, index.length, grown.length, -1);
+        return grown;
+    }
+
+    public void writeMember(Member member) throws IOException {
+        out = chunk;
+        writeString(member.getMemberId());
+        writeString(member.getName());
+        writeString(member.getEmail());
+        writeString(member.getPhone());
+        out.writeInt((int) member.getMembershipDate().toEpochDay());
+        writeVarInt(member.getBorrowedCount());
+        for (int i = 0; i < member.getBorrowedCount(); i++) {
+            writeString(member.getBorrowedBook(i));
+        }
+        endRecord();
+    }
+
+    private void endRecord() throws IOException {
+        if (++recordsInChunk == CatalogFormat.CHUNK_RECORDS) {
+            writeChunk();
+        }
+    }
+
+    private void writeChunk() throws IOException {
+        file.writeInt(chunkBytes.size());
+        file.writeInt(recordsInChunk);
+        chunkBytes.writeTo(file);
+        chunkBytes.reset();
+        recordsInChunk = 0;
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    // Writes the last, partly filled chunk; call once after the last record
+    public void flush() throws IOException {
+        if (recordsInChunk > 0) {
+            writeChunk();
+        }
+        file.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
+
+// Streaming reader for the CatalogFormat layout. A reader over a file held in
+// memory can also decode all of its records at once, a chunk per task.
+class CatalogReader implements Closeable {
+    private final DataInputStream in;
+    private final byte kind;
+    private final long generation;
+    private final int count;
+    private final byte version;
+    // Whole file, its length and its stream when reading from memory
+    private final byte[] data;
+    private final int dataLength;
+    private final ByteArrayInputStream dataStream;
+    // Records still to come in the current chunk; a chunk reader sees no chunk headers
+    private final boolean chunked;
+    private int recordsLeftInChunk;
+    private byte[] buffer = new byte[256];
+    // File dictionary index -> symbol table code
+    private int[] authorCodes;
+    private int[] genreCodes;
+
+    // Callback used by readAll() to decode one record
+    private interface RecordDecoder<T> {
+        T read(CatalogReader reader) throws IOException;
+    }
+
+    public CatalogReader(InputStream in) throws IOException {
+        this(new DataInputStream(new BufferedInputStream(in, 64 * 1024)), null, 0, null);
+    }
+
+    // Reader over the first length bytes of data
+    public CatalogReader(byte[] data, int length) throws IOException {
+        this(data, length, new ByteArrayInputStream(data, 0, length));
+    }
+
+    private CatalogReader(byte[] data, int length, ByteArrayInputStream dataStream) throws IOException {
+        this(new DataInputStream(dataStream), data, length, dataStream);
+    }
+
+    private CatalogReader(DataInputStream in, byte[] data, int dataLength, ByteArrayInputStream dataStream)
+            throws IOException {
+        this.in = in;
+        this.data = data;
+        this.dataLength = dataLength;
+        this.dataStream = dataStream;
+        if (this.in.readInt() != CatalogFormat.MAGIC) {
+            throw new IOException("Not a library data file");
+        }
+        version = this.in.readByte();
+        if (version < 1 || version > CatalogFormat.VERSION) {
+            throw new IOException("Unsupported data file version " + version);
+        }
+        kind = this.in.readByte();
+        generation = this.in.readLong();
+        count = this.in.readInt();
+        if (kind == CatalogFormat.BOOKS && version >= CatalogFormat.FIRST_DICTIONARY_VERSION) {
+            authorCodes = readDictionary(SymbolTable.AUTHORS);
+            genreCodes = readDictionary(SymbolTable.GENRES);
+        }
+        chunked = version >= CatalogFormat.FIRST_CHUNKED_VERSION;
+    }
+
+    // Reader for the records of one chunk of the file, sharing its dictionaries
+    private CatalogReader(CatalogReader file, int offset, int length) {
+        in = new DataInputStream(new ByteArrayInputStream(file.data, offset, length));
+        kind = file.kind;
+        generation = file.generation;
+        count = file.count;
+        version = file.version;
+        data = null;
+        dataLength = 0;
+        dataStream = null;
+        chunked = false;
+        authorCodes = file.authorCodes;
+        genreCodes = file.genreCodes;
+    }
+
+    private int[] readDictionary(SymbolTable symbols) throws IOException {
+        int[] codes = new int[readVarInt()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = symbols.intern(readString());
+        }
+        return codes;
+    }
+
+    public byte getKind() { return kind; }
+    public long getGeneration() { return generation; }
+    public int getCount() { return count; }
+
+    public Book readBook() throws IOException {
+        startRecord();
+        int flags = in.readUnsignedByte();
+        Book book;
+        if (authorCodes != null) {
+            book = new Book(readString(), readString(), dictionaryCode(authorCodes), dictionaryCode(genreCodes));
+        } else {
+            book = new Book(readString(), readString(), readString(), readString());
+        }
+        book.setAvailable((flags & CatalogFormat.FLAG_AVAILABLE) != 0);
+        if ((flags & CatalogFormat.FLAG_BORROWED_BY) != 0) book.setBorrowedBy(readString());
+        if ((flags & CatalogFormat.FLAG_BORROW_DATE) != 0) book.setBorrowDate(LocalDate.ofEpochDay(in.readInt()));
+        if ((flags & CatalogFormat.FLAG_DUE_DATE) != 0) book.setDueDate(LocalDate.ofEpochDay(in.readInt()));
+        return book;
+    }
+
+    public Member readMember() throws IOException {
+        startRecord();
+        Member member = new Member(readString(), readString(), readString(), readString());
+        member.setMembershipDate(LocalDate.ofEpochDay(in.readInt()));
+        int borrowed = readVarInt();
+        for (int i = 0; i < borrowed; i++) {
+            member.borrowBook(readString());
+        }
+        return member;
+    }
+
+    // Every record, in file order; call instead of readBook() or readMember()
+    public List<Book> readAllBooks() throws IOException {
+        return readAll(CatalogReader::readBook);
+    }
+
+    public List<Member> readAllMembers() throws IOException {
+        return readAll(CatalogReader::readMember);
+    }
+
+    // A chunked file in memory is split at its chunk headers and the chunks are
+    // decoded in parallel on the common ForkJoinPool; anything else is read
+    // record by record
+    @SuppressWarnings("unchecked")
+    private <T> List<T> readAll(RecordDecoder<T> decoder) throws IOException {
+        Object[] records = new Object[count];
+        if (data == null || !chunked) {
+            for (int i = 0; i < count; i++) {
+                records[i] = decoder.read(this);
+            }
+            return (List<T>) Arrays.asList(records);
+        }
+
+        // Offset, length, first record and record count of each chunk
+        List<int[]> chunks = new ArrayList<>();
+        for (int first = 0; first < count; ) {
+            int length = in.readInt();
+            int chunkRecords = in.readInt();
+            int offset = dataLength - dataStream.available();
+            if (length < 0 || chunkRecords <= 0 || chunkRecords > count - first
+                    || dataStream.skip(length) != length) {
+                throw new IOException("Malformed chunk in data file");
+            }
+            chunks.add(new int[] {offset, length, first, chunkRecords});
+            first += chunkRecords;
+        }
+        try {
+            chunks.parallelStream().forEach(chunk -> {
+                CatalogReader reader = new CatalogReader(this, chunk[0], chunk[1]);
+                try {
+                    for (int i = 0; i < chunk[3]; i++) {
+                        records[chunk[2] + i] = decoder.read(reader);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return (List<T>) Arrays.asList(records);
+    }
+
+    private void startRecord() throws IOException {
+        if (chunked && recordsLeftInChunk == 0) {
+            in.readInt(); // Chunk length, only needed to skip a chunk
+            recordsLeftInChunk = in.readInt();
+            if (recordsLeftInChunk <= 0) {
+                throw new IOException("Malformed chunk in data file");
+            }
+        }
+        recordsLeftInChunk--;
+    }
+
+    private int dictionaryCode(int[] codes) throws IOException {
+        int index = readVarInt();
+        if (index < 0 || index >= codes.length) {
+            throw new IOException("Dictionary index out of range in data file");
+        }
+        return codes[index];
+    }
+
+    private String readString() throws IOException {
+        int length = readVarInt();
+        if (length > buffer.length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+        in.readFully(buffer, 0, length);
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed length in data file");
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
+
+// Crash-safe snapshots of the data files. Every save is a new generation: each
+// file is written to a temp file in checksummed blocks, fsynced and renamed to
+// <name>.<generation>.<ext> (books.12.dat), and then the manifest naming the
+// generation and its file lengths is replaced the same way. Renaming the
+// manifest is the commit point, so the files of one save always load together.
+// The previous generation is kept as well, so there is something to fall back
+// to if the newest one turns out to be damaged.
+//
+// A snapshot file is a header (magic, block size, payload length) followed by
+// blocks of up to BLOCK_SIZE payload bytes, each prefixed with its length and
+// CRC32. Blocks are verified in parallel when the file is opened.
+class SnapshotStore {
+    static final String MANIFEST_FILE = "snapshot.manifest";
+    static final int KEEP_GENERATIONS = 2;
+
+    private static final int MAGIC = 0x4C4D5342; // "LMSB"
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final int HEADER_SIZE = 16;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String DAMAGED_SUFFIX = ".damaged";
+
+    private final File directory;
+
+    public SnapshotStore(File directory) {
+        this.directory = directory;
+    }
+
+    // Writes the files (name -> contents) as the given generation and commits
+    // them. Older generations beyond KEEP_GENERATIONS are deleted afterwards;
+    // returns the oldest generation still kept.
+    public long write(long generation, Map<String, byte[]> files) throws IOException {
+        StringBuilder manifest = new StringBuilder("generation=" + generation + "\n");
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            long length = writeFile(fileFor(file.getKey(), generation), file.getValue());
+            manifest.append(file.getKey()).append('=').append(length).append('\n');
+        }
+        CRC32 crc = new CRC32();
+        byte[] body = manifest.toString().getBytes(StandardCharsets.UTF_8);
+        crc.update(body, 0, body.length);
+        manifest.append("crc=").append(Long.toHexString(crc.getValue())).append('\n');
+        writeAtomically(new File(directory, MANIFEST_FILE), manifest.toString().getBytes(StandardCharsets.UTF_8));
+        syncDirectory();
+
+        String[] names = files.keySet().toArray(new String[0]);
+        List<Long> kept = generations(names);
+        long oldestKept = kept.get(Math.min(kept.size(), KEEP_GENERATIONS) - 1);
+        for (long old : listGenerations(names)) {
+            if (old < oldestKept) {
+                for (String name : names) {
+                    fileFor(name, old).delete();
+                }
+            }
+        }
+        return oldestKept;
+    }
+
+    // Generations that have all the named files, newest first. Once a manifest
+    // exists, files from a save that never reached it are left out.
+    public List<Long> generations(String... names) {
+        long committed = readManifest().getOrDefault("generation", Long.MAX_VALUE);
+        List<Long> complete = new ArrayList<>();
+        for (long generation : listGenerations(names)) {
+            boolean hasAll = generation <= committed;
+            for (String name : names) {
+                hasAll &= fileFor(name, generation).isFile();
+            }
+            if (hasAll) {
+                complete.add(generation);
+            }
+        }
+        Collections.reverse(complete);
+        return complete;
+    }
+
+    public boolean exists(long generation, String name) {
+        return fileFor(name, generation).isFile();
+    }
+
+    public InputStream open(long generation, String name) throws IOException {
+        ByteBuffer payload = read(generation, name);
+        return new ByteArrayInputStream(payload.array(), 0, payload.limit());
+    }
+
+    // Reads one file of a generation and checks its length and every block's
+    // checksum before returning the contents, from the start of the buffer's
+    // array to its limit. Throws IOException if it is truncated or damaged.
+    public ByteBuffer read(long generation, String name) throws IOException {
+        File file = fileFor(name, generation);
+        byte[] data = Files.readAllBytes(file.toPath());
+        Map<String, Long> manifest = readManifest();
+        Long expectedLength = manifest.get(name);
+        if (manifest.getOrDefault("generation", -1L) == generation && expectedLength != null
+                && expectedLength != data.length) {
+            throw new IOException(file.getName() + " is " + data.length + " bytes, the manifest says " + expectedLength);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (data.length < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException(file.getName() + " is not a snapshot file");
+        }
+        buffer.getInt(); // Block size it was written with
+        long payloadLength = buffer.getLong();
+
+        // Block table: offset, length and stored CRC of each block
+        List<int[]> blocks = new ArrayList<>();
+        long total = 0;
+        while (buffer.hasRemaining()) {
+            if (buffer.remaining() < 8) {
+                throw new IOException(file.getName() + " is truncated");
+            }
+            int length = buffer.getInt();
+            int crc = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                throw new IOException(file.getName() + " is truncated");
+            }
+            blocks.add(new int[] {buffer.position(), length, crc});
+            buffer.position(buffer.position() + length);
+            total += length;
+        }
+        if (total != payloadLength) {
+            throw new IOException(file.getName() + " is truncated");
+        }
+        boolean intact = blocks.parallelStream().allMatch(block -> {
+            CRC32 crc = new CRC32();
+            crc.update(data, block[0], block[1]);
+            return (int) crc.getValue() == block[2];
+        });
+        if (!intact) {
+            throw new IOException(file.getName() + " failed its checksum");
+        }
+
+        // Close the gaps left by the block headers, in place
+        int end = 0;
+        for (int[] block : blocks) {
+            System.arraycopy(data, block[0], data, end, block[1]);
+            end += block[1];
+        }
+        return ByteBuffer.wrap(data, 0, end);
+    }
+
+    // Renames a generation's files with a .damaged suffix, so they are kept for
+    // inspection but are never loaded, pruned or overwritten
+    public void markDamaged(long generation, String... names) {
+        for (String name : names) {
+            File file = fileFor(name, generation);
+            if (file.exists() && !file.renameTo(new File(file.getPath() + DAMAGED_SUFFIX))) {
+                file.delete();
+            }
+        }
+    }
+
+    private long writeFile(File target, byte[] payload) throws IOException {
+        File temp = new File(target.getPath() + TEMP_SUFFIX);
+        long length = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(BLOCK_SIZE);
+            out.writeLong(payload.length);
+            for (int offset = 0; offset < payload.length; offset += BLOCK_SIZE) {
+                int blockLength = Math.min(BLOCK_SIZE, payload.length - offset);
+                crc.reset();
+                crc.update(payload, offset, blockLength);
+                out.writeInt(blockLength);
+                out.writeInt((int) crc.getValue());
+                out.write(payload, offset, blockLength);
+                length += 8 + blockLength;
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return length;
+    }
+
+    private void writeAtomically(File target, byte[] contents) throws IOException {
+        File temp = new File(target.getPath() + TEMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(contents);
+            out.getFD().sync();
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Makes the renames themselves durable. Not every platform can open a
+    // directory (Windows cannot); the renames are still atomic there.
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Nothing more can be done on this platform
+        }
+    }
+
+    // Generation and file lengths from the manifest; empty if there is none or
+    // it does not match its checksum
+    private Map<String, Long> readManifest() {
+        Map<String, Long> values = new HashMap<>();
+        String text;
+        try {
+            text = new String(Files.readAllBytes(new File(directory, MANIFEST_FILE).toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return values;
+        }
+        int crcLine = text.lastIndexOf("crc=");
+        if (crcLine < 0) {
+            return values;
+        }
+        CRC32 crc = new CRC32();
+        byte[] body = text.substring(0, crcLine).getBytes(StandardCharsets.UTF_8);
+        crc.update(body, 0, body.length);
+        try {
+            if (Long.parseLong(text.substring(crcLine + 4).trim(), 16) != crc.getValue()) {
+                return values;
+            }
+            for (String line : text.substring(0, crcLine).split("\n")) {
+                int separator = line.indexOf('=');
+                if (separator > 0) {
+                    values.put(line.substring(0, separator), Long.parseLong(line.substring(separator + 1)));
+                }
+            }
+        } catch (NumberFormatException e) {
+            values.clear();
+        }
+        return values;
+    }
+
+    // Every generation that has at least one of the named files, oldest first
+    private List<Long> listGenerations(String... names) {
+        TreeSet<Long> generations = new TreeSet<>();
+        String[] files = directory.list();
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        for (String file : files) {
+            for (String name : names) {
+                int dot = name.lastIndexOf('.');
+                String prefix = name.substring(0, dot + 1);
+                String suffix = name.substring(dot);
+                if (file.startsWith(prefix) && file.endsWith(suffix)
+                        && file.length() > prefix.length() + suffix.length()) {
+                    try {
+                        generations.add(Long.parseLong(file.substring(prefix.length(), file.length() - suffix.length())));
+                    } catch (NumberFormatException e) {
+                        // Not one of ours
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(generations);
+    }
+
+    private File fileFor(String name, long generation) {
+        int dot = name.lastIndexOf('.');
+        return new File(directory, name.substring(0, dot) + "." + generation + name.substring(dot));
+    }
+}
+
+// Optional storage engine for books, enabled with -Dlms.storage=mmap. Books are
+// fixed-size records in books.map, memory-mapped in segments through
+// FileChannel.map. Only an ISBN-to-slot index is kept on the heap and Book
+// objects are built on demand, so the catalog can be larger than the heap and
+// startup does not deserialize anything.
+class MappedBookStore implements Closeable {
+    private static final int MAGIC = 0x4C4D534D; // "LMSM"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 576;
+    private static final int RECORDS_PER_SEGMENT = 16384;
+    private static final long SEGMENT_SIZE = (long) RECORD_SIZE * RECORDS_PER_SEGMENT;
+
+    // Header layout
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_RECORD_SIZE = 8;
+    private static final int HEADER_GENERATION = 16;
+
+    // Record layout; strings are a 2-byte length followed by UTF-8 bytes
+    private static final int STATUS = 0;
+    private static final int FLAGS = 1;
+    private static final int BORROW_DAY = 4;
+    private static final int DUE_DAY = 8;
+    private static final int ISBN = 12;
+    private static final int ISBN_MAX = 40;
+    private static final int TITLE = ISBN + 2 + ISBN_MAX;
+    private static final int TITLE_MAX = 256;
+    private static final int AUTHOR = TITLE + 2 + TITLE_MAX;
+    private static final int AUTHOR_MAX = 128;
+    private static final int GENRE = AUTHOR + 2 + AUTHOR_MAX;
+    private static final int GENRE_MAX = 64;
+    private static final int BORROWED_BY = GENRE + 2 + GENRE_MAX;
+    private static final int BORROWED_BY_MAX = 64;
+
+    private static final byte FREE = 0;
+    private static final byte IN_USE = 1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+
+    public MappedBookStore(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean created = channel.size() < HEADER_SIZE;
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        if (created) {
+            header.putInt(HEADER_MAGIC, MAGIC);
+            header.putInt(HEADER_VERSION, VERSION);
+            header.putInt(HEADER_RECORD_SIZE, RECORD_SIZE);
+            header.putLong(HEADER_GENERATION, 0);
+        } else if (header.getInt(HEADER_MAGIC) != MAGIC || header.getInt(HEADER_RECORD_SIZE) != RECORD_SIZE) {
+            channel.close();
+            throw new IOException(file.getName() + " is not a mapped book store");
+        }
+
+        // Only the status byte and ISBN of each slot are read to build the index
+        long segmentCount = (channel.size() - HEADER_SIZE) / SEGMENT_SIZE;
+        for (int i = 0; i < segmentCount; i++) {
+            MappedByteBuffer segment = mapSegment(i);
+            for (int record = 0; record < RECORDS_PER_SEGMENT; record++) {
+                int slot = i * RECORDS_PER_SEGMENT + record;
+                if (segment.get(record * RECORD_SIZE + STATUS) == IN_USE) {
+                    slots.put(slotKey(readString(segment, record * RECORD_SIZE + ISBN)), slot);
+                } else {
+                    freeSlots.add(slot);
+                }
+            }
+        }
+    }
+
+    public synchronized int size() { return slots.size(); }
+    public synchronized boolean contains(String isbn) { return slots.containsKey(slotKey(isbn)); }
+    public synchronized long getGeneration() { return header.getLong(HEADER_GENERATION); }
+
+    public synchronized List<String> isbns() {
+        return new ArrayList<>(slots.keySet());
+    }
+
+    public synchronized Book get(String isbn) {
+        Integer slot = slots.get(slotKey(isbn));
+        if (slot == null) {
+            return null;
+        }
+        ByteBuffer segment = segments.get(slot / RECORDS_PER_SEGMENT);
+        int base = (slot % RECORDS_PER_SEGMENT) * RECORD_SIZE;
+        int flags = segment.get(base + FLAGS);
+        Book book = new Book(readString(segment, base + ISBN), readString(segment, base + TITLE),
+                readString(segment, base + AUTHOR), readString(segment, base + GENRE));
+        book.setAvailable((flags & CatalogFormat.FLAG_AVAILABLE) != 0);
+        if ((flags & CatalogFormat.FLAG_BORROWED_BY) != 0) book.setBorrowedBy(readString(segment, base + BORROWED_BY));
+        if ((flags & CatalogFormat.FLAG_BORROW_DATE) != 0) book.setBorrowDate(LocalDate.ofEpochDay(segment.getInt(base + BORROW_DAY)));
+        if ((flags & CatalogFormat.FLAG_DUE_DATE) != 0) book.setDueDate(LocalDate.ofEpochDay(segment.getInt(base + DUE_DAY)));
+        return book;
+    }
+
+    // Calls back with the ISBN and due date of every borrowed book without
+    // materializing the rest of each record
+    public synchronized void forEachLoan(java.util.function.BiConsumer<String, LocalDate> action) {
+        for (Map.Entry<String, Integer> entry : slots.entrySet()) {
+            int slot = entry.getValue();
+            ByteBuffer segment = segments.get(slot / RECORDS_PER_SEGMENT);
+            int base = (slot % RECORDS_PER_SEGMENT) * RECORD_SIZE;
+            int flags = segment.get(base + FLAGS);
+            if ((flags & CatalogFormat.FLAG_AVAILABLE) == 0) {
+                LocalDate dueDate = (flags & CatalogFormat.FLAG_DUE_DATE) != 0
+                        ? LocalDate.ofEpochDay(segment.getInt(base + DUE_DAY)) : null;
+                action.accept(entry.getKey(), dueDate);
+            }
+        }
+    }
+
+    // Writes the book into its slot, or into a free slot if it is new
+    public synchronized void put(Book book) throws IOException {
+        byte[] isbn = encode(book.getIsbn(), ISBN_MAX, "ISBN");
+        byte[] title = encode(book.getTitle(), TITLE_MAX, "Title");
+        byte[] author = encode(book.getAuthor(), AUTHOR_MAX, "Author");
+        byte[] genre = encode(book.getGenre(), GENRE_MAX, "Genre");
+        byte[] borrowedBy = book.getBorrowedBy() != null ? encode(book.getBorrowedBy(), BORROWED_BY_MAX, "Member ID") : null;
+
+        Integer slot = slots.get(slotKey(book.getIsbn()));
+        if (slot == null) {
+            if (freeSlots.isEmpty()) {
+                addSegment();
+            }
+            slot = freeSlots.poll();
+        }
+        ByteBuffer segment = segments.get(slot / RECORDS_PER_SEGMENT);
+        int base = (slot % RECORDS_PER_SEGMENT) * RECORD_SIZE;
+
+        int flags = 0;
+        if (book.isAvailable()) flags |= CatalogFormat.FLAG_AVAILABLE;
+        if (borrowedBy != null) flags |= CatalogFormat.FLAG_BORROWED_BY;
+        if (book.getBorrowDate() != null) flags |= CatalogFormat.FLAG_BORROW_DATE;
+        if (book.getDueDate() != null) flags |= CatalogFormat.FLAG_DUE_DATE;
+
+        segment.put(base + FLAGS, (byte) flags);
+        segment.putInt(base + BORROW_DAY, book.getBorrowDate() != null ? (int) book.getBorrowDate().toEpochDay() : 0);
+        segment.putInt(base + DUE_DAY, book.getDueDate() != null ? (int) book.getDueDate().toEpochDay() : 0);
+        writeString(segment, base + ISBN, isbn);
+        writeString(segment, base + TITLE, title);
+        writeString(segment, base + AUTHOR, author);
+        writeString(segment, base + GENRE, genre);
+        writeString(segment, base + BORROWED_BY, borrowedBy != null ? borrowedBy : new byte[0]);
+        segment.put(base + STATUS, IN_USE);
+        slots.put(slotKey(book.getIsbn()), slot);
+    }
+
+    public synchronized void remove(String isbn) {
+        Integer slot = slots.remove(slotKey(isbn));
+        if (slot != null) {
+            segments.get(slot / RECORDS_PER_SEGMENT).put((slot % RECORDS_PER_SEGMENT) * RECORD_SIZE + STATUS, FREE);
+            freeSlots.addFirst(slot);
+        }
+    }
+
+    // Forces every mapped page to disk and then records the journal generation
+    // the file is now complete up to
+    public void sync(long generation) {
+        List<MappedByteBuffer> mapped;
+        synchronized (this) {
+            mapped = new ArrayList<>(segments);
+        }
+        for (MappedByteBuffer segment : mapped) {
+            segment.force();
+        }
+        synchronized (this) {
+            header.putLong(HEADER_GENERATION, generation);
+            header.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        header.force();
+        channel.close();
+    }
+
+    // ISBNs are indexed in their 13-digit form so any spelling finds the record
+    private static String slotKey(String isbn) {
+        long key = Isbn.parse(isbn);
+        return key != Isbn.NOT_AN_ISBN ? Isbn.format(key) : isbn;
+    }
+
+    private MappedByteBuffer mapSegment(int index) throws IOException {
+        MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE,
+                HEADER_SIZE + index * SEGMENT_SIZE, SEGMENT_SIZE);
+        segments.add(segment);
+        return segment;
+    }
+
+    private void addSegment() throws IOException {
+        int index = segments.size();
+        mapSegment(index);
+        for (int record = 0; record < RECORDS_PER_SEGMENT; record++) {
+            freeSlots.add(index * RECORDS_PER_SEGMENT + record);
+        }
+    }
+
+    private static byte[] encode(String value, int max, String field) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > max) {
+            throw new IllegalArgumentException(field + " is too long for mapped storage (max " + max + " bytes)");
+        }
+        return bytes;
+    }
+
+    private static void writeString(ByteBuffer segment, int offset, byte[] bytes) {
+        segment.putShort(offset, (short) bytes.length);
+        ByteBuffer target = segment.duplicate();
+        target.position(offset + 2);
+        target.put(bytes);
+    }
+
+    private static String readString(ByteBuffer segment, int offset) {
+        byte[] bytes = new byte[segment.getShort(offset)];
+        ByteBuffer source = segment.duplicate();
+        source.position(offset + 2);
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+// Map view over a MappedBookStore so Library can use it in place of an IsbnBookMap.
+// Each get returns a fresh Book, so changes must be written back with put.
+class MappedBookMap extends AbstractMap<String, Book> {
+    private final MappedBookStore store;
+
+    public MappedBookMap(MappedBookStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public Book get(Object key) {
+        return key instanceof String ? store.get((String) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && store.contains((String) key);
+    }
+
+    @Override
+    public Book put(String isbn, Book book) {
+        Book previous = store.get(isbn);
+        try {
+            store.put(book);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return previous;
+    }
+
+    @Override
+    public Book remove(Object key) {
+        Book previous = get(key);
+        if (previous != null) {
+            store.remove(previous.getIsbn());
+        }
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Book>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Book>>() {
+            @Override
+            public Iterator<Map.Entry<String, Book>> iterator() {
+                Iterator<String> isbns = store.isbns().iterator();
+                return new Iterator<Map.Entry<String, Book>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return isbns.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, Book> next() {
+                        String isbn = isbns.next();
+                        return new AbstractMap.SimpleImmutableEntry<>(isbn, store.get(isbn));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return store.size();
+            }
+        };
+    }
+}
+
+// ISBN normalization and validation. parse() accepts ISBN-13 and ISBN-10
+// strings, with or without hyphens and spaces and with X as an ISBN-10 check
+// digit. It verifies the check digit and returns the ISBN-13 as a number, or -1
+// if the string is not a valid ISBN. An ISBN-10 becomes its 978-prefixed
+// ISBN-13, so both forms of one book share a key. Parsing allocates nothing.
+final class Isbn {
+    static final long NOT_AN_ISBN = -1;
+
+    private Isbn() {
+    }
+
+    static long parse(String text) {
+        long value = 0;
+        int digits = 0;
+        int sum10 = 0;
+        int sum13 = 0;
+        boolean checkX = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '-' || c == ' ') {
+                continue;
+            }
+            int digit;
+            if (c >= '0' && c <= '9' && !checkX) {
+                digit = c - '0';
+            } else if ((c == 'X' || c == 'x') && digits == 9) {
+                digit = 10;
+                checkX = true;
+            } else {
+                return NOT_AN_ISBN;
+            }
+            if (++digits > 13) {
+                return NOT_AN_ISBN;
+            }
+            sum10 += digit * (11 - digits);
+            sum13 += digit * (digits % 2 == 1 ? 1 : 3);
+            value = value * 10 + digit;
+        }
+
+        if (digits == 13) {
+            long prefix = value / 10_000_000_000L;
+            return sum13 % 10 == 0 && (prefix == 978 || prefix == 979) ? value : NOT_AN_ISBN;
+        }
+        if (digits != 10 || sum10 % 11 != 0) {
+            return NOT_AN_ISBN;
+        }
+        // 978 + the first nine digits, followed by a new ISBN-13 check digit
+        long body = 978_000_000_000L + (checkX ? (value - 10) / 10 : value / 10);
+        int sum = 0;
+        long rest = body;
+        for (int position = 12; position >= 1; position--) {
+            sum += (int) (rest % 10) * (position % 2 == 1 ? 1 : 3);
+            rest /= 10;
+        }
+        return body * 10 + (10 - sum % 10) % 10;
+    }
+
+    static boolean isValid(String text) {
+        return parse(text) != NOT_AN_ISBN;
+    }
+
+    // The 13-digit form of a parsed key
+    static String format(long key) {
+        return Long.toString(key);
+    }
+}
+
+// Catalog map keyed by ISBN. Valid ISBNs are stored under their Isbn.parse()
+// value in an open-addressing table of long keys (linear probing, deletion by
+// backward shift), so a lookup hashes a long instead of a String and
+// "0-13-235088-2" finds the book added as "978-0132350884". The Book keeps its
+// original ISBN string for display. Identifiers that are not valid ISBNs fall
+// back to a HashMap. Lookups use an optimistic StampedLock read and changes take
+// the write lock, so the map can be shared between threads; iteration works on
+// a snapshot.
+class IsbnBookMap extends AbstractMap<String, Book> {
+    private static final long EMPTY = 0; // No ISBN-13 is zero
+    private static final int MIN_CAPACITY = 16;
+
+    // Keys and values are swapped together on resize
+    private static final class Table {
+        final long[] keys;
+        final Book[] values;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new Book[capacity];
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private final Map<String, Book> others = new HashMap<>();
+    private Table table;
+    private int isbnCount;
+
+    public IsbnBookMap() {
+        this(0);
+    }
+
+    public IsbnBookMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        table = new Table(capacity);
+    }
+
+    @Override
+    public Book get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        long isbn = Isbn.parse((String) key);
+        if (isbn == Isbn.NOT_AN_ISBN) {
+            long stamp = lock.readLock();
+            try {
+                return others.get(key);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        long stamp = lock.tryOptimisticRead();
+        Book book = find(table, isbn);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                book = find(table, isbn);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return book;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public Book put(String key, Book book) {
+        long isbn = Isbn.parse(key);
+        long stamp = lock.writeLock();
+        try {
+            if (isbn == Isbn.NOT_AN_ISBN) {
+                return others.put(key, book);
+            }
+            Table current = table;
+            int mask = current.keys.length - 1;
+            for (int i = slot(isbn, mask); ; i = (i + 1) & mask) {
+                if (current.keys[i] == isbn) {
+                    Book previous = current.values[i];
+                    current.values[i] = book;
+                    return previous;
+                }
+                if (current.keys[i] == EMPTY) {
+                    current.values[i] = book;
+                    current.keys[i] = isbn;
+                    if (++isbnCount > current.keys.length * 3 / 4) {
+                        resize(current.keys.length << 1);
+                    }
+                    return null;
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Book remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        long isbn = Isbn.parse((String) key);
+        long stamp = lock.writeLock();
+        try {
+            if (isbn == Isbn.NOT_AN_ISBN) {
+                return others.remove(key);
+            }
+            Table current = table;
+            int mask = current.keys.length - 1;
+            int i = slot(isbn, mask);
+            while (current.keys[i] != isbn) {
+                if (current.keys[i] == EMPTY) {
+                    return null;
+                }
+                i = (i + 1) & mask;
+            }
+            Book previous = current.values[i];
+            // Shift later entries of the probe run back so no tombstone is needed
+            for (int j = (i + 1) & mask; current.keys[j] != EMPTY; j = (j + 1) & mask) {
+                int home = slot(current.keys[j], mask);
+                boolean homeBetween = i <= j ? (home > i && home <= j) : (home > i || home <= j);
+                if (!homeBetween) {
+                    current.keys[i] = current.keys[j];
+                    current.values[i] = current.values[j];
+                    i = j;
+                }
+            }
+            current.keys[i] = EMPTY;
+            current.values[i] = null;
+            isbnCount--;
+            return previous;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            others.clear();
+            table = new Table(MIN_CAPACITY);
+            isbnCount = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return isbnCount + others.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // Snapshot of the books; changes made while iterating are not reflected
+    @Override
+    public Collection<Book> values() {
+        long stamp = lock.readLock();
+        try {
+            List<Book> books = new ArrayList<>(isbnCount + others.size());
+            for (Book book : table.values) {
+                if (book != null) {
+                    books.add(book);
+                }
+            }
+            books.addAll(others.values());
+            return books;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<String, Book>> entrySet() {
+        Set<Map.Entry<String, Book>> entries = new LinkedHashSet<>();
+        for (Book book : values()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(book.getIsbn(), book));
+        }
+        return entries;
+    }
+
+    // May run under an optimistic read, so it must tolerate a table being
+    // changed underneath it; the probe is bounded by the table size
+    private static Book find(Table current, long isbn) {
+        int mask = current.keys.length - 1;
+        int i = slot(isbn, mask);
+        for (int probes = 0; probes <= mask; probes++) {
+            long key = current.keys[i];
+            if (key == isbn) {
+                return current.values[i];
+            }
+            if (key == EMPTY) {
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    private void resize(int capacity) {
+        Table old = table;
+        Table grown = new Table(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < old.keys.length; j++) {
+            if (old.keys[j] != EMPTY) {
+                int i = slot(old.keys[j], mask);
+                while (grown.keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                grown.keys[i] = old.keys[j];
+                grown.values[i] = old.values[j];
+            }
+        }
+        table = grown;
+    }
+
+    private static int slot(long isbn, int mask) {
+        long h = isbn * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
+
+// Append-only journal of library changes. Each change is written as one small
+// record and a background thread fsyncs pending records in groups, so the cost
+// of saving depends on the size of the change rather than the size of the catalog.
+class TransactionJournal implements Closeable {
+    static final byte ADD_BOOK = 1;
+    static final byte REMOVE_BOOK = 2;
+    static final byte ADD_MEMBER = 3;
+    static final byte REMOVE_MEMBER = 4;
+    static final byte BORROW = 5;
+    static final byte RETURN = 6;
+
+    private static final String SEGMENT_PREFIX = "journal.";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+    // Journal volume and fsync latency, reported with the library's metrics
+    private static final LongAdder APPENDED_RECORDS = MetricsRegistry.LIBRARY.counter("journal.records");
+    private static final LongAdder APPENDED_BYTES = MetricsRegistry.LIBRARY.counter("journal.bytes");
+    private static final LatencyHistogram FSYNC_TIME = MetricsRegistry.LIBRARY.timer("journal.fsync");
+
+    private final File directory;
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private final CRC32 crc = new CRC32();
+    private final Thread syncThread;
+    private long generation;
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+    private int recordsInSegment;
+    private long appendedSeq;
+    private long durableSeq;
+    private boolean syncing;
+    private boolean closed;
+    private IOException failure;
+
+    // Callback used by replay() to apply one record
+    interface Replayer {
+        void apply(byte type, DataInputStream in) throws IOException;
+    }
+
+    public TransactionJournal(File directory, long generation) throws IOException {
+        this.directory = directory;
+        this.generation = generation;
+        openSegment();
+        syncThread = new Thread(this::syncLoop, "journal-sync");
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+
+    public synchronized long getGeneration() { return generation; }
+    public synchronized int getRecordsInSegment() { return recordsInSegment; }
+
+    // Appends one record and returns its sequence number for awaitDurable().
+    // Fields may be Strings or Longs; replay reads them back in the same order.
+    public synchronized long append(byte type, Object... fields) throws IOException {
+        if (closed) {
+            throw new IOException("Journal is closed");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        recordBytes.reset();
+        record.writeByte(type);
+        for (Object field : fields) {
+            if (field instanceof Long) {
+                record.writeLong((Long) field);
+            } else {
+                record.writeUTF((String) field);
+            }
+        }
+        byte[] payload = recordBytes.toByteArray();
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt((int) crc.getValue());
+        APPENDED_RECORDS.increment();
+        APPENDED_BYTES.add(payload.length + 8);
+        recordsInSegment++;
+        appendedSeq++;
+        notifyAll();
+        return appendedSeq;
+    }
+
+    // Blocks until the record with the given sequence number has been fsynced
+    public synchronized void awaitDurable(long seq) throws IOException {
+        while (durableSeq < seq && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the journal");
+            }
+        }
+        if (durableSeq < seq) {
+            throw failure;
+        }
+    }
+
+    // Group commit: every record appended while the previous fsync was running
+    // is flushed and synced together by the next one.
+    private void syncLoop() {
+        while (true) {
+            long target;
+            FileOutputStream segment;
+            synchronized (this) {
+                while (!closed && durableSeq == appendedSeq) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (durableSeq == appendedSeq) {
+                    return;
+                }
+                target = appendedSeq;
+                segment = fileOut;
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    failure = e;
+                    notifyAll();
+                    return;
+                }
+                syncing = true;
+            }
+
+            IOException error = null;
+            long start = System.nanoTime();
+            try {
+                segment.getChannel().force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+            FSYNC_TIME.record(System.nanoTime() - start);
+
+            synchronized (this) {
+                syncing = false;
+                if (error != null) {
+                    failure = error;
+                    notifyAll();
+                    return;
+                }
+                durableSeq = Math.max(durableSeq, target);
+                notifyAll();
+            }
+        }
+    }
+
+    // Seals the current segment and starts a new one. Returns the new generation;
+    // a snapshot taken now covers every segment before it.
+    public synchronized long rotate() throws IOException {
+        while (syncing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while rotating the journal");
+            }
+        }
+        out.flush();
+        fileOut.getChannel().force(false);
+        out.close();
+        durableSeq = appendedSeq;
+        notifyAll();
+        generation++;
+        openSegment();
+        return generation;
+    }
+
+    // Removes segments that are already covered by a snapshot
+    public void deleteSegmentsBefore(long generation) {
+        for (long segment : listGenerations(directory)) {
+            if (segment < generation) {
+                segmentFile(directory, segment).delete();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            syncThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            out.close();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        fileOut = new FileOutputStream(segmentFile(directory, generation), true);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+        recordsInSegment = 0;
+    }
+
+    static File segmentFile(File directory, long generation) {
+        return new File(directory, SEGMENT_PREFIX + generation + SEGMENT_SUFFIX);
+    }
+
+    static List<Long> listGenerations(File directory) {
+        List<Long> generations = new ArrayList<>();
+        String[] names = directory.list();
+        if (names == null) {
+            return generations;
+        }
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    generations.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    // Replays every segment at or after fromGeneration in order and returns the
+    // highest generation found. A torn or damaged record ends its segment.
+    static long replay(File directory, long fromGeneration, Replayer replayer) {
+        long lastGeneration = fromGeneration - 1;
+        CRC32 crc = new CRC32();
+        for (long generation : listGenerations(directory)) {
+            if (generation < fromGeneration) {
+                continue;
+            }
+            lastGeneration = generation;
+            File file = segmentFile(directory, generation);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (length <= 0 || length > MAX_RECORD_SIZE) {
+                        System.out.println("Journal " + file.getName() + " has a damaged record; ignoring the rest of it.");
+                        break;
+                    }
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    int storedCrc = in.readInt();
+                    crc.reset();
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != storedCrc) {
+                        System.out.println("Journal " + file.getName() + " has a damaged record; ignoring the rest of it.");
+                        break;
+                    }
+                    DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(payload));
+                    replayer.apply(recordIn.readByte(), recordIn);
+                }
+            } catch (EOFException e) {
+                // Torn final record from a crash; everything before it was applied
+            } catch (IOException e) {
+                System.out.println("Error reading journal " + file.getName() + ": " + e.getMessage());
+            }
+        }
+        return lastGeneration;
+    }
+}
+
+// Bulk import and export of books and members as CSV or JSON lines (chosen by
+// file extension). Input is read in chunks that are parsed in parallel, then
+// checked and de-duplicated, and the accepted records are handed to Library as
+// one batch with a single journal commit.
+class BulkCatalogIO {
+    static final String[] BOOK_COLUMNS = {"isbn", "title", "author", "genre"};
+    static final String[] MEMBER_COLUMNS = {"memberId", "name", "email", "phone"};
+    private static final int CHUNK_LINES = 10000;
+
+    // Outcome of an import, including the reason for every rejected line
+    static class ImportResult {
+        int read;
+        int accepted;
+        final List<String> rejects = new ArrayList<>();
+        long elapsedNanos;
+
+        double recordsPerSecond() {
+            return elapsedNanos == 0 ? 0 : read * 1_000_000_000.0 / elapsedNanos;
+        }
+    }
+
+    // One parsed line: either the field values or the reason it was rejected
+    private static class Row {
+        final int lineNumber;
+        final String[] values;
+        final String error;
+
+        Row(int lineNumber, String[] values, String error) {
+            this.lineNumber = lineNumber;
+            this.values = values;
+            this.error = error;
+        }
+    }
+
+    static ImportResult importBooks(Library library, File file) throws IOException {
+        long start = System.nanoTime();
+        ImportResult result = new ImportResult();
+        Map<String, Book> batch = new LinkedHashMap<>();
+        for (Row row : readRows(file, BOOK_COLUMNS, result)) {
+            if (!Isbn.isValid(row.values[0])) {
+                result.rejects.add("Line " + row.lineNumber + ": invalid ISBN " + row.values[0]);
+            } else if (batch.containsKey(row.values[0])) {
+                result.rejects.add("Line " + row.lineNumber + ": duplicate ISBN " + row.values[0] + " in file");
+            } else {
+                batch.put(row.values[0], new Book(row.values[0], row.values[1], row.values[2], row.values[3]));
+            }
+        }
+        List<String> refused = library.importBooks(batch.values());
+        result.rejects.addAll(refused);
+        result.accepted = batch.size() - refused.size();
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    static ImportResult importMembers(Library library, File file) throws IOException {
+        long start = System.nanoTime();
+        ImportResult result = new ImportResult();
+        Map<String, Member> batch = new LinkedHashMap<>();
+        for (Row row : readRows(file, MEMBER_COLUMNS, result)) {
+            if (batch.containsKey(row.values[0])) {
+                result.rejects.add("Line " + row.lineNumber + ": duplicate member ID " + row.values[0] + " in file");
+            } else {
+                batch.put(row.values[0], new Member(row.values[0], row.values[1], row.values[2], row.values[3]));
+            }
+        }
+        List<String> refused = library.importMembers(batch.values());
+        result.rejects.addAll(refused);
+        result.accepted = batch.size() - refused.size();
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    static int exportBooks(Collection<Book> books, File file) throws IOException {
+        boolean json = isJsonLines(file);
+        try (BufferedWriter out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!json) {
+                writeLine(out, BOOK_COLUMNS, BOOK_COLUMNS, false);
+            }
+            for (Book book : books) {
+                writeLine(out, BOOK_COLUMNS, new String[] {
+                    book.getIsbn(), book.getTitle(), book.getAuthor(), book.getGenre()
+                }, json);
+            }
+        }
+        return books.size();
+    }
+
+    static int exportMembers(Collection<Member> members, File file) throws IOException {
+        boolean json = isJsonLines(file);
+        try (BufferedWriter out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!json) {
+                writeLine(out, MEMBER_COLUMNS, MEMBER_COLUMNS, false);
+            }
+            for (Member member : members) {
+                writeLine(out, MEMBER_COLUMNS, new String[] {
+                    member.getMemberId(), member.getName(), member.getEmail(), member.getPhone()
+                }, json);
+            }
+        }
+        return members.size();
+    }
+
+    static boolean isJsonLines(File file) {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json");
+    }
+
+    // Streams the file in chunks and parses each chunk in parallel; bad lines go
+    // straight to the result's reject list and valid rows are returned in file order
+    private static List<Row> readRows(File file, String[] columns, ImportResult result) throws IOException {
+        boolean json = isJsonLines(file);
+        List<Row> rows = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            List<String> chunk = new ArrayList<>(CHUNK_LINES);
+            int firstLine = 1;
+            int lineNumber = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber == 1 && !json && isHeader(line, columns)) {
+                    firstLine = 2;
+                    continue;
+                }
+                chunk.add(line);
+                if (chunk.size() == CHUNK_LINES) {
+                    parseChunk(chunk, firstLine, columns, json, rows, result);
+                    firstLine = lineNumber + 1;
+                    chunk.clear();
+                }
+            }
+            parseChunk(chunk, firstLine, columns, json, rows, result);
+        }
+        return rows;
+    }
+
+    private static void parseChunk(List<String> chunk, int firstLine, String[] columns, boolean json,
+                                   List<Row> rows, ImportResult result) {
+        List<Row> parsed = java.util.stream.IntStream.range(0, chunk.size()).parallel()
+                .mapToObj(i -> parseRow(chunk.get(i), firstLine + i, columns, json))
+                .collect(java.util.stream.Collectors.toList());
+        for (Row row : parsed) {
+            if (row == null) {
+                continue; // Blank line
+            }
+            result.read++;
+            if (row.error != null) {
+                result.rejects.add("Line " + row.lineNumber + ": " + row.error);
+            } else {
+                rows.add(row);
+            }
+        }
+    }
+
+    private static Row parseRow(String line, int lineNumber, String[] columns, boolean json) {
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+        String[] values = new String[columns.length];
+        try {
+            if (json) {
+                Map<String, String> object = parseJsonObject(line);
+                for (int i = 0; i < columns.length; i++) {
+                    values[i] = object.get(columns[i]);
+                }
+            } else {
+                List<String> fields = parseCsvLine(line);
+                if (fields.size() != columns.length) {
+                    return new Row(lineNumber, null, "expected " + columns.length + " fields but found " + fields.size());
+                }
+                fields.toArray(values);
+            }
+        } catch (IllegalArgumentException e) {
+            return new Row(lineNumber, null, e.getMessage());
+        }
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = values[i] == null ? "" : values[i].trim();
+            if (values[i].isEmpty()) {
+                return new Row(lineNumber, null, "missing " + columns[i]);
+            }
+        }
+        return new Row(lineNumber, values, null);
+    }
+
+    private static boolean isHeader(String line, String[] columns) {
+        List<String> fields = parseCsvLine(line);
+        if (fields.size() != columns.length) {
+            return false;
+        }
+        for (int i = 0; i < columns.length; i++) {
+            if (!fields.get(i).trim().equalsIgnoreCase(columns[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // RFC 4180 style: fields may be quoted, with "" standing for a quote
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    // Parses one flat JSON object; nested values are not supported
+    static Map<String, String> parseJsonObject(String line) {
+        Map<String, String> object = new HashMap<>();
+        int[] pos = {skipSpace(line, 0)};
+        expect(line, pos, '{');
+        if (peek(line, pos) == '}') {
+            return object;
+        }
+        while (true) {
+            String key = readJsonString(line, pos);
+            expect(line, pos, ':');
+            String value;
+            if (peek(line, pos) == '"') {
+                value = readJsonString(line, pos);
+            } else {
+                int start = pos[0];
+                while (pos[0] < line.length() && ",} \t".indexOf(line.charAt(pos[0])) < 0) {
+                    pos[0]++;
+                }
+                value = line.substring(start, pos[0]);
+                if (value.equals("null")) {
+                    value = null;
+                }
+            }
+            object.put(key, value);
+            char next = peek(line, pos);
+            pos[0]++;
+            if (next == '}') {
+                return object;
+            }
+            if (next != ',') {
+                throw new IllegalArgumentException("malformed JSON object");
+            }
+        }
+    }
+
+    private static String readJsonString(String line, int[] pos) {
+        expect(line, pos, '"');
+        StringBuilder value = new StringBuilder();
+        while (pos[0] < line.length()) {
+            char c = line.charAt(pos[0]++);
+            if (c == '"') {
+                return value.toString();
+            }
+            if (c == '\\' && pos[0] < line.length()) {
+                char escaped = line.charAt(pos[0]++);
+                switch (escaped) {
+                    case 'n': value.append('\n'); break;
+                    case 't': value.append('\t'); break;
+                    case 'r': value.append('\r'); break;
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'u':
+                        if (pos[0] + 4 > line.length()) {
+                            throw new IllegalArgumentException("malformed JSON escape");
+                        }
+                        value.append((char) Integer.parseInt(line.substring(pos[0], pos[0] + 4), 16));
+                        pos[0] += 4;
+                        break;
+                    default: value.append(escaped);
+                }
+            } else {
+                value.append(c);
+            }
+        }
+        throw new IllegalArgumentException("unterminated JSON string");
+    }
+
+    private static void expect(String line, int[] pos, char expected) {
+        if (peek(line, pos) != expected) {
+            throw new IllegalArgumentException("malformed JSON: expected '" + expected + "'");
+        }
+        pos[0]++;
+    }
+
+    private static char peek(String line, int[] pos) {
+        pos[0] = skipSpace(line, pos[0]);
+        return pos[0] < line.length() ? line.charAt(pos[0]) : '\0';
+    }
+
+    private static int skipSpace(String line, int pos) {
+        while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static void writeLine(Writer out, String[] columns, String[] values, boolean json) throws IOException {
+        if (json) {
+            out.write('{');
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write(jsonString(columns[i]));
+                out.write(':');
+                out.write(jsonString(values[i]));
+            }
+            out.write('}');
+        } else {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write(csvField(values[i]));
+            }
+        }
+        out.write('\n');
+    }
+
+    static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    static String jsonString(String value) {
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"').toString();
+    }
+}
+
+// Latency histogram in the style of HdrHistogram. Values are counted in
+// buckets that widen with the value, 32 to each power of two, so a latency of
+// any size is kept to within about 3% in a fixed array of counters. Recording
+// is a few atomic updates and allocates nothing, so it can sit on every
+// library operation.
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(nanos));
+        totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // Another thread raised the maximum; compare against the new one
+        }
+    }
+
+    // Values below SUB_BUCKETS have a bucket each; above that the top
+    // SUB_BUCKET_BITS + 1 bits of the value pick the bucket
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    // Largest value counted in the bucket
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    // Copy for reporting. Recording carries on while it is taken, so the
+    // figures can be a few operations apart.
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, totalNanos.get(), maxNanos.get());
+    }
+
+    static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        Snapshot(long[] counts, long count, long totalNanos, long maxNanos) {
+            this.counts = counts;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() { return count; }
+        public long getMaxNanos() { return maxNanos; }
+
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        // Nearest-rank percentile, reported as the top of its bucket
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+    }
+}
+
+// Named latency histograms and counters for the library's operations. Each
+// timer is published over JMX as lms:type=Operation,name=<timer> when it is
+// created, and the counters together as lms:type=Counters. The Library keeps
+// the metrics in static fields, so the hot paths never look up a name.
+class MetricsRegistry {
+    static final MetricsRegistry LIBRARY = new MetricsRegistry();
+
+    private static final String DOMAIN = "lms";
+    private static final String[] TIMER_ATTRIBUTES = {
+        "Count", "MeanMicros", "P50Micros", "P90Micros", "P99Micros", "P999Micros", "MaxMicros"
+    };
+
+    private final Map<String, LatencyHistogram> timers = new LinkedHashMap<>();
+    private final Map<String, LongAdder> counters = new LinkedHashMap<>();
+
+    public synchronized LatencyHistogram timer(String name) {
+        LatencyHistogram timer = timers.get(name);
+        if (timer == null) {
+            timer = new LatencyHistogram();
+            timers.put(name, timer);
+            register(new TimerMBean(name, timer), DOMAIN + ":type=Operation,name=" + name);
+        }
+        return timer;
+    }
+
+    public synchronized LongAdder counter(String name) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            if (counters.isEmpty()) {
+                register(new CountersMBean(), DOMAIN + ":type=Counters");
+            }
+            counter = new LongAdder();
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    // Metrics still work without JMX, so a failed registration is only reported
+    private static void register(DynamicMBean bean, String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName(name));
+        } catch (JMException e) {
+            System.err.println("Could not publish " + name + " over JMX: " + e.getMessage());
+        }
+    }
+
+    // Plain-text table of every timer (in microseconds) and counter
+    public synchronized String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-16s %10s %10s %10s %10s %10s %10s %10s\n",
+                "Operation", "Count", "Mean", "p50", "p90", "p99", "p99.9", "Max"));
+        for (Map.Entry<String, LatencyHistogram> entry : timers.entrySet()) {
+            LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+            report.append(String.format("%-16s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f\n",
+                    entry.getKey(), snapshot.getCount(), snapshot.getMeanNanos() / 1000.0,
+                    snapshot.getValueAtPercentile(50) / 1000.0, snapshot.getValueAtPercentile(90) / 1000.0,
+                    snapshot.getValueAtPercentile(99) / 1000.0, snapshot.getValueAtPercentile(99.9) / 1000.0,
+                    snapshot.getMaxNanos() / 1000.0));
+        }
+        report.append("(times in microseconds)\n");
+        if (!counters.isEmpty()) {
+            report.append('\n');
+            for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+                report.append(String.format("%-27s %10d\n", entry.getKey(), entry.getValue().sum()));
+            }
+        }
+        return report.toString();
+    }
+
+    private synchronized Map<String, Long> counterValues() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().sum());
+        }
+        return values;
+    }
+
+    // Read-only MBean whose attributes are computed on request
+    private abstract static class ReadOnlyMBean implements DynamicMBean {
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                try {
+                    list.add(new Attribute(name, getAttribute(name)));
+                } catch (JMException e) {
+                    // Unknown attributes are left out, as the interface allows
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(action));
+        }
+
+        static MBeanAttributeInfo attribute(String name, String type, String description) {
+            return new MBeanAttributeInfo(name, type, description, true, false, false);
+        }
+    }
+
+    private static final class TimerMBean extends ReadOnlyMBean {
+        private final String name;
+        private final LatencyHistogram timer;
+
+        TimerMBean(String name, LatencyHistogram timer) {
+            this.name = name;
+            this.timer = timer;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            LatencyHistogram.Snapshot snapshot = timer.snapshot();
+            switch (attribute) {
+                case "Count": return snapshot.getCount();
+                case "MeanMicros": return snapshot.getMeanNanos() / 1000.0;
+                case "P50Micros": return snapshot.getValueAtPercentile(50) / 1000.0;
+                case "P90Micros": return snapshot.getValueAtPercentile(90) / 1000.0;
+                case "P99Micros": return snapshot.getValueAtPercentile(99) / 1000.0;
+                case "P999Micros": return snapshot.getValueAtPercentile(99.9) / 1000.0;
+                case "MaxMicros": return snapshot.getMaxNanos() / 1000.0;
+                default: throw new AttributeNotFoundException(attribute);
+            }
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[TIMER_ATTRIBUTES.length];
+            attributes[0] = attribute("Count", "long", "Operations recorded");
+            for (int i = 1; i < attributes.length; i++) {
+                attributes[i] = attribute(TIMER_ATTRIBUTES[i], "double", "Latency in microseconds");
+            }
+            return new MBeanInfo(getClass().getName(), "Latency of " + name, attributes, null, null, null);
+        }
+    }
+
+    private final class CountersMBean extends ReadOnlyMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = counterValues().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : counterValues().keySet()) {
+                attributes.add(attribute(name, "long", name));
+            }
+            return new MBeanInfo(getClass().getName(), "Library counters",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
+
+// Outcome of a library change: whether it was made, and the message to show
+final class ChangeResult {
+    final boolean success;
+    final String message;
+
+    private ChangeResult(boolean success, String message) {
+        this.success = success;
+        this.message = message;
+    }
+
+    static ChangeResult done(String message) {
+        return new ChangeResult(true, message);
+    }
+
+    static ChangeResult refused(String message) {
+        return new ChangeResult(false, message);
+    }
+}
+
+// Library class to manage books and members
+class Library {
+    private Map<String, Book> books;
+    private Map<String, Member> members;
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final SearchCache searchCache = new SearchCache(searchIndex);
+    private final LoanIndex loanIndex = new LoanIndex();
+    private static final String BOOKS_FILE = "books.dat";
+    private static final String MEMBERS_FILE = "members.dat";
+    private static final String MAPPED_BOOKS_FILE = "books.map";
+    private static final boolean MAPPED_STORAGE = "mmap".equalsIgnoreCase(System.getProperty("lms.storage"));
+    private static final int MAX_BORROW_DAYS = 14;
+    private static final int MAX_BOOKS_PER_MEMBER = 5;
+    private static final int SNAPSHOT_THRESHOLD = 10000;
+    private static final int LOCK_STRIPES = 256;
+    // Operation latencies, including lock waits and the journal commit, and
+    // snapshot totals. Shown by the View Metrics menu and published over JMX.
+    private static final LatencyHistogram ADD_BOOK_TIME = MetricsRegistry.LIBRARY.timer("addBook");
+    private static final LatencyHistogram REMOVE_BOOK_TIME = MetricsRegistry.LIBRARY.timer("removeBook");
+    private static final LatencyHistogram SEARCH_TIME = MetricsRegistry.LIBRARY.timer("searchBooks");
+    private static final LatencyHistogram BORROW_TIME = MetricsRegistry.LIBRARY.timer("borrowBook");
+    private static final LatencyHistogram RETURN_TIME = MetricsRegistry.LIBRARY.timer("returnBook");
+    private static final LatencyHistogram COMMIT_TIME = MetricsRegistry.LIBRARY.timer("commit");
+    private static final LatencyHistogram LOAD_TIME = MetricsRegistry.LIBRARY.timer("loadData");
+    private static final LatencyHistogram SNAPSHOT_TIME = MetricsRegistry.LIBRARY.timer("snapshot");
+    private static final LongAdder SNAPSHOT_BYTES = MetricsRegistry.LIBRARY.counter("snapshot.bytes");
+
+    private final File dataDir = new File(".");
+    private final SnapshotStore snapshots = new SnapshotStore(dataDir);
+    private TransactionJournal journal;
+    private MappedBookStore mappedStore;
+    private volatile boolean searchIndexReady;
+    // Mutations share the read side; compaction takes the write side so the
+    // snapshot it encodes matches the journal boundary exactly
+    private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private final Object[] bookLocks = new Object[LOCK_STRIPES];
+    private final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean();
+    private String startupReport = "";
+    // Highest journal sequence number awaiting commit on a thread inside
+    // beginBatch()/endBatch(); unset on every other thread
+    private final ThreadLocal<long[]> deferredCommit = new ThreadLocal<>();
+
+    public Library() {
+        books = new IsbnBookMap();
+        members = new ConcurrentHashMap<>();
+        for (int i = 0; i < bookLocks.length; i++) {
+            bookLocks[i] = new Object();
+        }
+        long start = System.nanoTime();
+        loadData();
+        LOAD_TIME.record(System.nanoTime() - start);
+    }
+
+    // Book management methods
+    // Changes return a ChangeResult saying whether the change was made
+    public ChangeResult addBook(String isbn, String title, String author, String genre) {
+        if (!Isbn.isValid(isbn)) {
+            return ChangeResult.refused("Invalid ISBN " + isbn + "! Enter an ISBN-10 or ISBN-13 with a correct check digit.");
+        }
+        long start = System.nanoTime();
+        try {
+            long seq;
+            stateLock.readLock().lock();
+            try {
+                synchronized (lockFor(isbn)) {
+                    if (books.containsKey(isbn)) {
+                        return ChangeResult.refused("Book with ISBN " + isbn + " already exists!");
+                    }
+                    try {
+                        applyAddBook(new Book(isbn, title, author, genre));
+                    } catch (IllegalArgumentException | UncheckedIOException e) {
+                        return ChangeResult.refused("Error adding book: " + e.getMessage());
+                    }
+                    seq = log(TransactionJournal.ADD_BOOK, isbn, title, author, genre);
+                }
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            commit(seq);
+            return ChangeResult.done("Book added successfully!");
+        } finally {
+            ADD_BOOK_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    public ChangeResult removeBook(String isbn) {
+        long start = System.nanoTime();
+        try {
+            long seq;
+            stateLock.readLock().lock();
+            try {
+                synchronized (lockFor(isbn)) {
+                    Book book = books.get(isbn);
+                    if (book == null) {
+                        return ChangeResult.refused("Book with ISBN " + isbn + " not found!");
+                    }
+                    if (!book.isAvailable()) {
+                        return ChangeResult.refused("Cannot remove book - it is currently borrowed!");
+                    }
+                    applyRemoveBook(isbn);
+                    seq = log(TransactionJournal.REMOVE_BOOK, isbn);
+                }
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            commit(seq);
+            return ChangeResult.done("Book removed successfully!");
+        } finally {
+            REMOVE_BOOK_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    public void searchBooks(String query) {
+        List<Book> results = findBooks(query);
+        if (results.isEmpty()) {
+            System.out.println("No books found matching your search.");
+        } else {
+            System.out.println("\n=== Search Results ===");
+            for (Book book : results) {
+                System.out.println(book);
+            }
+        }
+    }
+
+    // Books with a title, author, genre or ISBN containing the query
+    public List<Book> findBooks(String query) {
+        List<Book> results = new ArrayList<>();
+        findBooks(query, Integer.MAX_VALUE, results);
+        return results;
+    }
+
+    // Adds at most limit of the matching books to results and returns the
+    // number of matches, so a page of results reads only the books it shows
+    public int findBooks(String query, int limit, List<Book> results) {
+        long start = System.nanoTime();
+        ensureSearchIndex();
+        List<String> isbns = searchCache.search(query);
+        for (String isbn : isbns) {
+            if (results.size() >= limit) {
+                break;
+            }
+            Book book = books.get(isbn);
+            if (book != null) {
+                results.add(book);
+            }
+        }
+        SEARCH_TIME.record(System.nanoTime() - start);
+        return isbns.size();
+    }
+
+    public Book getBook(String isbn) {
+        return books.get(isbn);
+    }
+
+    public void displayAllBooks() {
+        if (books.isEmpty()) {
+            System.out.println("No books in the library.");
+            return;
+        }
+        System.out.println("\n=== All Books ===");
+        for (Book book : books.values()) {
+            System.out.println(book);
+        }
+    }
+
+    // Member management methods
+    public ChangeResult addMember(String memberId, String name, String email, String phone) {
+        long seq;
+        Member member = new Member(memberId, name, email, phone);
+        stateLock.readLock().lock();
+        try {
+            if (members.putIfAbsent(memberId, member) != null) {
+                return ChangeResult.refused("Member with ID " + memberId + " already exists!");
+            }
+            seq = log(TransactionJournal.ADD_MEMBER, memberId, name, email, phone,
+                    member.getMembershipDate().toEpochDay());
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        commit(seq);
+        return ChangeResult.done("Member added successfully!");
+    }
+
+    public ChangeResult removeMember(String memberId) {
+        long seq;
+        stateLock.readLock().lock();
+        try {
+            Member member = members.get(memberId);
+            if (member == null) {
+                return ChangeResult.refused("Member with ID " + memberId + " not found!");
+            }
+            synchronized (member) {
+                if (member.getBorrowedCount() > 0) {
+                    return ChangeResult.refused("Cannot remove member - they have borrowed books!");
+                }
+                if (!members.remove(memberId, member)) {
+                    return ChangeResult.refused("Member with ID " + memberId + " not found!");
+                }
+                seq = log(TransactionJournal.REMOVE_MEMBER, memberId);
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        commit(seq);
+        return ChangeResult.done("Member removed successfully!");
+    }
+
+    public Member getMember(String memberId) {
+        return members.get(memberId);
+    }
+
+    public void displayAllMembers() {
+        if (members.isEmpty()) {
+            System.out.println("No members registered.");
+            return;
+        }
+        System.out.println("\n=== All Members ===");
+        for (Member member : members.values()) {
+            System.out.println(member);
+        }
+    }
+
+    // Borrowing and returning methods
+    // Locks are always taken in the order state lock, book stripe, member, so
+    // several desks can check books in and out concurrently without deadlock.
+    public ChangeResult borrowBook(String isbn, String memberId) {
+        long start = System.nanoTime();
+        try {
+            long seq;
+            LocalDate dueDate;
+            stateLock.readLock().lock();
+            try {
+                synchronized (lockFor(isbn)) {
+                    Book book = books.get(isbn);
+                    if (book == null) {
+                        return ChangeResult.refused("Book with ISBN " + isbn + " not found!");
+                    }
+                    Member member = members.get(memberId);
+                    if (member == null) {
+                        return ChangeResult.refused("Member with ID " + memberId + " not found!");
+                    }
+
+                    if (!book.isAvailable()) {
+                        synchronized (member) {
+                            return ChangeResult.refused(member.hasBorrowed(book.getIsbn())
+                                    ? "Member has already borrowed this book!" : "Book is already borrowed!");
+                        }
+                    }
+
+                    // The limit check and the loan happen under the member's lock so
+                    // two desks cannot both lend the member their last allowed book
+                    synchronized (member) {
+                        if (members.get(memberId) != member) {
+                            return ChangeResult.refused("Member with ID " + memberId + " not found!");
+                        }
+                        if (member.getBorrowedCount() >= MAX_BOOKS_PER_MEMBER) {
+                            return ChangeResult.refused("Member has reached maximum borrowing limit!");
+                        }
+
+                        // Borrow the book
+                        LocalDate today = LocalDate.now();
+                        dueDate = today.plusDays(MAX_BORROW_DAYS);
+                        applyBorrow(isbn, memberId, today, dueDate);
+                        seq = log(TransactionJournal.BORROW, isbn, memberId, today.toEpochDay(), dueDate.toEpochDay());
+                    }
+                }
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            commit(seq);
+            return ChangeResult.done("Book borrowed successfully! Due date: "
+                    + dueDate.format(DateTimeFormatter.ofPattern("dd-MM-yyyy")));
+        } finally {
+            BORROW_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    public ChangeResult returnBook(String isbn) {
+        long start = System.nanoTime();
+        try {
+            long seq;
+            String result = "Book returned successfully!";
+            stateLock.readLock().lock();
+            try {
+                synchronized (lockFor(isbn)) {
+                    Book book = books.get(isbn);
+                    if (book == null) {
+                        return ChangeResult.refused("Book with ISBN " + isbn + " not found!");
+                    }
+                    if (book.isAvailable()) {
+                        return ChangeResult.refused("Book is not currently borrowed!");
+                    }
+
+                    String memberId = book.getBorrowedBy();
+
+                    // Check for overdue
+                    if (LocalDate.now().isAfter(book.getDueDate())) {
+                        long overdueDays = LocalDate.now().toEpochDay() - book.getDueDate().toEpochDay();
+                        result += " (Was overdue by " + overdueDays + " days)";
+                    }
+
+                    // Return the book
+                    Member member = members.get(memberId);
+                    synchronized (member != null ? member : book) {
+                        applyReturn(isbn, memberId);
+                        seq = log(TransactionJournal.RETURN, isbn, memberId);
+                    }
+                }
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            commit(seq);
+            return ChangeResult.done(result);
+        } finally {
+            RETURN_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    // Stripes by the parsed ISBN so every spelling of one ISBN shares a lock
+    private Object lockFor(String isbn) {
+        long key = Isbn.parse(isbn);
+        int hash = key != Isbn.NOT_AN_ISBN ? Long.hashCode(key) : isbn.hashCode();
+        return bookLocks[(hash & 0x7FFFFFFF) % bookLocks.length];
+    }
+
+    public void displayBorrowedBooks() {
+        if (loanIndex.getBorrowedCount() == 0) {
+            System.out.println("No books are currently borrowed.");
+            return;
+        }
+
+        LocalDate today = LocalDate.now();
+        System.out.println("\n=== Currently Borrowed Books ===");
+        for (String isbn : loanIndex.getBorrowed()) {
+            Book book = books.get(isbn);
+            if (book == null || book.isAvailable()) {
+                continue; // Returned by another desk since the index was read
+            }
+            Member member = members.get(book.getBorrowedBy());
+            String status = today.isAfter(book.getDueDate()) ? " (OVERDUE)" : "";
+            System.out.println(book + " | Borrowed by: " + member.getName() + 
+                             " | Due: " + book.getDueDate().format(DateTimeFormatter.ofPattern("dd-MM-yyyy")) + status);
+        }
+    }
+
+    public void displayOverdueBooks() {
+        LocalDate today = LocalDate.now();
+        List<String> overdueBooks = loanIndex.getOverdue(today);
+
+        if (overdueBooks.isEmpty()) {
+            System.out.println("No overdue books.");
+            return;
+        }
+
+        System.out.println("\n=== Overdue Books ===");
+        for (String isbn : overdueBooks) {
+            Book book = books.get(isbn);
+            if (book == null || book.isAvailable()) {
+                continue; // Returned by another desk since the index was read
+            }
+            Member member = members.get(book.getBorrowedBy());
+            long overdueDays = today.toEpochDay() - book.getDueDate().toEpochDay();
+            System.out.println(book + " | Borrowed by: " + member.getName() + 
+                             " | Overdue by: " + overdueDays + " days");
+        }
+    }
+
+    public void displayBooksDueSoon(int days) {
+        LocalDate today = LocalDate.now();
+        List<String> dueBooks = loanIndex.getDueBetween(today, today.plusDays(days));
+
+        if (dueBooks.isEmpty()) {
+            System.out.println("No books are due in the next " + days + " days.");
+            return;
+        }
+
+        System.out.println("\n=== Books Due in the Next " + days + " Days ===");
+        for (String isbn : dueBooks) {
+            Book book = books.get(isbn);
+            if (book == null || book.isAvailable()) {
+                continue; // Returned by another desk since the index was read
+            }
+            Member member = members.get(book.getBorrowedBy());
+            System.out.println(book + " | Borrowed by: " + member.getName() + 
+                             " | Due: " + book.getDueDate().format(DateTimeFormatter.ofPattern("dd-MM-yyyy")));
+        }
+    }
+
+    // Bulk import methods
+    // Adds a batch of books with one journal commit at the end instead of one
+    // per book. Books whose ISBN is already taken are skipped; the reasons are returned.
+    public List<String> importBooks(Collection<Book> batch) {
+        List<String> rejected = new ArrayList<>();
+        long seq = 0;
+        stateLock.readLock().lock();
+        try {
+            for (Book book : batch) {
+                String isbn = book.getIsbn();
+                synchronized (lockFor(isbn)) {
+                    if (books.containsKey(isbn)) {
+                        rejected.add("Book with ISBN " + isbn + " already exists");
+                        continue;
+                    }
+                    try {
+                        applyAddBook(book);
+                    } catch (IllegalArgumentException | UncheckedIOException e) {
+                        rejected.add("Error adding book " + isbn + ": " + e.getMessage());
+                        continue;
+                    }
+                    seq = Math.max(seq, log(TransactionJournal.ADD_BOOK, isbn, book.getTitle(),
+                            book.getAuthor(), book.getGenre()));
+                }
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        commit(seq);
+        return rejected;
+    }
+
+    public List<String> importMembers(Collection<Member> batch) {
+        List<String> rejected = new ArrayList<>();
+        long seq = 0;
+        stateLock.readLock().lock();
+        try {
+            for (Member member : batch) {
+                if (members.putIfAbsent(member.getMemberId(), member) != null) {
+                    rejected.add("Member with ID " + member.getMemberId() + " already exists");
+                    continue;
+                }
+                seq = Math.max(seq, log(TransactionJournal.ADD_MEMBER, member.getMemberId(), member.getName(),
+                        member.getEmail(), member.getPhone(), member.getMembershipDate().toEpochDay()));
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        commit(seq);
+        return rejected;
+    }
+
+    public List<Book> getAllBooks() {
+        return new ArrayList<>(books.values());
+    }
+
+    // The first books in catalog order, without copying the whole catalog
+    public List<Book> getBooks(int limit) {
+        List<Book> result = new ArrayList<>(Math.min(limit, books.size()));
+        for (Book book : books.values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(book);
+        }
+        return result;
+    }
+
+    public List<Member> getAllMembers() {
+        return new ArrayList<>(members.values());
+    }
+
+    // With mapped storage the search index is built on the first search rather
+    // than at startup, since building it reads every record
+    private void ensureSearchIndex() {
+        if (searchIndexReady) {
+            return;
+        }
+        stateLock.writeLock().lock();
+        try {
+            if (!searchIndexReady) {
+                for (Book book : books.values()) {
+                    searchIndex.add(book);
+                }
+                searchIndexReady = true;
+            }
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+    // State changes shared by the public methods and journal replay
+    private void applyAddBook(Book book) {
+        Book previous = books.put(book.getIsbn(), book);
+        if (previous != null) {
+            searchIndex.remove(previous.getIsbn());
+            loanIndex.remove(previous.getIsbn(), previous.getDueDate());
+        }
+        if (searchIndexReady) {
+            searchIndex.add(book);
+        }
+        searchCache.invalidate();
+    }
+
+    private void applyRemoveBook(String isbn) {
+        Book book = books.remove(isbn);
+        if (book != null) {
+            searchIndex.remove(book.getIsbn());
+            loanIndex.remove(book.getIsbn(), book.getDueDate());
+            searchCache.invalidate();
+        }
+    }
+
+    private void applyAddMember(Member member) {
+        members.put(member.getMemberId(), member);
+    }
+
+    private void applyRemoveMember(String memberId) {
+        members.remove(memberId);
+    }
+
+    private void applyBorrow(String isbn, String memberId, LocalDate borrowDate, LocalDate dueDate) {
+        Book book = books.get(isbn);
+        if (book != null) {
+            isbn = book.getIsbn(); // The indexes use the catalog's spelling
+            if (!book.isAvailable()) {
+                loanIndex.remove(isbn, book.getDueDate());
+            }
+            loanIndex.add(isbn, dueDate);
+            book.setAvailable(false);
+            book.setBorrowedBy(memberId);
+            book.setBorrowDate(borrowDate);
+            book.setDueDate(dueDate);
+            books.put(isbn, book); // Write back for storage that hands out copies
+        }
+        Member member = members.get(memberId);
+        if (member != null) {
+            member.borrowBook(isbn);
+        }
+    }
+
+    private void applyReturn(String isbn, String memberId) {
+        Book book = books.get(isbn);
+        if (book != null) {
+            isbn = book.getIsbn();
+            loanIndex.remove(isbn, book.getDueDate());
+            book.setAvailable(true);
+            book.setBorrowedBy(null);
+            book.setBorrowDate(null);
+            book.setDueDate(null);
+            books.put(isbn, book);
+        }
+        Member member = members.get(memberId);
+        if (member != null) {
+            member.returnBook(isbn);
+        }
+    }
+
+    private void replayRecord(byte type, DataInputStream in) throws IOException {
+        switch (type) {
+            case TransactionJournal.ADD_BOOK:
+                applyAddBook(new Book(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF()));
+                break;
+            case TransactionJournal.REMOVE_BOOK:
+                applyRemoveBook(in.readUTF());
+                break;
+            case TransactionJournal.ADD_MEMBER:
+                Member member = new Member(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF());
+                member.setMembershipDate(LocalDate.ofEpochDay(in.readLong()));
+                applyAddMember(member);
+                break;
+            case TransactionJournal.REMOVE_MEMBER:
+                applyRemoveMember(in.readUTF());
+                break;
+            case TransactionJournal.BORROW:
+                applyBorrow(in.readUTF(), in.readUTF(), LocalDate.ofEpochDay(in.readLong()),
+                        LocalDate.ofEpochDay(in.readLong()));
+                break;
+            case TransactionJournal.RETURN:
+                applyReturn(in.readUTF(), in.readUTF());
+                break;
+            default:
+                throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    // Data persistence methods
+    // books.dat and members.dat are snapshots in CatalogFormat, kept as
+    // generations by SnapshotStore; each header holds the journal generation it
+    // covers, and newer journal segments are replayed on top. A snapshot that
+    // fails its checksums is set aside and the previous one is loaded instead.
+    // Startup work runs on the common ForkJoinPool: the snapshot's chunks are
+    // decoded in parallel, and the search and loan indexes are built while the
+    // maps are filled.
+    private void loadData() {
+        long start = System.nanoTime();
+        long booksGeneration = 0;
+        long membersGeneration = 0;
+        List<Book> bookList = new ArrayList<>();
+        List<Member> memberList = new ArrayList<>();
+        boolean mapped = MAPPED_STORAGE && openMappedStore();
+        String[] snapshotFiles = mapped ? new String[] {MEMBERS_FILE} : new String[] {BOOKS_FILE, MEMBERS_FILE};
+        boolean fromSnapshot = false;
+        for (long generation : snapshots.generations(snapshotFiles)) {
+            try {
+                if (!mapped) {
+                    booksGeneration = readBooks(snapshots.read(generation, BOOKS_FILE), bookList);
+                }
+                membersGeneration = readMembers(snapshots.read(generation, MEMBERS_FILE), memberList);
+                fromSnapshot = true;
+                break;
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Snapshot " + generation + " is damaged (" + e.getMessage()
+                        + "); loading the previous one.");
+                snapshots.markDamaged(generation, snapshotFiles);
+            }
+        }
+
+        // Data directories from before snapshots had generations
+        if (!fromSnapshot) {
+            File booksFile = new File(dataDir, BOOKS_FILE);
+            File membersFile = new File(dataDir, MEMBERS_FILE);
+            migrateLegacyData(booksFile, CatalogFormat.BOOKS);
+            migrateLegacyData(membersFile, CatalogFormat.MEMBERS);
+            if (!mapped) {
+                try {
+                    booksGeneration = readBooks(ByteBuffer.wrap(Files.readAllBytes(booksFile.toPath())), bookList);
+                } catch (Exception e) {
+                    bookList.clear();
+                    booksGeneration = 0;
+                    System.out.println("No existing book data found. Starting with empty library.");
+                }
+            }
+            try {
+                membersGeneration = readMembers(ByteBuffer.wrap(Files.readAllBytes(membersFile.toPath())), memberList);
+            } catch (Exception e) {
+                memberList.clear();
+                membersGeneration = 0;
+                System.out.println("No existing member data found. Starting with empty member list.");
+            }
+        }
+        if (mapped) {
+            booksGeneration = mappedStore.getGeneration();
+        }
+
+        long decoded = System.nanoTime();
+        buildCatalog(bookList, memberList);
+        long built = System.nanoTime();
+
+        // Replay is idempotent per record, so starting from the older of the two
+        // snapshots is safe if a crash landed between writing them
+        long snapshotGeneration = Math.min(booksGeneration, membersGeneration);
+        long lastGeneration = TransactionJournal.replay(dataDir, snapshotGeneration, this::replayRecord);
+        long replayed = System.nanoTime();
+        startupReport = String.format(
+                "Loaded %,d books and %,d members in %d ms (read %d ms, indexes %d ms, journal %d ms)",
+                books.size(), members.size(), (replayed - start) / 1_000_000, (decoded - start) / 1_000_000,
+                (built - decoded) / 1_000_000, (replayed - built) / 1_000_000);
+
+        try {
+            journal = new TransactionJournal(dataDir, Math.max(snapshotGeneration, lastGeneration + 1));
+        } catch (IOException e) {
+            System.out.println("Error opening journal: " + e.getMessage());
+        }
+    }
+
+    // Decodes the file's chunks in parallel into the list and returns its generation
+    private long readBooks(ByteBuffer file, List<Book> bookList) throws IOException {
+        try (CatalogReader reader = new CatalogReader(file.array(), file.limit())) {
+            bookList.clear();
+            bookList.addAll(reader.readAllBooks());
+            return reader.getGeneration();
+        }
+    }
+
+    private long readMembers(ByteBuffer file, List<Member> memberList) throws IOException {
+        try (CatalogReader reader = new CatalogReader(file.array(), file.limit())) {
+            memberList.clear();
+            memberList.addAll(reader.readAllMembers());
+            return reader.getGeneration();
+        }
+    }
+
+    // Fills the maps and indexes from the loaded records. The search and loan
+    // indexes are built on the common ForkJoinPool while this thread fills the
+    // books map and then the members, which share its ISBN strings. With mapped
+    // storage the books are already in place and the search index waits for
+    // the first search.
+    private void buildCatalog(List<Book> bookList, List<Member> memberList) {
+        ForkJoinTask<?> search = null;
+        ForkJoinTask<?> loans;
+        if (mappedStore != null) {
+            loans = ForkJoinPool.commonPool().submit(() -> mappedStore.forEachLoan(loanIndex::add));
+        } else {
+            search = ForkJoinPool.commonPool().submit(() -> searchIndex.addAll(bookList));
+            loans = ForkJoinPool.commonPool().submit(() -> {
+                for (Book book : bookList) {
+                    if (!book.isAvailable()) {
+                        loanIndex.add(book.getIsbn(), book.getDueDate());
+                    }
+                }
+            });
+            Map<String, Book> loadedBooks = new IsbnBookMap(bookList.size());
+            for (Book book : bookList) {
+                loadedBooks.put(book.getIsbn(), book);
+            }
+            books = loadedBooks;
+        }
+
+        Map<String, Member> loadedMembers = new ConcurrentHashMap<>(memberList.size() * 4 / 3 + 1);
+        for (Member member : memberList) {
+            if (mappedStore == null) {
+                member.shareIsbns(books);
+            }
+            loadedMembers.put(member.getMemberId(), member);
+        }
+        members = loadedMembers;
+
+        loans.join();
+        if (search != null) {
+            search.join();
+            searchIndexReady = true;
+        }
+    }
+
+    // How long startup took, shown under the welcome line
+    public String getStartupReport() {
+        return startupReport;
+    }
+
+    // Opens books.map, importing the newest books.dat the first time mapped storage
+    // is used. Returns false (and the caller loads books.dat as usual) if it cannot be opened.
+    private boolean openMappedStore() {
+        File mappedFile = new File(dataDir, MAPPED_BOOKS_FILE);
+        boolean firstUse = !mappedFile.exists();
+        try {
+            mappedStore = new MappedBookStore(mappedFile);
+            if (firstUse) {
+                try (InputStream in = openNewestBooks()) {
+                    if (in != null) {
+                        CatalogReader reader = new CatalogReader(in);
+                        for (int i = 0; i < reader.getCount(); i++) {
+                            mappedStore.put(reader.readBook());
+                        }
+                        mappedStore.sync(reader.getGeneration());
+                    }
+                }
+            }
+            books = new MappedBookMap(mappedStore);
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error opening mapped book storage: " + e.getMessage());
+            if (mappedStore != null) {
+                try {
+                    mappedStore.close();
+                } catch (IOException ignored) {
+                    // Already reporting the original failure
+                }
+                mappedStore = null;
+            }
+            if (firstUse) {
+                mappedFile.delete();
+            }
+            return false;
+        }
+    }
+
+    // The newest intact books.dat snapshot, else the plain books.dat; null if neither exists
+    private InputStream openNewestBooks() throws IOException {
+        for (long generation : snapshots.generations(BOOKS_FILE)) {
+            try {
+                return snapshots.open(generation, BOOKS_FILE);
+            } catch (IOException e) {
+                System.out.println("Snapshot " + generation + " is damaged (" + e.getMessage()
+                        + "); importing the previous one.");
+            }
+        }
+        File booksFile = new File(dataDir, BOOKS_FILE);
+        migrateLegacyData(booksFile, CatalogFormat.BOOKS);
+        return booksFile.exists() ? new FileInputStream(booksFile) : null;
+    }
+
+    private void migrateLegacyData(File file, byte kind) {
+        if (!CatalogFormat.isLegacy(file)) {
+            return;
+        }
+        try {
+            CatalogFormat.migrateLegacy(file, kind);
+            System.out.println("Converted " + file.getName() + " to the new data format (old copy kept as "
+                    + file.getName() + ".bak).");
+        } catch (IOException e) {
+            System.out.println("Error converting " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    private long log(byte type, Object... fields) {
+        if (journal == null) {
+            return 0;
+        }
+        try {
+            return journal.append(type, fields);
+        } catch (IOException e) {
+            System.out.println("Error saving data: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    // Until endBatch(), changes made by the calling thread are journaled as
+    // usual but not waited for one at a time; endBatch() waits once for all of
+    // them. Other threads keep committing each change.
+    public void beginBatch() {
+        deferredCommit.set(new long[1]);
+    }
+
+    // Returns how long the final commit took, in nanoseconds
+    public long endBatch() {
+        long[] deferred = deferredCommit.get();
+        deferredCommit.remove();
+        long start = System.nanoTime();
+        if (deferred != null) {
+            commit(deferred[0]);
+        }
+        return System.nanoTime() - start;
+    }
+
+    // Waits for the change to reach disk, then compacts the journal once it is large
+    private void commit(long seq) {
+        if (journal == null) {
+            return;
+        }
+        long[] deferred = deferredCommit.get();
+        if (deferred != null) {
+            deferred[0] = Math.max(deferred[0], seq);
+            if (journal.getRecordsInSegment() >= SNAPSHOT_THRESHOLD) {
+                compact(); // Rotating the journal syncs the deferred changes too
+            }
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            journal.awaitDurable(seq);
+        } catch (IOException e) {
+            System.out.println("Error saving data: " + e.getMessage());
+        }
+        COMMIT_TIME.record(System.nanoTime() - start);
+        if (journal.getRecordsInSegment() >= SNAPSHOT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    // Under the write lock only rotates the journal, which marks the position
+    // the snapshot covers, and copies the records. Encoding and writing happen
+    // on the snapshot thread after the lock is released, and then the journal
+    // segments that no kept snapshot needs are dropped.
+    private void compact() {
+        if (!snapshotRunning.compareAndSet(false, true)) {
+            return;
+        }
+        long start = System.nanoTime();
+        long generation;
+        List<Book> bookCopies = null;
+        List<Member> memberCopies;
+        stateLock.writeLock().lock();
+        try {
+            generation = journal.rotate();
+            // Mapped storage is already on disk and only needs its pages forced
+            if (mappedStore == null) {
+                bookCopies = new ArrayList<>(books.size());
+                for (Book book : books.values()) {
+                    bookCopies.add(book.copy());
+                }
+            }
+            memberCopies = new ArrayList<>(members.size());
+            for (Member member : members.values()) {
+                memberCopies.add(member.copy());
+            }
+        } catch (IOException e) {
+            System.out.println("Error compacting journal: " + e.getMessage());
+            snapshotRunning.set(false);
+            return;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+
+        List<Book> finalBookCopies = bookCopies;
+        try {
+            snapshotWriter.execute(() -> {
+                try {
+                    Map<String, byte[]> files = new LinkedHashMap<>();
+                    if (finalBookCopies != null) {
+                        ByteArrayOutputStream booksBytes = new ByteArrayOutputStream();
+                        CatalogFormat.writeBooks(booksBytes, finalBookCopies, generation);
+                        files.put(BOOKS_FILE, booksBytes.toByteArray());
+                    } else {
+                        mappedStore.sync(generation);
+                    }
+                    ByteArrayOutputStream membersBytes = new ByteArrayOutputStream();
+                    CatalogFormat.writeMembers(membersBytes, memberCopies, generation);
+                    files.put(MEMBERS_FILE, membersBytes.toByteArray());
+                    long oldestKept = snapshots.write(generation, files);
+                    for (byte[] file : files.values()) {
+                        SNAPSHOT_BYTES.add(file.length);
+                    }
+                    // Keep the journal back to the previous snapshot too, so
+                    // falling back to it on load loses no changes
+                    journal.deleteSegmentsBefore(oldestKept);
+                    SNAPSHOT_TIME.record(System.nanoTime() - start);
+                } catch (IOException e) {
+                    System.out.println("Error writing snapshot: " + e.getMessage());
+                } finally {
+                    snapshotRunning.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            snapshotRunning.set(false); // Closing; the journal still holds every change
+        }
+    }
+
+    // Flushes the journal and waits for any snapshot in progress
+    public void close() {
+        snapshotWriter.shutdown();
+        try {
+            snapshotWriter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.out.println("Error closing journal: " + e.getMessage());
+            }
+        }
+        if (mappedStore != null) {
+            try {
+                mappedStore.close();
+            } catch (IOException e) {
+                System.out.println("Error closing mapped book storage: " + e.getMessage());
+            }
+        }
+    }
+
+    public String getSearchCacheStats() {
+        return searchCache.toString();
+    }
+
+    public Map<String, Integer> getLibraryStats() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        int borrowedCount = loanIndex.getBorrowedCount();
+        stats.put("totalBooks", books.size());
+        stats.put("totalMembers", members.size());
+        stats.put("availableBooks", books.size() - borrowedCount);
+        stats.put("borrowedBooks", borrowedCount);
+        stats.put("overdueBooks", loanIndex.getOverdueCount(LocalDate.now()));
+        return stats;
+    }
+
+    public void generateLibraryReport() {
+        System.out.println("\n=== Library Report ===");
+        System.out.println("Total Books: " + books.size());
+        System.out.println("Total Members: " + members.size());
+        
+        long borrowedBooks = loanIndex.getBorrowedCount();
+        long availableBooks = books.size() - borrowedBooks;
+        
+        System.out.println("Available Books: " + availableBooks);
+        System.out.println("Borrowed Books: " + borrowedBooks);
+        
+        long overdueBooks = loanIndex.getOverdueCount(LocalDate.now());
+        
+        System.out.println("Overdue Books: " + overdueBooks);
+        System.out.println("Search Cache: " + searchCache);
+    }
+}
+
+// JSON API over the library for kiosks and web catalogs, on the JDK's built-in
+// HTTP server. At most maxConcurrent requests run at once, and a request that
+// cannot get a slot is turned away with 503, so a burst cannot pile up
+// unbounded work:
+//
+//   - On Java 21 and later each request gets its own virtual thread and waits
+//     up to QUEUE_WAIT_MILLIS for a slot.
+//   - Older runtimes use a pool of 2 * maxConcurrent platform threads, so the
+//     threads beyond the slots wait up to QUEUE_WAIT_MILLIS in the same way.
+//     Up to maxConcurrent more requests queue for a thread. Once that queue is
+//     full, new requests get a 503 at once on the server's dispatcher thread.
+//
+// The server listens on the loopback address unless it is given another
+// address to bind to.
+//
+//   GET  /api/books?q=<query>&limit=<n>   search (no q lists the catalog)
+//   GET  /api/books/<isbn>                one book
+//   GET  /api/members/<id>                one member and their loans
+//   POST /api/borrow?isbn=<isbn>&memberId=<id>
+//   POST /api/return?isbn=<isbn>
+//   GET  /api/stats                       counts and search cache figures
+//
+// POST parameters may also be sent form-encoded in the body.
+class LibraryHttpServer {
+    static final int DEFAULT_PORT = 8080;
+    static final int DEFAULT_MAX_CONCURRENT = 64;
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 10000;
+    private static final int QUEUE_WAIT_MILLIS = 1000;
+    private static final LatencyHistogram REQUEST_TIME = MetricsRegistry.LIBRARY.timer("httpRequest");
+    private static final LongAdder REJECTED = MetricsRegistry.LIBRARY.counter("http.rejected");
+    // Set while a request is handled on the dispatcher thread because the pool's queue is full
+    private static final ThreadLocal<Boolean> QUEUE_FULL = new ThreadLocal<>();
+
+    private final Library library;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final boolean virtualThreads;
+
+    public LibraryHttpServer(Library library, InetAddress bindAddress, int port, int maxConcurrent) throws IOException {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("At least one request must be allowed at a time");
+        }
+        this.library = library;
+        this.permits = new Semaphore(maxConcurrent);
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : newBoundedPool(maxConcurrent);
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        server.createContext("/api/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() when the runtime has it; the
+    // program still compiles and runs on Java 8
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    // The platform thread fallback. A request the pool cannot take is run on the
+    // dispatcher thread with QUEUE_FULL set, so handle() answers it with 503
+    // without waiting; after shutdown it is dropped with the connection.
+    private static ExecutorService newBoundedPool(int maxConcurrent) {
+        int threads = 2 * maxConcurrent;
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxConcurrent), r -> {
+                    Thread thread = new Thread(r, "http-request");
+                    thread.setDaemon(true);
+                    return thread;
+                }, (task, rejectedBy) -> {
+                    if (rejectedBy.isShutdown()) {
+                        return;
+                    }
+                    QUEUE_FULL.set(Boolean.TRUE);
+                    try {
+                        task.run();
+                    } finally {
+                        QUEUE_FULL.remove();
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            boolean admitted;
+            try {
+                admitted = QUEUE_FULL.get() == null && permits.tryAcquire(QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                admitted = false;
+            }
+            if (!admitted) {
+                REJECTED.increment();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                send(exchange, 503, error("Server is busy, try again shortly"));
+                return;
+            }
+            try {
+                route(exchange);
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, error(e.getMessage()));
+            } catch (RuntimeException e) {
+                System.err.println("Error handling " + exchange.getRequestMethod() + " "
+                        + exchange.getRequestURI() + ":");
+                e.printStackTrace();
+                send(exchange, 500, error("Internal server error"));
+            } finally {
+                permits.release();
+            }
+        } finally {
+            exchange.close();
+            REQUEST_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getRawPath();
+        Map<String, String> params = parameters(exchange);
+
+        if (path.equals("/api/books")) {
+            if (allowed(exchange, "GET")) {
+                searchBooks(exchange, params);
+            }
+        } else if (path.startsWith("/api/books/")) {
+            if (!allowed(exchange, "GET")) {
+                return;
+            }
+            Book book = library.getBook(decode(path.substring("/api/books/".length())));
+            if (book == null) {
+                send(exchange, 404, error("Book not found"));
+            } else {
+                send(exchange, 200, bookJson(book));
+            }
+        } else if (path.startsWith("/api/members/")) {
+            if (!allowed(exchange, "GET")) {
+                return;
+            }
+            Member member = library.getMember(decode(path.substring("/api/members/".length())));
+            if (member == null) {
+                send(exchange, 404, error("Member not found"));
+            } else {
+                send(exchange, 200, memberJson(member));
+            }
+        } else if (path.equals("/api/borrow")) {
+            if (!allowed(exchange, "POST")) {
+                return;
+            }
+            String isbn = required(params, "isbn");
+            String memberId = required(params, "memberId");
+            if (library.getBook(isbn) == null) {
+                send(exchange, 404, error("Book with ISBN " + isbn + " not found!"));
+            } else if (library.getMember(memberId) == null) {
+                send(exchange, 404, error("Member with ID " + memberId + " not found!"));
+            } else {
+                sendLoanResult(exchange, library.borrowBook(isbn, memberId), isbn);
+            }
+        } else if (path.equals("/api/return")) {
+            if (!allowed(exchange, "POST")) {
+                return;
+            }
+            String isbn = required(params, "isbn");
+            if (library.getBook(isbn) == null) {
+                send(exchange, 404, error("Book with ISBN " + isbn + " not found!"));
+            } else {
+                sendLoanResult(exchange, library.returnBook(isbn), isbn);
+            }
+        } else if (path.equals("/api/stats")) {
+            if (!allowed(exchange, "GET")) {
+                return;
+            }
+            StringBuilder json = new StringBuilder("{");
+            for (Map.Entry<String, Integer> stat : library.getLibraryStats().entrySet()) {
+                json.append(BulkCatalogIO.jsonString(stat.getKey())).append(':').append(stat.getValue()).append(',');
+            }
+            json.append("\"searchCache\":").append(BulkCatalogIO.jsonString(library.getSearchCacheStats())).append('}');
+            send(exchange, 200, json.toString());
+        } else {
+            send(exchange, 404, error("No such endpoint: " + method + " " + path));
+        }
+    }
+
+    private void searchBooks(HttpExchange exchange, Map<String, String> params) throws IOException {
+        int limit = DEFAULT_LIMIT;
+        if (params.containsKey("limit")) {
+            try {
+                limit = Math.min(MAX_LIMIT, Math.max(0, Integer.parseInt(params.get("limit"))));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("limit must be a number");
+            }
+        }
+        String query = params.get("q");
+        List<Book> results;
+        int count;
+        if (query == null || query.trim().isEmpty()) {
+            results = library.getBooks(limit);
+            count = results.size();
+        } else {
+            results = new ArrayList<>(Math.min(limit, DEFAULT_LIMIT));
+            count = library.findBooks(query.trim(), limit, results);
+        }
+        StringBuilder json = new StringBuilder("{\"count\":").append(count).append(",\"books\":[");
+        for (int i = 0; i < results.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(bookJson(results.get(i)));
+        }
+        send(exchange, 200, json.append("]}").toString());
+    }
 
-    public void borrowBook(String isbn) {
-        if (!borrowedBooks.contains(isbn)) {
-            borrowedBooks.add(isbn);
+    private void sendLoanResult(HttpExchange exchange, ChangeResult result, String isbn) throws IOException {
+        if (!result.success) {
+            send(exchange, 409, error(result.message));
+            return;
         }
+        Book book = library.getBook(isbn);
+        send(exchange, 200, "{\"message\":" + BulkCatalogIO.jsonString(result.message)
+                + (book != null ? ",\"book\":" + bookJson(book) : "") + "}");
     }
 
-    public void returnBook(String isbn) {
-        borrowedBooks.remove(isbn);
+    // Dates are ISO-8601 (yyyy-MM-dd); fields that do not apply are null
+    static String bookJson(Book book) {
+        return "{\"isbn\":" + BulkCatalogIO.jsonString(book.getIsbn())
+                + ",\"title\":" + BulkCatalogIO.jsonString(book.getTitle())
+                + ",\"author\":" + BulkCatalogIO.jsonString(book.getAuthor())
+                + ",\"genre\":" + BulkCatalogIO.jsonString(book.getGenre())
+                + ",\"available\":" + book.isAvailable()
+                + ",\"borrowedBy\":" + jsonOrNull(book.getBorrowedBy())
+                + ",\"borrowDate\":" + jsonOrNull(book.getBorrowDate())
+                + ",\"dueDate\":" + jsonOrNull(book.getDueDate()) + "}";
     }
 
-    @Override
-    public String toString() {
-        return String.format("ID: %s | Name: %s | Email: %s | Phone: %s | Books Borrowed: %d | Member Since: %s",
-                memberId, name, email, phone, borrowedBooks.size(), membershipDate.format(DateTimeFormatter.ofPattern("dd-MM-yyyy")));
+    static String memberJson(Member member) {
+        StringBuilder loans = new StringBuilder("[");
+        for (String isbn : member.getBorrowedBooks()) {
+            if (loans.length() > 1) {
+                loans.append(',');
+            }
+            loans.append(BulkCatalogIO.jsonString(isbn));
+        }
+        return "{\"memberId\":" + BulkCatalogIO.jsonString(member.getMemberId())
+                + ",\"name\":" + BulkCatalogIO.jsonString(member.getName())
+                + ",\"email\":" + BulkCatalogIO.jsonString(member.getEmail())
+                + ",\"phone\":" + BulkCatalogIO.jsonString(member.getPhone())
+                + ",\"membershipDate\":" + jsonOrNull(member.getMembershipDate())
+                + ",\"borrowedBooks\":" + loans.append(']') + "}";
     }
-}
 
-// Library class to manage books and members
-class Library {
-    private Map<String, Book> books;
-    private Map<String, Member> members;
-    private static final String BOOKS_FILE = "books.dat";
-    private static final String MEMBERS_FILE = "members.dat";
-    private static final int MAX_BORROW_DAYS = 14;
-    private static final int MAX_BOOKS_PER_MEMBER = 5;
+    private static String jsonOrNull(Object value) {
+        return value == null ? "null" : BulkCatalogIO.jsonString(value.toString());
+    }
 
-    public Library() {
-        books = new HashMap<>();
-        members = new HashMap<>();
-        loadData();
+    private static String error(String message) {
+        return "{\"error\":" + BulkCatalogIO.jsonString(message) + "}";
     }
 
-    // Book management methods
-    public boolean addBook(String isbn, String title, String author, String genre) {
-        if (books.containsKey(isbn)) {
-            System.out.println("Book with ISBN " + isbn + " already exists!");
-            return false;
+    // Answers 405 if the request used another method
+    private static boolean allowed(HttpExchange exchange, String method) throws IOException {
+        if (exchange.getRequestMethod().equalsIgnoreCase(method)) {
+            return true;
         }
-        books.put(isbn, new Book(isbn, title, author, genre));
-        saveData();
-        return true;
+        exchange.getResponseHeaders().set("Allow", method);
+        send(exchange, 405, error(exchange.getRequestURI().getPath() + " expects " + method));
+        return false;
     }
 
-    public boolean removeBook(String isbn) {
-        if (!books.containsKey(isbn)) {
-            System.out.println("Book with ISBN " + isbn + " not found!");
-            return false;
-        }
-        Book book = books.get(isbn);
-        if (!book.isAvailable()) {
-            System.out.println("Cannot remove book - it is currently borrowed!");
-            return false;
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException(name + " is required");
         }
-        books.remove(isbn);
-        saveData();
-        return true;
+        return value.trim();
     }
 
-    public void searchBooks(String query) {
-        List<Book> results = new ArrayList<>();
-        String lowerQuery = query.toLowerCase();
-        
-        for (Book book : books.values()) {
-            if (book.getTitle().toLowerCase().contains(lowerQuery) ||
-                book.getAuthor().toLowerCase().contains(lowerQuery) ||
-                book.getGenre().toLowerCase().contains(lowerQuery) ||
-                book.getIsbn().toLowerCase().contains(lowerQuery)) {
-                results.add(book);
+    // Query string parameters, plus a form-encoded body on POST
+    private static Map<String, String> parameters(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseParameters(exchange.getRequestURI().getRawQuery(), params);
+        if (exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            InputStream in = exchange.getRequestBody();
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                body.write(buffer, 0, read);
             }
+            parseParameters(new String(body.toByteArray(), StandardCharsets.UTF_8), params);
         }
+        return params;
+    }
 
-        if (results.isEmpty()) {
-            System.out.println("No books found matching your search.");
-        } else {
-            System.out.println("\n=== Search Results ===");
-            for (Book book : results) {
-                System.out.println(book);
+    private static void parseParameters(String encoded, Map<String, String> params) {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        for (String pair : encoded.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                params.put(decode(pair.substring(0, equals)), decode(pair.substring(equals + 1)));
             }
         }
     }
 
-    public void displayAllBooks() {
-        if (books.isEmpty()) {
-            System.out.println("No books in the library.");
-            return;
-        }
-        System.out.println("\n=== All Books ===");
-        for (Book book : books.values()) {
-            System.out.println(book);
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
         }
     }
 
-    // Member management methods
-    public boolean addMember(String memberId, String name, String email, String phone) {
-        if (members.containsKey(memberId)) {
-            System.out.println("Member with ID " + memberId + " already exists!");
-            return false;
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+}
+
+// Load generator for LibraryHttpServer. A number of client threads send a mix
+// of searches (60%), book lookups (30%) and stats requests (10%) as fast as
+// they get answers, for a fixed time, then the throughput and latency
+// percentiles are printed for each kind of request. Search terms and ISBNs
+// are sampled from the catalog first, so the mix fits whatever data the
+// server has. Only reads are sent, so the library is left unchanged.
+class LoadGenerator {
+    private static final int SAMPLE_SIZE = 1000;
+    private static final int TIMEOUT_MILLIS = 10000;
+    private static final String[] KINDS = {"search", "lookup", "stats"};
+
+    private final String baseUrl;
+    private final int clients;
+    private final int seconds;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[KINDS.length];
+    private final LatencyHistogram overall = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final List<String> isbns = new ArrayList<>();
+    private final List<String> terms = new ArrayList<>();
+
+    public LoadGenerator(String baseUrl, int clients, int seconds) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.clients = clients;
+        this.seconds = seconds;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
         }
-        members.put(memberId, new Member(memberId, name, email, phone));
-        saveData();
-        return true;
     }
 
-    public boolean removeMember(String memberId) {
-        if (!members.containsKey(memberId)) {
-            System.out.println("Member with ID " + memberId + " not found!");
-            return false;
+    public void run() throws IOException, InterruptedException {
+        sampleCatalog();
+        System.out.println("Sending requests to " + baseUrl + " from " + clients + " clients for " + seconds + " s...");
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Thread thread = new Thread(() -> runClient(end), "load-client-" + i);
+            threads.add(thread);
+            thread.start();
         }
-        Member member = members.get(memberId);
-        if (!member.getBorrowedBooks().isEmpty()) {
-            System.out.println("Cannot remove member - they have borrowed books!");
-            return false;
+        for (Thread thread : threads) {
+            thread.join();
         }
-        members.remove(memberId);
-        saveData();
-        return true;
+        printReport((System.nanoTime() - start) / 1e9);
     }
 
-    public void displayAllMembers() {
-        if (members.isEmpty()) {
-            System.out.println("No members registered.");
-            return;
+    // Takes ISBNs and title words from the first books in the catalog
+    private void sampleCatalog() throws IOException {
+        String json = get("/api/books?limit=" + SAMPLE_SIZE);
+        Set<String> words = new LinkedHashSet<>();
+        for (int i = json.indexOf("\"isbn\":\""); i >= 0; i = json.indexOf("\"isbn\":\"", i + 1)) {
+            isbns.add(stringAt(json, i + "\"isbn\":".length()));
         }
-        System.out.println("\n=== All Members ===");
-        for (Member member : members.values()) {
-            System.out.println(member);
+        for (int i = json.indexOf("\"title\":\""); i >= 0; i = json.indexOf("\"title\":\"", i + 1)) {
+            for (String word : stringAt(json, i + "\"title\":".length()).toLowerCase().split("\\W+")) {
+                if (word.length() >= 3) {
+                    words.add(word);
+                }
+            }
+        }
+        terms.addAll(words);
+        if (isbns.isEmpty()) {
+            throw new IOException("The server's catalog is empty; add some books first");
         }
     }
 
-    // Borrowing and returning methods
-    public boolean borrowBook(String isbn, String memberId) {
-        if (!books.containsKey(isbn)) {
-            System.out.println("Book with ISBN " + isbn + " not found!");
-            return false;
+    private void runClient(long end) {
+        Random random = new Random();
+        while (System.nanoTime() < end) {
+            int pick = random.nextInt(10);
+            int kind = pick < 6 && !terms.isEmpty() ? 0 : pick < 9 ? 1 : 2;
+            String path;
+            switch (kind) {
+                case 0: path = "/api/books?limit=20&q=" + encode(terms.get(random.nextInt(terms.size()))); break;
+                case 1: path = "/api/books/" + encode(isbns.get(random.nextInt(isbns.size()))); break;
+                default: path = "/api/stats"; break;
+            }
+            long start = System.nanoTime();
+            try {
+                int status = request(path);
+                if (status == 503) {
+                    rejected.increment();
+                } else if (status != 200) {
+                    errors.increment();
+                }
+            } catch (IOException e) {
+                errors.increment();
+            }
+            long elapsed = System.nanoTime() - start;
+            latencies[kind].record(elapsed);
+            overall.record(elapsed);
         }
-        if (!members.containsKey(memberId)) {
-            System.out.println("Member with ID " + memberId + " not found!");
-            return false;
+    }
+
+    private void printReport(double elapsedSeconds) {
+        LatencyHistogram.Snapshot total = overall.snapshot();
+        System.out.println(String.format("%,d requests in %.1f s: %,.0f requests/s, %d errors, %d rejected (503)",
+                total.getCount(), elapsedSeconds, total.getCount() / elapsedSeconds, errors.sum(), rejected.sum()));
+        System.out.println(String.format("%-8s %10s %10s %10s %10s %10s %10s",
+                "Request", "Count", "p50", "p90", "p99", "p99.9", "Max"));
+        for (int i = 0; i < KINDS.length; i++) {
+            printRow(KINDS[i], latencies[i].snapshot());
         }
+        printRow("all", total);
+        System.out.println("(times in milliseconds)");
+    }
 
-        Book book = books.get(isbn);
-        Member member = members.get(memberId);
+    private static void printRow(String name, LatencyHistogram.Snapshot snapshot) {
+        System.out.println(String.format("%-8s %10d %10.2f %10.2f %10.2f %10.2f %10.2f", name, snapshot.getCount(),
+                snapshot.getValueAtPercentile(50) / 1e6, snapshot.getValueAtPercentile(90) / 1e6,
+                snapshot.getValueAtPercentile(99) / 1e6, snapshot.getValueAtPercentile(99.9) / 1e6,
+                snapshot.getMaxNanos() / 1e6));
+    }
 
-        if (!book.isAvailable()) {
-            System.out.println("Book is already borrowed!");
-            return false;
+    // Reads the whole response so the connection can be reused
+    private int request(String path) throws IOException {
+        HttpURLConnection connection = open(path);
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            try (InputStream body = in) {
+                byte[] buffer = new byte[8192];
+                while (body.read(buffer) > 0) {
+                    // Discard
+                }
+            }
         }
+        return status;
+    }
 
-        if (member.getBorrowedBooks().size() >= MAX_BOOKS_PER_MEMBER) {
-            System.out.println("Member has reached maximum borrowing limit!");
-            return false;
+    private String get(String path) throws IOException {
+        HttpURLConnection connection = open(path);
+        if (connection.getResponseCode() != 200) {
+            throw new IOException("GET " + path + " returned " + connection.getResponseCode());
+        }
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                body.write(buffer, 0, read);
+            }
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
         }
+    }
 
-        // Borrow the book
-        book.setAvailable(false);
-        book.setBorrowedBy(memberId);
-        book.setBorrowDate(LocalDate.now());
-        book.setDueDate(LocalDate.now().plusDays(MAX_BORROW_DAYS));
-        member.borrowBook(isbn);
-        
-        saveData();
-        System.out.println("Book borrowed successfully! Due date: " + 
-                         book.getDueDate().format(DateTimeFormatter.ofPattern("dd-MM-yyyy")));
-        return true;
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        return connection;
     }
 
-    public boolean returnBook(String isbn) {
-        if (!books.containsKey(isbn)) {
-            System.out.println("Book with ISBN " + isbn + " not found!");
-            return false;
+    // The JSON string value starting at index, with the server's escapes undone
+    private static String stringAt(String json, int index) {
+        StringBuilder value = new StringBuilder();
+        for (int i = index + 1; i < json.length() && json.charAt(i) != '"'; i++) {
+            char c = json.charAt(i);
+            if (c == '\\' && i + 1 < json.length()) {
+                c = json.charAt(++i);
+                if (c == 'u') {
+                    c = (char) Integer.parseInt(json.substring(i + 1, i + 5), 16);
+                    i += 4;
+                } else if (c == 'n') {
+                    c = '\n';
+                } else if (c == 'r') {
+                    c = '\r';
+                } else if (c == 't') {
+                    c = '\t';
+                }
+            }
+            value.append(c);
         }
+        return value.toString();
+    }
 
-        Book book = books.get(isbn);
-        if (book.isAvailable()) {
-            System.out.println("Book is not currently borrowed!");
-            return false;
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
         }
+    }
+}
 
-        String memberId = book.getBorrowedBy();
-        Member member = members.get(memberId);
-
-        // Check for overdue
-        if (LocalDate.now().isAfter(book.getDueDate())) {
-            long overdueDays = LocalDate.now().toEpochDay() - book.getDueDate().toEpochDay();
-            System.out.println("Book is overdue by " + overdueDays + " days!");
-        }
+// Runs library commands from a script or pipe, one per line, so scheduled
+// jobs and load tests do not have to drive the menu:
+//
+//   ADD_BOOK <isbn> <title> <author> <genre>     BORROW <isbn> <memberId>
+//   REMOVE_BOOK <isbn>                           RETURN <isbn>
+//   ADD_MEMBER <id> <name> <email> <phone>       SEARCH <query>
+//   REMOVE_MEMBER <id>                           BOOK <isbn>
+//   MEMBER <id>                                  STATS
+//
+// Fields are separated by spaces; a field with spaces goes in double quotes
+// ("" for a quote inside one). Commands are case-insensitive, and blank lines
+// and lines starting with # are skipped. Each command prints one
+// tab-separated line: line number, OK / FAILED / ERROR, command, message,
+// and for queries the values found. FAILED means the library refused the
+// command (a book already on loan, say) and ERROR that the line is malformed.
+// Changes are journaled as they run and committed once at the end.
+class BatchRunner {
+    static final String OK = "OK";
+    static final String FAILED = "FAILED";
+    static final String ERROR = "ERROR";
 
-        // Return the book
-        book.setAvailable(true);
-        book.setBorrowedBy(null);
-        book.setBorrowDate(null);
-        book.setDueDate(null);
-        member.returnBook(isbn);
+    static class Summary {
+        int commands;
+        int ok;
+        int failed;
+        int errors;
+        long elapsedNanos;
+        long commitNanos;
 
-        saveData();
-        System.out.println("Book returned successfully!");
-        return true;
+        double opsPerSecond() {
+            return elapsedNanos == 0 ? 0 : commands * 1_000_000_000.0 / elapsedNanos;
+        }
     }
 
-    public void displayBorrowedBooks() {
-        List<Book> borrowedBooks = new ArrayList<>();
-        for (Book book : books.values()) {
-            if (!book.isAvailable()) {
-                borrowedBooks.add(book);
+    static Summary run(Library library, BufferedReader in, Writer out) throws IOException {
+        Summary summary = new Summary();
+        List<String> fields = new ArrayList<>();
+        long start = System.nanoTime();
+        library.beginBatch();
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                summary.commands++;
+                fields.clear();
+                String status;
+                String command = trimmed.split("[ \t]", 2)[0].toUpperCase(Locale.ROOT);
+                try {
+                    split(trimmed, fields);
+                    status = execute(library, command, fields, lineNumber, out);
+                } catch (IllegalArgumentException e) {
+                    status = ERROR;
+                    writeResult(out, lineNumber, ERROR, command, e.getMessage());
+                }
+                if (status.equals(OK)) {
+                    summary.ok++;
+                } else if (status.equals(FAILED)) {
+                    summary.failed++;
+                } else {
+                    summary.errors++;
+                }
             }
+        } finally {
+            summary.commitNanos = library.endBatch();
+            summary.elapsedNanos = System.nanoTime() - start;
+            out.flush();
         }
+        return summary;
+    }
 
-        if (borrowedBooks.isEmpty()) {
-            System.out.println("No books are currently borrowed.");
-            return;
+    // Runs one command and writes its result line; returns its status
+    private static String execute(Library library, String command, List<String> fields, int line, Writer out)
+            throws IOException {
+        switch (command) {
+            case "ADD_BOOK":
+                expectFields(command, fields, "isbn", "title", "author", "genre");
+                return change(out, line, command, library.addBook(fields.get(1), fields.get(2), fields.get(3), fields.get(4)));
+            case "REMOVE_BOOK":
+                expectFields(command, fields, "isbn");
+                return change(out, line, command, library.removeBook(fields.get(1)));
+            case "ADD_MEMBER":
+                expectFields(command, fields, "memberId", "name", "email", "phone");
+                return change(out, line, command, library.addMember(fields.get(1), fields.get(2), fields.get(3), fields.get(4)));
+            case "REMOVE_MEMBER":
+                expectFields(command, fields, "memberId");
+                return change(out, line, command, library.removeMember(fields.get(1)));
+            case "BORROW":
+                expectFields(command, fields, "isbn", "memberId");
+                return change(out, line, command, library.borrowBook(fields.get(1), fields.get(2)));
+            case "RETURN":
+                expectFields(command, fields, "isbn");
+                return change(out, line, command, library.returnBook(fields.get(1)));
+            case "SEARCH": {
+                if (fields.size() < 2) {
+                    throw new IllegalArgumentException("SEARCH needs a query");
+                }
+                // An unquoted query keeps its words
+                List<Book> results = library.findBooks(String.join(" ", fields.subList(1, fields.size())));
+                StringBuilder isbns = new StringBuilder();
+                for (Book book : results) {
+                    if (isbns.length() > 0) {
+                        isbns.append(',');
+                    }
+                    isbns.append(book.getIsbn());
+                }
+                writeResult(out, line, OK, command, results.size() + " books found", isbns.toString());
+                return OK;
+            }
+            case "BOOK": {
+                expectFields(command, fields, "isbn");
+                Book book = library.getBook(fields.get(1));
+                if (book == null) {
+                    writeResult(out, line, FAILED, command, "Book with ISBN " + fields.get(1) + " not found!");
+                    return FAILED;
+                }
+                writeResult(out, line, OK, command, book.isAvailable() ? "Available" : "Borrowed",
+                        book.getIsbn(), book.getTitle(), book.getAuthor(), book.getGenre(),
+                        Objects.toString(book.getBorrowedBy(), ""), Objects.toString(book.getDueDate(), ""));
+                return OK;
+            }
+            case "MEMBER": {
+                expectFields(command, fields, "memberId");
+                Member member = library.getMember(fields.get(1));
+                if (member == null) {
+                    writeResult(out, line, FAILED, command, "Member with ID " + fields.get(1) + " not found!");
+                    return FAILED;
+                }
+                writeResult(out, line, OK, command, member.getBorrowedCount() + " books borrowed",
+                        member.getMemberId(), member.getName(), member.getEmail(), member.getPhone(),
+                        String.join(",", member.getBorrowedBooks()));
+                return OK;
+            }
+            case "STATS": {
+                expectFields(command, fields);
+                List<String> values = new ArrayList<>();
+                for (Map.Entry<String, Integer> stat : library.getLibraryStats().entrySet()) {
+                    values.add(stat.getKey() + "=" + stat.getValue());
+                }
+                writeResult(out, line, OK, command, "Library statistics", values.toArray(new String[0]));
+                return OK;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown command " + fields.get(0));
         }
+    }
 
-        System.out.println("\n=== Currently Borrowed Books ===");
-        for (Book book : borrowedBooks) {
-            Member member = members.get(book.getBorrowedBy());
-            String status = LocalDate.now().isAfter(book.getDueDate()) ? " (OVERDUE)" : "";
-            System.out.println(book + " | Borrowed by: " + member.getName() + 
-                             " | Due: " + book.getDueDate().format(DateTimeFormatter.ofPattern("dd-MM-yyyy")) + status);
+    private static String change(Writer out, int line, String command, ChangeResult result) throws IOException {
+        String status = result.success ? OK : FAILED;
+        writeResult(out, line, status, command, result.message);
+        return status;
+    }
+
+    private static void expectFields(String command, List<String> fields, String... names) {
+        if (fields.size() != names.length + 1) {
+            throw new IllegalArgumentException(command + " needs " + names.length
+                    + (names.length == 1 ? " field" : " fields")
+                    + (names.length > 0 ? ": " + String.join(" ", names) : "") + ", got " + (fields.size() - 1));
         }
     }
 
-    public void displayOverdueBooks() {
-        List<Book> overdueBooks = new ArrayList<>();
-        for (Book book : books.values()) {
-            if (!book.isAvailable() && LocalDate.now().isAfter(book.getDueDate())) {
-                overdueBooks.add(book);
+    // Splits on spaces and tabs, keeping double-quoted fields together
+    static void split(String line, List<String> fields) {
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (c == ' ' || c == '\t') {
+                i++;
+            } else if (c == '"') {
+                StringBuilder field = new StringBuilder();
+                i++;
+                while (true) {
+                    if (i >= line.length()) {
+                        throw new IllegalArgumentException("Unterminated quote");
+                    }
+                    if (line.charAt(i) == '"') {
+                        if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                            field.append('"');
+                            i += 2;
+                            continue;
+                        }
+                        i++;
+                        break;
+                    }
+                    field.append(line.charAt(i++));
+                }
+                fields.add(field.toString());
+            } else {
+                int end = i;
+                while (end < line.length() && line.charAt(end) != ' ' && line.charAt(end) != '\t') {
+                    end++;
+                }
+                fields.add(line.substring(i, end));
+                i = end;
             }
         }
+    }
 
-        if (overdueBooks.isEmpty()) {
-            System.out.println("No overdue books.");
-            return;
+    // Tabs and line breaks inside values become spaces so every result stays one line
+    private static void writeResult(Writer out, int line, String status, String command, String message,
+                                    String... values) throws IOException {
+        out.write(Integer.toString(line));
+        out.write('\t');
+        out.write(status);
+        out.write('\t');
+        out.write(command);
+        out.write('\t');
+        out.write(clean(message));
+        for (String value : values) {
+            out.write('\t');
+            out.write(clean(value));
         }
+        out.write('\n');
+    }
 
-        System.out.println("\n=== Overdue Books ===");
-        for (Book book : overdueBooks) {
-            Member member = members.get(book.getBorrowedBy());
-            long overdueDays = LocalDate.now().toEpochDay() - book.getDueDate().toEpochDay();
-            System.out.println(book + " | Borrowed by: " + member.getName() + 
-                             " | Overdue by: " + overdueDays + " days");
-        }
+    private static String clean(String value) {
+        return value.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
     }
+}
 
-    // Data persistence methods
-    @SuppressWarnings("unchecked")
-    private void loadData() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(BOOKS_FILE))) {
-            books = (Map<String, Book>) ois.readObject();
-        } catch (Exception e) {
-            System.out.println("No existing book data found. Starting with empty library.");
+// Concurrency stress test for Library. Several threads borrow and return books
+// at random on a small catalog, so most calls race for the same few ISBNs and
+// members, and enough changes are made to trigger journal compaction. The
+// library is then checked, closed, reopened from disk and checked again:
+//
+//   - no ISBN is on loan to two members
+//   - every book on loan is in its borrower's list, and every ISBN in a
+//     member's list is a book on loan to that member
+//   - the members' loan counts add up to the loan index's count
+//   - the reopened library has exactly the loans the running one had
+//
+// It writes the usual data files, so it is run in an empty directory.
+// Returns 0 if every check passed, 1 if any failed and 2 if the directory
+// already holds a library.
+class StressTest {
+    static int run(int threads, int operations, int bookCount, int memberCount) throws InterruptedException {
+        Library library = new Library();
+        if (!library.getAllBooks().isEmpty() || !library.getAllMembers().isEmpty()) {
+            System.out.println("The library is not empty; run the stress test in an empty directory.");
+            library.close();
+            return 2;
+        }
+        String[] isbns = new String[bookCount];
+        for (int i = 0; i < bookCount; i++) {
+            isbns[i] = isbn(i);
+            library.addBook(isbns[i], "Stress Book " + i, "Author " + i % 5, "Genre " + i % 3);
+        }
+        String[] memberIds = new String[memberCount];
+        for (int i = 0; i < memberCount; i++) {
+            memberIds[i] = "S" + i;
+            library.addMember(memberIds[i], "Member " + i, "s" + i + "@example.com", "555-" + i);
         }
 
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(MEMBERS_FILE))) {
-            members = (Map<String, Member>) ois.readObject();
-        } catch (Exception e) {
-            System.out.println("No existing member data found. Starting with empty member list.");
+        AtomicLong borrowed = new AtomicLong();
+        AtomicLong returned = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < operations; i++) {
+                    String isbn = isbns[random.nextInt(isbns.length)];
+                    if (random.nextBoolean()) {
+                        if (library.borrowBook(isbn, memberIds[random.nextInt(memberIds.length)]).success) {
+                            borrowed.incrementAndGet();
+                        }
+                    } else if (library.returnBook(isbn).success) {
+                        returned.incrementAndGet();
+                    }
+                }
+            }, "stress-" + t);
+            workers.add(worker);
+            worker.start();
         }
-    }
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.println(String.format("%,d threads made %,d calls in %.2f s: %,d loans, %,d returns",
+                threads, (long) threads * operations, seconds, borrowed.get(), returned.get()));
 
-    private void saveData() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(BOOKS_FILE))) {
-            oos.writeObject(books);
-        } catch (IOException e) {
-            System.out.println("Error saving book data: " + e.getMessage());
+        List<String> problems = new ArrayList<>();
+        Map<String, String> loans = check(library, "before restart", problems);
+        if (loans.size() != borrowed.get() - returned.get()) {
+            problems.add("before restart: " + loans.size() + " books on loan, but " + borrowed.get()
+                    + " loans and " + returned.get() + " returns succeeded");
         }
+        library.close();
 
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(MEMBERS_FILE))) {
-            oos.writeObject(members);
-        } catch (IOException e) {
-            System.out.println("Error saving member data: " + e.getMessage());
+        Library reopened = new Library();
+        Map<String, String> reloaded = check(reopened, "after restart", problems);
+        if (!reloaded.equals(loans)) {
+            problems.add("after restart: loans differ from before the restart (" + reloaded.size()
+                    + " books on loan instead of " + loans.size() + ")");
+        }
+        reopened.close();
+
+        if (problems.isEmpty()) {
+            System.out.println("OK: " + loans.size() + " books on loan, consistent before and after restart");
+            return 0;
+        }
+        for (String problem : problems) {
+            System.out.println("FAILED " + problem);
         }
+        return 1;
     }
 
-    public void generateLibraryReport() {
-        System.out.println("\n=== Library Report ===");
-        System.out.println("Total Books: " + books.size());
-        System.out.println("Total Members: " + members.size());
-        
-        long availableBooks = books.values().stream().filter(Book::isAvailable).count();
-        long borrowedBooks = books.size() - availableBooks;
-        
-        System.out.println("Available Books: " + availableBooks);
-        System.out.println("Borrowed Books: " + borrowedBooks);
-        
-        long overdueBooks = books.values().stream()
-            .filter(book -> !book.isAvailable() && LocalDate.now().isAfter(book.getDueDate()))
-            .count();
-        
-        System.out.println("Overdue Books: " + overdueBooks);
+    // Checks the loans held by members against the book records and the loan
+    // index, adding a line to problems for each mismatch. Returns ISBN -> member.
+    private static Map<String, String> check(Library library, String when, List<String> problems) {
+        Map<String, String> holders = new HashMap<>();
+        int memberLoans = 0;
+        for (Member member : library.getAllMembers()) {
+            List<String> isbns = member.getBorrowedBooks();
+            memberLoans += member.getBorrowedCount();
+            for (String isbn : isbns) {
+                String other = holders.putIfAbsent(isbn, member.getMemberId());
+                if (other != null) {
+                    problems.add(when + ": " + isbn + " is held by " + other + " and " + member.getMemberId());
+                }
+                Book book = library.getBook(isbn);
+                if (book == null || book.isAvailable() || !member.getMemberId().equals(book.getBorrowedBy())) {
+                    problems.add(when + ": " + member.getMemberId() + " holds " + isbn + " but the book record says "
+                            + (book == null ? "it does not exist" : book.isAvailable() ? "it is available"
+                            : "it is on loan to " + book.getBorrowedBy()));
+                }
+            }
+        }
+        Map<String, String> loans = new HashMap<>();
+        for (Book book : library.getAllBooks()) {
+            if (!book.isAvailable()) {
+                loans.put(book.getIsbn(), book.getBorrowedBy());
+                if (!book.getBorrowedBy().equals(holders.get(book.getIsbn()))) {
+                    problems.add(when + ": " + book.getIsbn() + " is on loan to " + book.getBorrowedBy()
+                            + " but is not in that member's list");
+                }
+            }
+        }
+        int indexed = library.getLibraryStats().get("borrowedBooks");
+        if (indexed != memberLoans || indexed != loans.size()) {
+            problems.add(when + ": the loan index has " + indexed + " books, members hold " + memberLoans
+                    + " and book records show " + loans.size());
+        }
+        return loans;
+    }
+
+    // Valid ISBN-13 numbers 978000000000x, 978000000001x, ...
+    private static String isbn(int n) {
+        String body = String.format("978%09d", n);
+        int sum = 0;
+        for (int i = 0; i < body.length(); i++) {
+            sum += (body.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+        }
+        return body + (10 - sum % 10) % 10;
     }
 }
 
 // Main class with CLI interface
 public class LibraryManagementSystem {
-    private static Library library = new Library();
+    private static Library library;
     private static Scanner scanner = new Scanner(System.in);
+    private static final int MAX_REPORTED_REJECTS = 10;
+    private static final String METRICS_LOG = "metrics.log";
+    private static ScheduledExecutorService metricsLogger;
 
+    // With no arguments the interactive menu runs. --batch [file] runs the
+    // commands in a file (or from standard input) instead, --serve [port] [max
+    // concurrent requests] [bind address] runs the HTTP API, --load-test [url]
+    // [clients] [seconds] drives a running server, and --stress-test [threads]
+    // [operations per thread] [books] [members] races borrows and returns.
     public static void main(String[] args) {
+        String mode = args.length > 0 ? args[0] : "";
+        if (mode.equals("--load-test")) {
+            runLoadTest(args);
+            return;
+        }
+        if (mode.equals("--stress-test")) {
+            System.exit(runStressTest(args));
+        }
+        // In batch mode standard output carries only the results, so anything
+        // else printed while loading or running goes to standard error
+        PrintStream results = System.out;
+        if (mode.equals("--batch")) {
+            System.setOut(System.err);
+        }
+        library = new Library();
+        if (mode.equals("--serve")) {
+            serve(args);
+            return;
+        }
+        if (mode.equals("--batch")) {
+            System.exit(runBatch(args, results));
+        }
+        // Make sure journaled changes reach disk however the program exits
+        Runtime.getRuntime().addShutdownHook(new Thread(library::close));
         System.out.println("=== Welcome to Library Management System ===");
+        System.out.println(library.getStartupReport());
         
         while (true) {
             displayMenu();
@@ -397,6 +4979,10 @@ public class LibraryManagementSystem {
                 case 10: library.displayBorrowedBooks(); break;
                 case 11: library.displayOverdueBooks(); break;
                 case 12: library.generateLibraryReport(); break;
+                case 13: booksDueSoonMenu(); break;
+                case 14: importMenu(); break;
+                case 15: exportMenu(); break;
+                case 16: metricsMenu(); break;
                 case 0: 
                     System.out.println("Thank you for using Library Management System!");
                     System.exit(0);
@@ -406,6 +4992,96 @@ public class LibraryManagementSystem {
         }
     }
 
+    // Serves on the loopback address only, unless a bind address such as
+    // 0.0.0.0 is given to accept requests from other machines
+    private static void serve(String[] args) {
+        // Headers and body go out as separate writes; without TCP_NODELAY every
+        // response waits out the client's delayed ACK (about 40 ms). The JDK's
+        // server reads this once, so it is set before the server is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        LibraryHttpServer server;
+        try {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : LibraryHttpServer.DEFAULT_PORT;
+            int maxConcurrent = args.length > 2 ? Integer.parseInt(args[2]) : LibraryHttpServer.DEFAULT_MAX_CONCURRENT;
+            String host = args.length > 3 ? args[3] : "localhost";
+            InetAddress bindAddress = args.length > 3 ? InetAddress.getByName(host) : InetAddress.getLoopbackAddress();
+            server = new LibraryHttpServer(library, bindAddress, port, maxConcurrent);
+            System.out.println(library.getStartupReport());
+            System.out.println("Serving the library API on http://" + host + ":" + server.getPort() + "/api/ ("
+                    + (server.usesVirtualThreads() ? "virtual threads" : "platform threads")
+                    + ", at most " + maxConcurrent + " requests at once). Press Ctrl+C to stop.");
+        } catch (IllegalArgumentException | UnknownHostException e) {
+            System.out.println("Usage: java LibraryManagementSystem --serve [port] [max concurrent requests] [bind address]");
+            library.close();
+            return;
+        } catch (IOException e) {
+            System.out.println("Could not start the server: " + e.getMessage());
+            library.close();
+            return;
+        }
+        // Requests in flight finish before the journal is closed
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            library.close();
+        }));
+        server.start();
+    }
+
+    // Results go to standard output and the summary to standard error, so the
+    // results can be piped on. Exits with 1 if any command failed.
+    private static int runBatch(String[] args, PrintStream results) {
+        String source = args.length > 1 ? args[1] : "-";
+        try (BufferedReader in = source.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : new BufferedReader(new InputStreamReader(new FileInputStream(source), StandardCharsets.UTF_8))) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(results, StandardCharsets.UTF_8), 64 * 1024);
+            BatchRunner.Summary summary = BatchRunner.run(library, in, out);
+            System.err.println(String.format(
+                    "%,d commands in %.2f s (%,.0f ops/s): %,d OK, %,d failed, %,d errors; final commit %.1f ms",
+                    summary.commands, summary.elapsedNanos / 1e9, summary.opsPerSecond(), summary.ok,
+                    summary.failed, summary.errors, summary.commitNanos / 1e6));
+            return summary.failed + summary.errors > 0 ? 1 : 0;
+        } catch (IOException e) {
+            System.err.println("Error reading " + (source.equals("-") ? "standard input" : source) + ": " + e.getMessage());
+            return 2;
+        } finally {
+            library.close();
+        }
+    }
+
+    private static int runStressTest(String[] args) {
+        try {
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+            int operations = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+            int books = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+            int members = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+            return StressTest.run(threads, operations, books, members);
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: java LibraryManagementSystem --stress-test [threads] [operations per thread] [books] [members]");
+            return 2;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 2;
+        }
+    }
+
+    private static void runLoadTest(String[] args) {
+        try {
+            String url = args.length > 1 ? args[1] : "http://localhost:" + LibraryHttpServer.DEFAULT_PORT;
+            int clients = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+            int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+            new LoadGenerator(url, clients, seconds).run();
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: java LibraryManagementSystem --load-test [url] [clients] [seconds]");
+        } catch (IOException e) {
+            System.out.println("Load test failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private static void displayMenu() {
         System.out.println("\n=== Main Menu ===");
         System.out.println("1. Add Book");
@@ -420,6 +5096,10 @@ public class LibraryManagementSystem {
         System.out.println("10. Display Borrowed Books");
         System.out.println("11. Display Overdue Books");
         System.out.println("12. Generate Library Report");
+        System.out.println("13. Display Books Due Soon");
+        System.out.println("14. Import Books/Members");
+        System.out.println("15. Export Books/Members");
+        System.out.println("16. View Metrics");
         System.out.println("0. Exit");
         System.out.print("Enter your choice: ");
     }
@@ -449,9 +5129,7 @@ public class LibraryManagementSystem {
             return;
         }
 
-        if (library.addBook(isbn, title, author, genre)) {
-            System.out.println("Book added successfully!");
-        }
+        System.out.println(library.addBook(isbn, title, author, genre).message);
     }
 
     private static void removeBookMenu() {
@@ -464,9 +5142,7 @@ public class LibraryManagementSystem {
             return;
         }
 
-        if (library.removeBook(isbn)) {
-            System.out.println("Book removed successfully!");
-        }
+        System.out.println(library.removeBook(isbn).message);
     }
 
     private static void searchBooksMenu() {
@@ -498,9 +5174,7 @@ public class LibraryManagementSystem {
             return;
         }
 
-        if (library.addMember(memberId, name, email, phone)) {
-            System.out.println("Member added successfully!");
-        }
+        System.out.println(library.addMember(memberId, name, email, phone).message);
     }
 
     private static void removeMemberMenu() {
@@ -513,9 +5187,7 @@ public class LibraryManagementSystem {
             return;
         }
 
-        if (library.removeMember(memberId)) {
-            System.out.println("Member removed successfully!");
-        }
+        System.out.println(library.removeMember(memberId).message);
     }
 
     private static void borrowBookMenu() {
@@ -530,7 +5202,123 @@ public class LibraryManagementSystem {
             return;
         }
 
-        library.borrowBook(isbn, memberId);
+        System.out.println(library.borrowBook(isbn, memberId).message);
+    }
+
+    private static void booksDueSoonMenu() {
+        System.out.print("Enter number of days: ");
+        int days = getChoice();
+
+        if (days < 0) {
+            System.out.println("Please enter a valid number of days!");
+            return;
+        }
+
+        library.displayBooksDueSoon(days);
+    }
+
+    // Shows operation latencies and counters, and can append them to
+    // metrics.log on a timer for watching a long session
+    private static void metricsMenu() {
+        System.out.println("\n=== Metrics ===");
+        System.out.print(MetricsRegistry.LIBRARY.report());
+        System.out.print("\nLog metrics to " + METRICS_LOG + " every how many seconds? (0 to stop): ");
+        int seconds = getChoice();
+        if (seconds < 0) {
+            return;
+        }
+        if (metricsLogger != null) {
+            metricsLogger.shutdownNow();
+            metricsLogger = null;
+        }
+        if (seconds == 0) {
+            System.out.println("Metrics logging is off.");
+            return;
+        }
+        metricsLogger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        metricsLogger.scheduleAtFixedRate(LibraryManagementSystem::appendMetricsLog, seconds, seconds, TimeUnit.SECONDS);
+        System.out.println("Appending metrics to " + METRICS_LOG + " every " + seconds + " seconds.");
+    }
+
+    private static void appendMetricsLog() {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(METRICS_LOG, true), StandardCharsets.UTF_8)) {
+            out.write("=== " + LocalDateTime.now().withNano(0) + " ===\n");
+            out.write(MetricsRegistry.LIBRARY.report());
+            out.write("\n");
+        } catch (IOException e) {
+            System.out.println("Error writing " + METRICS_LOG + ": " + e.getMessage());
+        }
+    }
+
+    // Files ending in .jsonl, .ndjson or .json are JSON lines; anything else is CSV
+    private static void importMenu() {
+        System.out.print("Import (1) Books or (2) Members: ");
+        int kind = getChoice();
+        scanner.nextLine(); // Clear the buffer
+        if (kind != 1 && kind != 2) {
+            System.out.println("Invalid choice!");
+            return;
+        }
+        System.out.print("Enter file to import: ");
+        String path = scanner.nextLine().trim();
+
+        if (path.isEmpty()) {
+            System.out.println("File name is required!");
+            return;
+        }
+
+        try {
+            File file = new File(path);
+            BulkCatalogIO.ImportResult result = kind == 1
+                    ? BulkCatalogIO.importBooks(library, file)
+                    : BulkCatalogIO.importMembers(library, file);
+            System.out.println(String.format("Imported %d of %d %s in %.2f s (%.0f records/s).",
+                    result.accepted, result.read, kind == 1 ? "books" : "members",
+                    result.elapsedNanos / 1e9, result.recordsPerSecond()));
+            if (!result.rejects.isEmpty()) {
+                System.out.println(result.rejects.size() + " records rejected:");
+                for (int i = 0; i < Math.min(MAX_REPORTED_REJECTS, result.rejects.size()); i++) {
+                    System.out.println("  " + result.rejects.get(i));
+                }
+                if (result.rejects.size() > MAX_REPORTED_REJECTS) {
+                    System.out.println("  ... and " + (result.rejects.size() - MAX_REPORTED_REJECTS) + " more");
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error importing data: " + e.getMessage());
+        }
+    }
+
+    private static void exportMenu() {
+        System.out.print("Export (1) Books or (2) Members: ");
+        int kind = getChoice();
+        scanner.nextLine(); // Clear the buffer
+        if (kind != 1 && kind != 2) {
+            System.out.println("Invalid choice!");
+            return;
+        }
+        System.out.print("Enter file to export to: ");
+        String path = scanner.nextLine().trim();
+
+        if (path.isEmpty()) {
+            System.out.println("File name is required!");
+            return;
+        }
+
+        try {
+            long start = System.nanoTime();
+            int count = kind == 1
+                    ? BulkCatalogIO.exportBooks(library.getAllBooks(), new File(path))
+                    : BulkCatalogIO.exportMembers(library.getAllMembers(), new File(path));
+            System.out.println(String.format("Exported %d %s in %.2f s.", count,
+                    kind == 1 ? "books" : "members", (System.nanoTime() - start) / 1e9));
+        } catch (IOException e) {
+            System.out.println("Error exporting data: " + e.getMessage());
+        }
     }
 
     private static void returnBookMenu() {
@@ -543,6 +5331,6 @@ public class LibraryManagementSystem {
             return;
         }
 
-        library.returnBook(isbn);
+        System.out.println(library.returnBook(isbn).message);
     }
 }
\ No newline at end of file
@@ -1,43 +1,139 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.border.TitledBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+// Dictionary for low-cardinality string columns. Each distinct value gets a
+// small int code the first time it is seen, so books share one String per
+// author and genre and filters compare codes. Codes are only meaningful within
+// one run; the data files carry their own dictionary.
+class SymbolTable {
+    static final SymbolTable AUTHORS = new SymbolTable();
+    static final SymbolTable GENRES = new SymbolTable();
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    // Replaced, never modified, when a value is added, so lookups need no lock
+    private volatile String[] values = new String[0];
+    private volatile String[] lowerValues = new String[0];
+
+    public synchronized int intern(String value) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        int next = values.length;
+        String[] grownValues = Arrays.copyOf(values, next + 1);
+        String[] grownLower = Arrays.copyOf(lowerValues, next + 1);
+        grownValues[next] = value;
+        grownLower[next] = value.toLowerCase();
+        codes.put(value, next);
+        lowerValues = grownLower;
+        values = grownValues;
+        return next;
+    }
+
+    // Code for the value, or -1 if it has never been interned
+    public synchronized int find(String value) {
+        Integer code = codes.get(value);
+        return code != null ? code : -1;
+    }
+
+    public String lookup(int code) {
+        return values[code];
+    }
+
+    public String lookupLowerCase(int code) {
+        return lowerValues[code];
+    }
+
+    public int size() {
+        return values.length;
+    }
+}
 
 // Book class
 class Book implements Serializable {
     private static final long serialVersionUID = 1L;
     private String isbn;
     private String title;
-    private String author;
-    private String genre;
+    private int authorCode;
+    private int genreCode;
     private boolean isAvailable;
     private String borrowedBy;
     private LocalDate borrowDate;
     private LocalDate dueDate;
+    // Position in the FacetIndex bitmaps, or -1 while not in the catalog
+    private int ordinal = -1;
 
     public Book(String isbn, String title, String author, String genre) {
         this.isbn = isbn;
         this.title = title;
-        this.author = author;
-        this.genre = genre;
+        this.authorCode = SymbolTable.AUTHORS.intern(author);
+        this.genreCode = SymbolTable.GENRES.intern(genre);
         this.isAvailable = true;
         this.borrowedBy = null;
         this.borrowDate = null;
         this.dueDate = null;
     }
 
+    // For readers that have already interned author and genre
+    Book(String isbn, String title, int authorCode, int genreCode) {
+        this.isbn = isbn;
+        this.title = title;
+        this.authorCode = authorCode;
+        this.genreCode = genreCode;
+        this.isAvailable = true;
+    }
+
     // Getters and setters
     public String getIsbn() { return isbn; }
     public String getTitle() { return title; }
-    public String getAuthor() { return author; }
-    public String getGenre() { return genre; }
+    public String getAuthor() { return SymbolTable.AUTHORS.lookup(authorCode); }
+    public String getGenre() { return SymbolTable.GENRES.lookup(genreCode); }
+    public int getAuthorCode() { return authorCode; }
+    public int getGenreCode() { return genreCode; }
     public boolean isAvailable() { return isAvailable; }
     public String getBorrowedBy() { return borrowedBy; }
     public LocalDate getBorrowDate() { return borrowDate; }
@@ -47,6 +143,58 @@ class Book implements Serializable {
     public void setBorrowedBy(String borrowedBy) { this.borrowedBy = borrowedBy; }
     public void setBorrowDate(LocalDate borrowDate) { this.borrowDate = borrowDate; }
     public void setDueDate(LocalDate dueDate) { this.dueDate = dueDate; }
+
+    int getOrdinal() { return ordinal; }
+    void setOrdinal(int ordinal) { this.ordinal = ordinal; }
+
+    // Detached copy of the record, for saving while the library keeps changing
+    Book copy() {
+        Book copy = new Book(isbn, title, authorCode, genreCode);
+        copy.isAvailable = isAvailable;
+        copy.borrowedBy = borrowedBy;
+        copy.borrowDate = borrowDate;
+        copy.dueDate = dueDate;
+        return copy;
+    }
+
+    // The serialized form keeps the original String fields, so data written
+    // by older versions can still be read and migrated
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("isbn", String.class),
+        new ObjectStreamField("title", String.class),
+        new ObjectStreamField("author", String.class),
+        new ObjectStreamField("genre", String.class),
+        new ObjectStreamField("isAvailable", boolean.class),
+        new ObjectStreamField("borrowedBy", String.class),
+        new ObjectStreamField("borrowDate", LocalDate.class),
+        new ObjectStreamField("dueDate", LocalDate.class)
+    };
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("isbn", isbn);
+        fields.put("title", title);
+        fields.put("author", getAuthor());
+        fields.put("genre", getGenre());
+        fields.put("isAvailable", isAvailable);
+        fields.put("borrowedBy", borrowedBy);
+        fields.put("borrowDate", borrowDate);
+        fields.put("dueDate", dueDate);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        isbn = (String) fields.get("isbn", null);
+        title = (String) fields.get("title", null);
+        authorCode = SymbolTable.AUTHORS.intern((String) fields.get("author", ""));
+        genreCode = SymbolTable.GENRES.intern((String) fields.get("genre", ""));
+        isAvailable = fields.get("isAvailable", true);
+        borrowedBy = (String) fields.get("borrowedBy", null);
+        borrowDate = (LocalDate) fields.get("borrowDate", null);
+        dueDate = (LocalDate) fields.get("dueDate", null);
+        ordinal = -1;
+    }
 }
 
 // Member class
@@ -56,15 +204,22 @@ class Member implements Serializable {
     private String name;
     private String email;
     private String phone;
-    private List<String> borrowedBooks;
+    // ISBNs on loan, in borrowing order, in the first borrowedCount slots. The
+    // array is sized to the borrowing limit on the first loan and shared while
+    // empty, so borrowing and returning allocate nothing.
+    private String[] borrowedBooks;
+    private int borrowedCount;
     private LocalDate membershipDate;
 
+    private static final String[] NO_LOANS = new String[0];
+    private static final int LOAN_CAPACITY = 5;
+
     public Member(String memberId, String name, String email, String phone) {
         this.memberId = memberId;
         this.name = name;
         this.email = email;
         this.phone = phone;
-        this.borrowedBooks = new ArrayList<>();
+        this.borrowedBooks = NO_LOANS;
         this.membershipDate = LocalDate.now();
     }
 
@@ -73,273 +228,3523 @@ class Member implements Serializable {
     public String getName() { return name; }
     public String getEmail() { return email; }
     public String getPhone() { return phone; }
-    public List<String> getBorrowedBooks() { return borrowedBooks; }
+    public int getBorrowedCount() { return borrowedCount; }
+    public String getBorrowedBook(int index) { return borrowedBooks[index]; }
     public LocalDate getMembershipDate() { return membershipDate; }
 
     public void setName(String name) { this.name = name; }
     public void setEmail(String email) { this.email = email; }
     public void setPhone(String phone) { this.phone = phone; }
+    public void setMembershipDate(LocalDate membershipDate) { this.membershipDate = membershipDate; }
+
+    // Copy of the ISBNs on loan, for display and export
+    public List<String> getBorrowedBooks() {
+        return Arrays.asList(Arrays.copyOf(borrowedBooks, borrowedCount));
+    }
+
+    public boolean hasBorrowed(String isbn) {
+        return indexOf(isbn) >= 0;
+    }
 
+    // Pass the Book's own ISBN string so the member does not hold a copy
     public void borrowBook(String isbn) {
-        if (!borrowedBooks.contains(isbn)) {
-            borrowedBooks.add(isbn);
+        if (indexOf(isbn) >= 0) {
+            return;
+        }
+        if (borrowedCount == borrowedBooks.length) {
+            borrowedBooks = Arrays.copyOf(borrowedBooks, Math.max(LOAN_CAPACITY, borrowedCount * 2));
         }
+        borrowedBooks[borrowedCount++] = isbn;
     }
 
     public void returnBook(String isbn) {
-        borrowedBooks.remove(isbn);
+        int index = indexOf(isbn);
+        if (index < 0) {
+            return;
+        }
+        System.arraycopy(borrowedBooks, index + 1, borrowedBooks, index, borrowedCount - index - 1);
+        borrowedBooks[--borrowedCount] = null;
     }
-}
 
-// Library class
-class Library implements Serializable {
-    private static final long serialVersionUID = 1L;
-    private Map<String, Book> books;
-    private Map<String, Member> members;
-    private static final String BOOKS_FILE = "books.dat";
-    private static final String MEMBERS_FILE = "members.dat";
-    private static final int MAX_BORROW_DAYS = 14;
-    private static final int MAX_BOOKS_PER_MEMBER = 5;
+    // Detached copy of the record, for saving while the library keeps changing
+    Member copy() {
+        Member copy = new Member(memberId, name, email, phone);
+        copy.membershipDate = membershipDate;
+        copy.borrowedBooks = borrowedCount == 0 ? NO_LOANS : Arrays.copyOf(borrowedBooks, borrowedCount);
+        copy.borrowedCount = borrowedCount;
+        return copy;
+    }
 
-    public Library() {
-        books = new HashMap<>();
-        members = new HashMap<>();
-        loadData();
+    // Replaces loan ISBNs read from a file with the catalog's own strings
+    void shareIsbns(Map<String, Book> books) {
+        for (int i = 0; i < borrowedCount; i++) {
+            Book book = books.get(borrowedBooks[i]);
+            if (book != null) {
+                borrowedBooks[i] = book.getIsbn();
+            }
+        }
     }
 
-    // Book management methods
-    public boolean addBook(String isbn, String title, String author, String genre) {
-        if (books.containsKey(isbn)) {
-            return false;
+    private int indexOf(String isbn) {
+        for (int i = 0; i < borrowedCount; i++) {
+            String borrowed = borrowedBooks[i];
+            if (borrowed == isbn || borrowed.equals(isbn)) {
+                return i;
+            }
         }
-        books.put(isbn, new Book(isbn, title, author, genre));
-        saveData();
-        return true;
+        return -1;
     }
 
-    public boolean removeBook(String isbn) {
-        if (!books.containsKey(isbn)) {
-            return false;
+    // The serialized form keeps the original List field, so data written by
+    // older versions can still be read and migrated
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("memberId", String.class),
+        new ObjectStreamField("name", String.class),
+        new ObjectStreamField("email", String.class),
+        new ObjectStreamField("phone", String.class),
+        new ObjectStreamField("borrowedBooks", List.class),
+        new ObjectStreamField("membershipDate", LocalDate.class)
+    };
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("memberId", memberId);
+        fields.put("name", name);
+        fields.put("email", email);
+        fields.put("phone", phone);
+        fields.put("borrowedBooks", new ArrayList<>(getBorrowedBooks()));
+        fields.put("membershipDate", membershipDate);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        memberId = (String) fields.get("memberId", null);
+        name = (String) fields.get("name", null);
+        email = (String) fields.get("email", null);
+        phone = (String) fields.get("phone", null);
+        membershipDate = (LocalDate) fields.get("membershipDate", null);
+        borrowedBooks = NO_LOANS;
+        List<String> borrowed = (List<String>) fields.get("borrowedBooks", null);
+        if (borrowed != null) {
+            for (String isbn : borrowed) {
+                borrowBook(isbn);
+            }
         }
-        Book book = books.get(isbn);
-        if (!book.isAvailable()) {
+    }
+}
+
+// Versioned binary format for books.dat and members.dat. A file is a header
+// (magic, version, kind, journal generation, record count) followed by fixed
+// field order records: length-prefixed UTF-8 strings, epoch-day ints for dates
+// and a flag byte for availability and optional fields. From version 2 a books
+// file has author and genre dictionaries after the header, and each book
+// stores varint indexes into them instead of the strings. From version 3 the
+// records are grouped in chunks of up to CHUNK_RECORDS, each prefixed with its
+// length in bytes and its record count, so the chunks of a file held in memory
+// can be decoded independently and in parallel.
+class CatalogFormat {
+    static final int MAGIC = 0x4C4D5343; // "LMSC"
+    static final byte VERSION = 3;
+    static final byte FIRST_DICTIONARY_VERSION = 2;
+    static final byte FIRST_CHUNKED_VERSION = 3;
+    static final int CHUNK_RECORDS = 8192;
+    static final byte BOOKS = 1;
+    static final byte MEMBERS = 2;
+
+    static final int FLAG_AVAILABLE = 1;
+    static final int FLAG_BORROWED_BY = 2;
+    static final int FLAG_BORROW_DATE = 4;
+    static final int FLAG_DUE_DATE = 8;
+
+    private static final int LEGACY_MAGIC = 0xACED; // java.io serialization stream
+
+    // True if the file is an old ObjectOutputStream dump that needs migrating
+    static boolean isLegacy(File file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readUnsignedShort() == LEGACY_MAGIC;
+        } catch (IOException e) {
             return false;
         }
-        books.remove(isbn);
-        saveData();
-        return true;
     }
 
-    public List<Book> searchBooks(String query) {
-        List<Book> results = new ArrayList<>();
-        if (query == null || query.trim().isEmpty()) {
-            return getAllBooks();
+    // One-time conversion of a legacy HashMap dump to the binary format. The
+    // original file is kept next to the new one with a .bak suffix.
+    @SuppressWarnings("unchecked")
+    static void migrateLegacy(File file, byte kind) throws IOException {
+        Map<String, ?> data;
+        long generation = 0;
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            data = (Map<String, ?>) ois.readObject();
+            try {
+                generation = ois.readLong();
+            } catch (EOFException e) {
+                // Written before snapshots carried a journal generation
+            }
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Unrecognised data in " + file.getName(), e);
+        }
+
+        File converted = new File(file.getPath() + ".new");
+        try (OutputStream out = new FileOutputStream(converted)) {
+            if (kind == BOOKS) {
+                writeBooks(out, (Collection<Book>) data.values(), generation);
+            } else {
+                writeMembers(out, (Collection<Member>) data.values(), generation);
+            }
+        }
+        Files.move(file.toPath(), new File(file.getPath() + ".bak").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.move(converted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static void writeBooks(OutputStream out, Collection<Book> books, long generation) throws IOException {
+        CatalogWriter writer = new CatalogWriter(out, BOOKS, generation, books.size());
+        writer.writeDictionaries(books);
+        for (Book book : books) {
+            writer.writeBook(book);
+        }
+        writer.flush();
+    }
+
+    static void writeMembers(OutputStream out, Collection<Member> members, long generation) throws IOException {
+        CatalogWriter writer = new CatalogWriter(out, MEMBERS, generation, members.size());
+        for (Member member : members) {
+            writer.writeMember(member);
+        }
+        writer.flush();
+    }
+}
+
+// Streaming writer for the CatalogFormat layout. Records are collected in a
+// buffer and written out a chunk at a time.
+class CatalogWriter implements Closeable {
+    private final DataOutputStream file;
+    private final ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream(64 * 1024);
+    private final DataOutputStream chunk = new DataOutputStream(chunkBytes);
+    // The file until the first record, then the chunk buffer
+    private DataOutputStream out;
+    private int recordsInChunk;
+    // Symbol table code -> index in this file's dictionary
+    private int[] authorIndex = new int[0];
+    private int[] genreIndex = new int[0];
+
+    public CatalogWriter(OutputStream out, byte kind, long generation, int count) throws IOException {
+        this.file = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        this.out = file;
+        file.writeInt(CatalogFormat.MAGIC);
+        file.writeByte(CatalogFormat.VERSION);
+        file.writeByte(kind);
+        file.writeLong(generation);
+        file.writeInt(count);
+    }
+
+    public void writeBook(Book book) throws IOException {
+        out = chunk;
+        int flags = 0;
+        if (book.isAvailable()) flags |= CatalogFormat.FLAG_AVAILABLE;
+        if (book.getBorrowedBy() != null) flags |= CatalogFormat.FLAG_BORROWED_BY;
+        if (book.getBorrowDate() != null) flags |= CatalogFormat.FLAG_BORROW_DATE;
+        if (book.getDueDate() != null) flags |= CatalogFormat.FLAG_DUE_DATE;
+
+        out.writeByte(flags);
+        writeString(book.getIsbn());
+        writeString(book.getTitle());
+        writeVarInt(authorIndex[book.getAuthorCode()]);
+        writeVarInt(genreIndex[book.getGenreCode()]);
+        if (book.getBorrowedBy() != null) writeString(book.getBorrowedBy());
+        if (book.getBorrowDate() != null) out.writeInt((int) book.getBorrowDate().toEpochDay());
+        if (book.getDueDate() != null) out.writeInt((int) book.getDueDate().toEpochDay());
+        endRecord();
+    }
+
+    // Writes the author and genre values used by the books; must come before writeBook
+    public void writeDictionaries(Collection<Book> books) throws IOException {
+        List<String> authors = new ArrayList<>();
+        List<String> genres = new ArrayList<>();
+        authorIndex = new int[SymbolTable.AUTHORS.size()];
+        genreIndex = new int[SymbolTable.GENRES.size()];
+        Arrays.fill(authorIndex, -1);
+        Arrays.fill(genreIndex, -1);
+        for (Book book : books) {
+            int author = book.getAuthorCode();
+            if (author >= authorIndex.length) {
+                authorIndex = grow(authorIndex, author);
+            }
+            if (authorIndex[author] < 0) {
+                authorIndex[author] = authors.size();
+                authors.add(book.getAuthor());
+            }
+            int genre = book.getGenreCode();
+            if (genre >= genreIndex.length) {
+                genreIndex = grow(genreIndex, genre);
+            }
+            if (genreIndex[genre] < 0) {
+                genreIndex[genre] = genres.size();
+                genres.add(book.getGenre());
+            }
+        }
+        writeVarInt(authors.size());
+        for (String author : authors) {
+            writeString(author);
+        }
+        writeVarInt(genres.size());
+        for (String genre : genres) {
+            writeString(genre);
+        }
+    }
+
+    // Codes interned after the arrays were sized (by another thread) still fit
+    private static int[] grow(int[] index, int code) {
+        int[] grown = Arrays.copyOf(index, code + 1);
+        Arrays.fill(grown, index.length, grown.length, -1);
+        return grown;
+    }
+
+    public void writeMember(Member member) throws IOException {
+        out = chunk;
+        writeString(member.getMemberId());
+        writeString(member.getName());
+        writeString(member.getEmail());
+        writeString(member.getPhone());
+        out.writeInt((int) member.getMembershipDate().toEpochDay());
+        writeVarInt(member.getBorrowedCount());
+        for (int i = 0; i < member.getBorrowedCount(); i++) {
+            writeString(member.getBorrowedBook(i));
+        }
+        endRecord();
+    }
+
+    private void endRecord() throws IOException {
+        if (++recordsInChunk == CatalogFormat.CHUNK_RECORDS) {
+            writeChunk();
+        }
+    }
+
+    private void writeChunk() throws IOException {
+        file.writeInt(chunkBytes.size());
+        file.writeInt(recordsInChunk);
+        chunkBytes.writeTo(file);
+        chunkBytes.reset();
+        recordsInChunk = 0;
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    // Writes the last, partly filled chunk; call once after the last record
+    public void flush() throws IOException {
+        if (recordsInChunk > 0) {
+            writeChunk();
+        }
+        file.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
+
+// Streaming reader for the CatalogFormat layout. A reader over a file held in
+// memory can also decode all of its records at once, a chunk per task.
+class CatalogReader implements Closeable {
+    private final DataInputStream in;
+    private final byte kind;
+    private final long generation;
+    private final int count;
+    private final byte version;
+    // Whole file, its length and its stream when reading from memory
+    private final byte[] data;
+    private final int dataLength;
+    private final ByteArrayInputStream dataStream;
+    // Records still to come in the current chunk; a chunk reader sees no chunk headers
+    private final boolean chunked;
+    private int recordsLeftInChunk;
+    private byte[] buffer = new byte[256];
+    // File dictionary index -> symbol table code
+    private int[] authorCodes;
+    private int[] genreCodes;
+
+    // Callback used by readAll() to decode one record
+    private interface RecordDecoder<T> {
+        T read(CatalogReader reader) throws IOException;
+    }
+
+    public CatalogReader(InputStream in) throws IOException {
+        this(new DataInputStream(new BufferedInputStream(in, 64 * 1024)), null, 0, null);
+    }
+
+    // Reader over the first length bytes of data
+    public CatalogReader(byte[] data, int length) throws IOException {
+        this(data, length, new ByteArrayInputStream(data, 0, length));
+    }
+
+    private CatalogReader(byte[] data, int length, ByteArrayInputStream dataStream) throws IOException {
+        this(new DataInputStream(dataStream), data, length, dataStream);
+    }
+
+    private CatalogReader(DataInputStream in, byte[] data, int dataLength, ByteArrayInputStream dataStream)
+            throws IOException {
+        this.in = in;
+        this.data = data;
+        this.dataLength = dataLength;
+        this.dataStream = dataStream;
+        if (this.in.readInt() != CatalogFormat.MAGIC) {
+            throw new IOException("Not a library data file");
+        }
+        version = this.in.readByte();
+        if (version < 1 || version > CatalogFormat.VERSION) {
+            throw new IOException("Unsupported data file version " + version);
+        }
+        kind = this.in.readByte();
+        generation = this.in.readLong();
+        count = this.in.readInt();
+        if (kind == CatalogFormat.BOOKS && version >= CatalogFormat.FIRST_DICTIONARY_VERSION) {
+            authorCodes = readDictionary(SymbolTable.AUTHORS);
+            genreCodes = readDictionary(SymbolTable.GENRES);
+        }
+        chunked = version >= CatalogFormat.FIRST_CHUNKED_VERSION;
+    }
+
+    // Reader for the records of one chunk of the file, sharing its dictionaries
+    private CatalogReader(CatalogReader file, int offset, int length) {
+        in = new DataInputStream(new ByteArrayInputStream(file.data, offset, length));
+        kind = file.kind;
+        generation = file.generation;
+        count = file.count;
+        version = file.version;
+        data = null;
+        dataLength = 0;
+        dataStream = null;
+        chunked = false;
+        authorCodes = file.authorCodes;
+        genreCodes = file.genreCodes;
+    }
+
+    private int[] readDictionary(SymbolTable symbols) throws IOException {
+        int[] codes = new int[readVarInt()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = symbols.intern(readString());
+        }
+        return codes;
+    }
+
+    public byte getKind() { return kind; }
+    public long getGeneration() { return generation; }
+    public int getCount() { return count; }
+
+    public Book readBook() throws IOException {
+        startRecord();
+        int flags = in.readUnsignedByte();
+        Book book;
+        if (authorCodes != null) {
+            book = new Book(readString(), readString(), dictionaryCode(authorCodes), dictionaryCode(genreCodes));
+        } else {
+            book = new Book(readString(), readString(), readString(), readString());
+        }
+        book.setAvailable((flags & CatalogFormat.FLAG_AVAILABLE) != 0);
+        if ((flags & CatalogFormat.FLAG_BORROWED_BY) != 0) book.setBorrowedBy(readString());
+        if ((flags & CatalogFormat.FLAG_BORROW_DATE) != 0) book.setBorrowDate(LocalDate.ofEpochDay(in.readInt()));
+        if ((flags & CatalogFormat.FLAG_DUE_DATE) != 0) book.setDueDate(LocalDate.ofEpochDay(in.readInt()));
+        return book;
+    }
+
+    public Member readMember() throws IOException {
+        startRecord();
+        Member member = new Member(readString(), readString(), readString(), readString());
+        member.setMembershipDate(LocalDate.ofEpochDay(in.readInt()));
+        int borrowed = readVarInt();
+        for (int i = 0; i < borrowed; i++) {
+            member.borrowBook(readString());
+        }
+        return member;
+    }
+
+    // Every record, in file order; call instead of readBook() or readMember()
+    public List<Book> readAllBooks() throws IOException {
+        return readAll(CatalogReader::readBook);
+    }
+
+    public List<Member> readAllMembers() throws IOException {
+        return readAll(CatalogReader::readMember);
+    }
+
+    // A chunked file in memory is split at its chunk headers and the chunks are
+    // decoded in parallel on the common ForkJoinPool; anything else is read
+    // record by record
+    @SuppressWarnings("unchecked")
+    private <T> List<T> readAll(RecordDecoder<T> decoder) throws IOException {
+        Object[] records = new Object[count];
+        if (data == null || !chunked) {
+            for (int i = 0; i < count; i++) {
+                records[i] = decoder.read(this);
+            }
+            return (List<T>) Arrays.asList(records);
+        }
+
+        // Offset, length, first record and record count of each chunk
+        List<int[]> chunks = new ArrayList<>();
+        for (int first = 0; first < count; ) {
+            int length = in.readInt();
+            int chunkRecords = in.readInt();
+            int offset = dataLength - dataStream.available();
+            if (length < 0 || chunkRecords <= 0 || chunkRecords > count - first
+                    || dataStream.skip(length) != length) {
+                throw new IOException("Malformed chunk in data file");
+            }
+            chunks.add(new int[] {offset, length, first, chunkRecords});
+            first += chunkRecords;
+        }
+        try {
+            chunks.parallelStream().forEach(chunk -> {
+                CatalogReader reader = new CatalogReader(this, chunk[0], chunk[1]);
+                try {
+                    for (int i = 0; i < chunk[3]; i++) {
+                        records[chunk[2] + i] = decoder.read(reader);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return (List<T>) Arrays.asList(records);
+    }
+
+    private void startRecord() throws IOException {
+        if (chunked && recordsLeftInChunk == 0) {
+            in.readInt(); // Chunk length, only needed to skip a chunk
+            recordsLeftInChunk = in.readInt();
+            if (recordsLeftInChunk <= 0) {
+                throw new IOException("Malformed chunk in data file");
+            }
+        }
+        recordsLeftInChunk--;
+    }
+
+    private int dictionaryCode(int[] codes) throws IOException {
+        int index = readVarInt();
+        if (index < 0 || index >= codes.length) {
+            throw new IOException("Dictionary index out of range in data file");
+        }
+        return codes[index];
+    }
+
+    private String readString() throws IOException {
+        int length = readVarInt();
+        if (length > buffer.length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+        in.readFully(buffer, 0, length);
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed length in data file");
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
+
+// Crash-safe snapshots of the data files. Every save is a new generation: each
+// file is written to a temp file in checksummed blocks, fsynced and renamed to
+// <name>.<generation>.<ext> (books.12.dat), and then the manifest naming the
+// generation and its file lengths is replaced the same way. Renaming the
+// manifest is the commit point, so the files of one save always load together.
+// The previous generation is kept as well, so there is something to fall back
+// to if the newest one turns out to be damaged.
+//
+// A snapshot file is a header (magic, block size, payload length) followed by
+// blocks of up to BLOCK_SIZE payload bytes, each prefixed with its length and
+// CRC32. Blocks are verified in parallel when the file is opened.
+class SnapshotStore {
+    static final String MANIFEST_FILE = "snapshot.manifest";
+    static final int KEEP_GENERATIONS = 2;
+
+    private static final int MAGIC = 0x4C4D5342; // "LMSB"
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final int HEADER_SIZE = 16;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String DAMAGED_SUFFIX = ".damaged";
+
+    private final File directory;
+
+    public SnapshotStore(File directory) {
+        this.directory = directory;
+    }
+
+    // Writes the files (name -> contents) as the given generation and commits
+    // them. Older generations beyond KEEP_GENERATIONS are deleted afterwards;
+    // returns the oldest generation still kept.
+    public long write(long generation, Map<String, byte[]> files) throws IOException {
+        StringBuilder manifest = new StringBuilder("generation=" + generation + "\n");
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            long length = writeFile(fileFor(file.getKey(), generation), file.getValue());
+            manifest.append(file.getKey()).append('=').append(length).append('\n');
+        }
+        CRC32 crc = new CRC32();
+        byte[] body = manifest.toString().getBytes(StandardCharsets.UTF_8);
+        crc.update(body, 0, body.length);
+        manifest.append("crc=").append(Long.toHexString(crc.getValue())).append('\n');
+        writeAtomically(new File(directory, MANIFEST_FILE), manifest.toString().getBytes(StandardCharsets.UTF_8));
+        syncDirectory();
+
+        String[] names = files.keySet().toArray(new String[0]);
+        List<Long> kept = generations(names);
+        long oldestKept = kept.get(Math.min(kept.size(), KEEP_GENERATIONS) - 1);
+        for (long old : listGenerations(names)) {
+            if (old < oldestKept) {
+                for (String name : names) {
+                    fileFor(name, old).delete();
+                }
+            }
+        }
+        return oldestKept;
+    }
+
+    // Generations that have all the named files, newest first. Once a manifest
+    // exists, files from a save that never reached it are left out.
+    public List<Long> generations(String... names) {
+        long committed = readManifest().getOrDefault("generation", Long.MAX_VALUE);
+        List<Long> complete = new ArrayList<>();
+        for (long generation : listGenerations(names)) {
+            boolean hasAll = generation <= committed;
+            for (String name : names) {
+                hasAll &= fileFor(name, generation).isFile();
+            }
+            if (hasAll) {
+                complete.add(generation);
+            }
+        }
+        Collections.reverse(complete);
+        return complete;
+    }
+
+    public boolean exists(long generation, String name) {
+        return fileFor(name, generation).isFile();
+    }
+
+    public InputStream open(long generation, String name) throws IOException {
+        ByteBuffer payload = read(generation, name);
+        return new ByteArrayInputStream(payload.array(), 0, payload.limit());
+    }
+
+    // Reads one file of a generation and checks its length and every block's
+    // checksum before returning the contents, from the start of the buffer's
+    // array to its limit. Throws IOException if it is truncated or damaged.
+    public ByteBuffer read(long generation, String name) throws IOException {
+        File file = fileFor(name, generation);
+        byte[] data = Files.readAllBytes(file.toPath());
+        Map<String, Long> manifest = readManifest();
+        Long expectedLength = manifest.get(name);
+        if (manifest.getOrDefault("generation", -1L) == generation && expectedLength != null
+                && expectedLength != data.length) {
+            throw new IOException(file.getName() + " is " + data.length + " bytes, the manifest says " + expectedLength);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (data.length < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException(file.getName() + " is not a snapshot file");
+        }
+        buffer.getInt(); // Block size it was written with
+        long payloadLength = buffer.getLong();
+
+        // Block table: offset, length and stored CRC of each block
+        List<int[]> blocks = new ArrayList<>();
+        long total = 0;
+        while (buffer.hasRemaining()) {
+            if (buffer.remaining() < 8) {
+                throw new IOException(file.getName() + " is truncated");
+            }
+            int length = buffer.getInt();
+            int crc = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                throw new IOException(file.getName() + " is truncated");
+            }
+            blocks.add(new int[] {buffer.position(), length, crc});
+            buffer.position(buffer.position() + length);
+            total += length;
+        }
+        if (total != payloadLength) {
+            throw new IOException(file.getName() + " is truncated");
+        }
+        boolean intact = blocks.parallelStream().allMatch(block -> {
+            CRC32 crc = new CRC32();
+            crc.update(data, block[0], block[1]);
+            return (int) crc.getValue() == block[2];
+        });
+        if (!intact) {
+            throw new IOException(file.getName() + " failed its checksum");
+        }
+
+        // Close the gaps left by the block headers, in place
+        int end = 0;
+        for (int[] block : blocks) {
+            System.arraycopy(data, block[0], data, end, block[1]);
+            end += block[1];
+        }
+        return ByteBuffer.wrap(data, 0, end);
+    }
+
+    // Renames a generation's files with a .damaged suffix, so they are kept for
+    // inspection but are never loaded, pruned or overwritten
+    public void markDamaged(long generation, String... names) {
+        for (String name : names) {
+            File file = fileFor(name, generation);
+            if (file.exists() && !file.renameTo(new File(file.getPath() + DAMAGED_SUFFIX))) {
+                file.delete();
+            }
+        }
+    }
+
+    private long writeFile(File target, byte[] payload) throws IOException {
+        File temp = new File(target.getPath() + TEMP_SUFFIX);
+        long length = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(BLOCK_SIZE);
+            out.writeLong(payload.length);
+            for (int offset = 0; offset < payload.length; offset += BLOCK_SIZE) {
+                int blockLength = Math.min(BLOCK_SIZE, payload.length - offset);
+                crc.reset();
+                crc.update(payload, offset, blockLength);
+                out.writeInt(blockLength);
+                out.writeInt((int) crc.getValue());
+                out.write(payload, offset, blockLength);
+                length += 8 + blockLength;
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return length;
+    }
+
+    private void writeAtomically(File target, byte[] contents) throws IOException {
+        File temp = new File(target.getPath() + TEMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(contents);
+            out.getFD().sync();
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Makes the renames themselves durable. Not every platform can open a
+    // directory (Windows cannot); the renames are still atomic there.
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Nothing more can be done on this platform
+        }
+    }
+
+    // Generation and file lengths from the manifest; empty if there is none or
+    // it does not match its checksum
+    private Map<String, Long> readManifest() {
+        Map<String, Long> values = new HashMap<>();
+        String text;
+        try {
+            text = new String(Files.readAllBytes(new File(directory, MANIFEST_FILE).toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return values;
+        }
+        int crcLine = text.lastIndexOf("crc=");
+        if (crcLine < 0) {
+            return values;
+        }
+        CRC32 crc = new CRC32();
+        byte[] body = text.substring(0, crcLine).getBytes(StandardCharsets.UTF_8);
+        crc.update(body, 0, body.length);
+        try {
+            if (Long.parseLong(text.substring(crcLine + 4).trim(), 16) != crc.getValue()) {
+                return values;
+            }
+            for (String line : text.substring(0, crcLine).split("\n")) {
+                int separator = line.indexOf('=');
+                if (separator > 0) {
+                    values.put(line.substring(0, separator), Long.parseLong(line.substring(separator + 1)));
+                }
+            }
+        } catch (NumberFormatException e) {
+            values.clear();
+        }
+        return values;
+    }
+
+    // Every generation that has at least one of the named files, oldest first
+    private List<Long> listGenerations(String... names) {
+        TreeSet<Long> generations = new TreeSet<>();
+        String[] files = directory.list();
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        for (String file : files) {
+            for (String name : names) {
+                int dot = name.lastIndexOf('.');
+                String prefix = name.substring(0, dot + 1);
+                String suffix = name.substring(dot);
+                if (file.startsWith(prefix) && file.endsWith(suffix)
+                        && file.length() > prefix.length() + suffix.length()) {
+                    try {
+                        generations.add(Long.parseLong(file.substring(prefix.length(), file.length() - suffix.length())));
+                    } catch (NumberFormatException e) {
+                        // Not one of ours
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(generations);
+    }
+
+    private File fileFor(String name, long generation) {
+        int dot = name.lastIndexOf('.');
+        return new File(directory, name.substring(0, dot) + "." + generation + name.substring(dot));
+    }
+}
+
+// Inverted trigram index over the lowercased title, author, genre and ISBN of
+// every book. Books get an int id in the order they are added, and each
+// trigram keeps a sorted array of the ids containing it, so the index is a few
+// thousand int arrays rather than a set entry per trigram of every book.
+// Queries of three or more characters only check the books that contain all of
+// the query's trigrams; shorter queries scan the cached lowercase fields
+// instead of lowercasing every book again. A removed book's id is skipped by
+// searches until enough have built up to renumber the rest. Methods are
+// synchronized so the index can be shared between threads.
+class SearchIndex {
+    private static final int GRAM = 3;
+    private static final int BUILD_CHUNK = 16384;
+    private static final int MIN_RENUMBER = 1024;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    // Id -> ISBN and lowercased fields, both null once the book is removed
+    private String[] isbnsById = new String[16];
+    private String[][] fieldsById = new String[16][];
+    private int nextId;
+    private int removedIds;
+    private GramTable postings = new GramTable();
+
+    public synchronized void add(Book book) {
+        remove(book.getIsbn());
+        int id = assignId(book.getIsbn(), lowerFields(book));
+        postings.addGrams(fieldsById[id], id);
+    }
+
+    // Adds a whole catalog. The fields are lowercased and the postings built a
+    // chunk of books at a time in parallel on the common ForkJoinPool, then the
+    // chunks' postings are appended in id order.
+    public synchronized void addAll(List<Book> books) {
+        for (Book book : books) {
+            remove(book.getIsbn());
+        }
+        int firstId = nextId;
+        int count = books.size();
+        ensureCapacity(firstId + count);
+        String[][] fields = fieldsById;
+        IntStream.range(0, count).parallel().forEach(i -> fields[firstId + i] = lowerFields(books.get(i)));
+        for (int i = 0; i < count; i++) {
+            String isbn = books.get(i).getIsbn();
+            isbnsById[firstId + i] = isbn;
+            ids.put(isbn, firstId + i);
+        }
+        nextId += count;
+
+        List<GramTable> chunks = IntStream.range(0, (count + BUILD_CHUNK - 1) / BUILD_CHUNK).parallel()
+                .mapToObj(chunk -> {
+                    GramTable table = new GramTable();
+                    int end = firstId + Math.min(count, (chunk + 1) * BUILD_CHUNK);
+                    for (int id = firstId + chunk * BUILD_CHUNK; id < end; id++) {
+                        table.addGrams(fields[id], id);
+                    }
+                    return table;
+                })
+                .collect(Collectors.toList());
+        for (GramTable chunk : chunks) {
+            postings.appendAll(chunk);
+        }
+    }
+
+    public synchronized void remove(String isbn) {
+        Integer id = ids.remove(isbn);
+        if (id == null) {
+            return;
+        }
+        isbnsById[id] = null;
+        fieldsById[id] = null;
+        removedIds++;
+        if (removedIds >= MIN_RENUMBER && removedIds > ids.size()) {
+            renumber();
+        }
+    }
+
+    public synchronized void clear() {
+        ids.clear();
+        isbnsById = new String[16];
+        fieldsById = new String[16][];
+        nextId = 0;
+        removedIds = 0;
+        postings = new GramTable();
+    }
+
+    // Returns the ISBNs of books with a field containing the query (case-insensitive)
+    public synchronized List<String> search(String query) {
+        String lowerQuery = query.toLowerCase();
+        List<String> results = new ArrayList<>();
+
+        if (lowerQuery.length() < GRAM) {
+            for (int id = 0; id < nextId; id++) {
+                if (fieldsById[id] != null && matches(fieldsById[id], lowerQuery)) {
+                    results.add(isbnsById[id]);
+                }
+            }
+            return results;
+        }
+
+        List<Posting> lists = new ArrayList<>();
+        for (int i = 0; i + GRAM <= lowerQuery.length(); i++) {
+            Posting posting = postings.get(gram(lowerQuery, i));
+            if (posting == null) {
+                return results;
+            }
+            lists.add(posting);
+        }
+        lists.sort(Comparator.comparingInt(posting -> posting.size));
+
+        // Walk the rarest trigram's list and check the rest, then verify the
+        // candidate really contains the whole query in a single field
+        Posting rarest = lists.get(0);
+        for (int k = 0; k < rarest.size; k++) {
+            int id = rarest.ids[k];
+            if (fieldsById[id] == null) {
+                continue;
+            }
+            boolean inAll = true;
+            for (int i = 1; i < lists.size() && inAll; i++) {
+                inAll = lists.get(i).contains(id);
+            }
+            if (inAll && matches(fieldsById[id], lowerQuery)) {
+                results.add(isbnsById[id]);
+            }
+        }
+        return results;
+    }
+
+    // Returns the given ISBNs whose book still has a field containing the query
+    public synchronized List<String> filter(List<String> isbns, String query) {
+        String lowerQuery = query.toLowerCase();
+        List<String> results = new ArrayList<>();
+        for (String isbn : isbns) {
+            Integer id = ids.get(isbn);
+            if (id != null && matches(fieldsById[id], lowerQuery)) {
+                results.add(isbn);
+            }
+        }
+        return results;
+    }
+
+    private int assignId(String isbn, String[] fields) {
+        ensureCapacity(nextId + 1);
+        int id = nextId++;
+        isbnsById[id] = isbn;
+        fieldsById[id] = fields;
+        ids.put(isbn, id);
+        return id;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > isbnsById.length) {
+            int grown = Math.max(capacity, isbnsById.length + (isbnsById.length >> 1));
+            isbnsById = Arrays.copyOf(isbnsById, grown);
+            fieldsById = Arrays.copyOf(fieldsById, grown);
+        }
+    }
+
+    // Gives the remaining books consecutive ids again and rebuilds the
+    // postings without the removed ones
+    private void renumber() {
+        String[] isbns = isbnsById;
+        String[][] fields = fieldsById;
+        int count = nextId;
+        clear();
+        for (int old = 0; old < count; old++) {
+            if (isbns[old] != null) {
+                int id = assignId(isbns[old], fields[old]);
+                postings.addGrams(fields[old], id);
+            }
+        }
+    }
+
+    private static String[] lowerFields(Book book) {
+        return new String[] {
+            book.getTitle().toLowerCase(),
+            SymbolTable.AUTHORS.lookupLowerCase(book.getAuthorCode()),
+            SymbolTable.GENRES.lookupLowerCase(book.getGenreCode()),
+            book.getIsbn().toLowerCase()
+        };
+    }
+
+    // The three chars of a trigram packed into one long
+    private static long gram(String field, int i) {
+        return ((long) field.charAt(i) << 32) | ((long) field.charAt(i + 1) << 16) | field.charAt(i + 2);
+    }
+
+    private static boolean matches(String[] fields, String lowerQuery) {
+        for (String field : fields) {
+            if (field.contains(lowerQuery)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Ascending book ids; adding the id just added again is a no-op, so a
+    // trigram that occurs twice in one book is only listed once
+    private static final class Posting {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        // The other posting's ids must all be higher than these
+        void append(Posting other) {
+            if (size + other.size > ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(size + other.size, size * 2));
+            }
+            System.arraycopy(other.ids, 0, ids, size, other.size);
+            size += other.size;
+        }
+
+        boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+    }
+
+    // Open-addressing map from a packed trigram to its posting
+    private static final class GramTable {
+        private static final long EMPTY = -1;
+
+        private long[] keys = emptyKeys(1024);
+        private Posting[] values = new Posting[1024];
+        private int size;
+
+        Posting get(long gram) {
+            int mask = keys.length - 1;
+            for (int i = slot(gram, mask); keys[i] != EMPTY; i = (i + 1) & mask) {
+                if (keys[i] == gram) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        void addGrams(String[] fields, int id) {
+            for (String field : fields) {
+                for (int i = 0; i + GRAM <= field.length(); i++) {
+                    postingFor(gram(field, i)).add(id);
+                }
+            }
+        }
+
+        void appendAll(GramTable other) {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.keys[i] != EMPTY) {
+                    postingFor(other.keys[i]).append(other.values[i]);
+                }
+            }
+        }
+
+        private Posting postingFor(long gram) {
+            int mask = keys.length - 1;
+            int i = slot(gram, mask);
+            while (keys[i] != EMPTY) {
+                if (keys[i] == gram) {
+                    return values[i];
+                }
+                i = (i + 1) & mask;
+            }
+            if (size * 2 >= keys.length) {
+                grow();
+                return postingFor(gram);
+            }
+            keys[i] = gram;
+            values[i] = new Posting();
+            size++;
+            return values[i];
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Posting[] oldValues = values;
+            keys = emptyKeys(oldKeys.length * 2);
+            values = new Posting[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] != EMPTY) {
+                    int i = slot(oldKeys[j], mask);
+                    while (keys[i] != EMPTY) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+
+        private static long[] emptyKeys(int length) {
+            long[] keys = new long[length];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        private static int slot(long gram, int mask) {
+            long h = gram * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
+
+// LRU cache of search results keyed by the lowercased query. A query that
+// extends a cached one ("tolk" after "tol") only re-checks the cached ISBNs,
+// since any book matching the longer query also matches its prefix. Entries
+// record the catalog generation they were computed at; invalidate() bumps the
+// generation whenever books are added or removed, and stale entries are dropped.
+class SearchCache {
+    private static final int CAPACITY = 128;
+    private static final int MAX_CACHED_RESULTS = 100000;
+
+    private final SearchIndex index;
+    private final Map<String, CachedResult> entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+    private long generation;
+    private long hits;
+    private long refinements;
+    private long misses;
+
+    private static class CachedResult {
+        final long generation;
+        final List<String> isbns;
+
+        CachedResult(long generation, List<String> isbns) {
+            this.generation = generation;
+            this.isbns = isbns;
+        }
+    }
+
+    public SearchCache(SearchIndex index) {
+        this.index = index;
+    }
+
+    // Call after the search index has been updated
+    public synchronized void invalidate() {
+        generation++;
+    }
+
+    public synchronized List<String> search(String query) {
+        String key = query.toLowerCase();
+        CachedResult exact = freshEntry(key);
+        if (exact != null) {
+            hits++;
+            return new ArrayList<>(exact.isbns);
+        }
+
+        List<String> results = null;
+        for (int length = key.length() - 1; length > 0 && results == null; length--) {
+            CachedResult prefix = freshEntry(key.substring(0, length));
+            if (prefix != null) {
+                refinements++;
+                results = index.filter(prefix.isbns, key);
+            }
+        }
+        if (results == null) {
+            misses++;
+            results = index.search(key);
+        }
+        if (results.size() <= MAX_CACHED_RESULTS) {
+            entries.put(key, new CachedResult(generation, results));
+        }
+        return new ArrayList<>(results);
+    }
+
+    private CachedResult freshEntry(String key) {
+        CachedResult entry = entries.get(key);
+        if (entry != null && entry.generation != generation) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    public synchronized long getHits() { return hits; }
+    public synchronized long getRefinements() { return refinements; }
+    public synchronized long getMisses() { return misses; }
+
+    @Override
+    public synchronized String toString() {
+        long total = hits + refinements + misses;
+        return String.format("%d hits, %d refined, %d misses (%.0f%% answered from cache)",
+                hits, refinements, misses, total == 0 ? 0.0 : (hits + refinements) * 100.0 / total);
+    }
+}
+
+// Secondary indexes over borrowed books: the set of borrowed ISBNs and a map
+// from due date (epoch day) to the ISBNs due that day. Overdue and due-soon
+// queries become range reads instead of scans over the whole catalog.
+// Methods are synchronized so the index can be shared between threads.
+// The overdue count is cached for one day and rolled forward bucket by bucket
+// when the date changes, so statistics cost the same for any catalog size.
+class LoanIndex {
+    private static final long NOT_COUNTED = Long.MIN_VALUE;
+
+    private final Set<String> borrowed = new LinkedHashSet<>();
+    private final NavigableMap<Long, Set<String>> byDueDay = new TreeMap<>();
+    private long overdueAsOf = NOT_COUNTED;
+    private int overdueCount;
+
+    public synchronized void add(String isbn, LocalDate dueDate) {
+        borrowed.add(isbn);
+        if (dueDate != null && byDueDay.computeIfAbsent(dueDate.toEpochDay(), k -> new LinkedHashSet<>()).add(isbn)
+                && dueDate.toEpochDay() < overdueAsOf) {
+            overdueCount++;
+        }
+    }
+
+    public synchronized void remove(String isbn, LocalDate dueDate) {
+        borrowed.remove(isbn);
+        if (dueDate != null) {
+            Set<String> isbns = byDueDay.get(dueDate.toEpochDay());
+            if (isbns != null && isbns.remove(isbn)) {
+                if (isbns.isEmpty()) {
+                    byDueDay.remove(dueDate.toEpochDay());
+                }
+                if (dueDate.toEpochDay() < overdueAsOf) {
+                    overdueCount--;
+                }
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        borrowed.clear();
+        byDueDay.clear();
+        overdueAsOf = NOT_COUNTED;
+        overdueCount = 0;
+    }
+
+    // Number of books due before today
+    public synchronized int getOverdueCount(LocalDate today) {
+        long day = today.toEpochDay();
+        if (overdueAsOf == NOT_COUNTED || day < overdueAsOf) {
+            overdueCount = countDays(byDueDay.headMap(day, false));
+        } else if (day > overdueAsOf) {
+            overdueCount += countDays(byDueDay.subMap(overdueAsOf, true, day, false));
+        }
+        overdueAsOf = day;
+        return overdueCount;
+    }
+
+    public synchronized List<String> getBorrowed() {
+        return new ArrayList<>(borrowed);
+    }
+
+    public synchronized int getBorrowedCount() {
+        return borrowed.size();
+    }
+
+    // Books due before today, oldest due date first
+    public synchronized List<String> getOverdue(LocalDate today) {
+        return collect(byDueDay.headMap(today.toEpochDay(), false));
+    }
+
+    // Books due between the two dates (inclusive), earliest first
+    public synchronized List<String> getDueBetween(LocalDate from, LocalDate to) {
+        return collect(byDueDay.subMap(from.toEpochDay(), true, to.toEpochDay(), true));
+    }
+
+    private static int countDays(Map<Long, Set<String>> days) {
+        int count = 0;
+        for (Set<String> day : days.values()) {
+            count += day.size();
+        }
+        return count;
+    }
+
+    private static List<String> collect(Map<Long, Set<String>> days) {
+        List<String> isbns = new ArrayList<>();
+        for (Set<String> day : days.values()) {
+            isbns.addAll(day);
+        }
+        return isbns;
+    }
+}
+
+// Compressed set of book ordinals in the style of a Roaring bitmap. Values are
+// split by their high 16 bits into chunks; a chunk with up to 4096 values is a
+// sorted char array and a fuller one is a 65536-bit bitset, so sparse and
+// dense sets both stay small. Intersections run chunk by chunk. Not
+// thread-safe; FacetIndex guards its bitmaps with its own lock.
+class OrdinalBitmap {
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int BITSET_WORDS = 1024;
+
+    private static class Chunk {
+        final int key;
+        char[] values; // Sorted; used while the chunk is sparse
+        long[] bits;   // Used once the chunk holds more than ARRAY_LIMIT values
+        int cardinality;
+
+        Chunk(int key) {
+            this.key = key;
+            this.values = new char[4];
+        }
+
+        boolean contains(char low) {
+            if (bits != null) {
+                return (bits[low >>> 6] & (1L << low)) != 0;
+            }
+            return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+        }
+
+        boolean add(char low) {
+            if (bits != null) {
+                long mask = 1L << low;
+                if ((bits[low >>> 6] & mask) != 0) {
+                    return false;
+                }
+                bits[low >>> 6] |= mask;
+                cardinality++;
+                return true;
+            }
+            int pos = Arrays.binarySearch(values, 0, cardinality, low);
+            if (pos >= 0) {
+                return false;
+            }
+            if (cardinality == ARRAY_LIMIT) {
+                toBits();
+                return add(low);
+            }
+            pos = -pos - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, values.length * 2));
+            }
+            System.arraycopy(values, pos, values, pos + 1, cardinality - pos);
+            values[pos] = low;
+            cardinality++;
+            return true;
+        }
+
+        boolean remove(char low) {
+            if (bits != null) {
+                long mask = 1L << low;
+                if ((bits[low >>> 6] & mask) == 0) {
+                    return false;
+                }
+                bits[low >>> 6] &= ~mask;
+                if (--cardinality <= ARRAY_LIMIT) {
+                    toArray();
+                }
+                return true;
+            }
+            int pos = Arrays.binarySearch(values, 0, cardinality, low);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(values, pos + 1, values, pos, cardinality - pos - 1);
+            cardinality--;
+            return true;
+        }
+
+        void toBits() {
+            bits = new long[BITSET_WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                bits[values[i] >>> 6] |= 1L << values[i];
+            }
+            values = null;
+        }
+
+        void toArray() {
+            char[] sparse = new char[Math.max(4, cardinality)];
+            int n = 0;
+            for (int w = 0; w < BITSET_WORDS; w++) {
+                for (long word = bits[w]; word != 0; word &= word - 1) {
+                    sparse[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                }
+            }
+            values = sparse;
+            bits = null;
+        }
+
+        Chunk copy() {
+            Chunk copy = new Chunk(key);
+            copy.values = values != null ? Arrays.copyOf(values, Math.max(4, cardinality)) : null;
+            copy.bits = bits != null ? bits.clone() : null;
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        void forEach(java.util.function.IntConsumer action) {
+            int high = key << 16;
+            if (bits == null) {
+                for (int i = 0; i < cardinality; i++) {
+                    action.accept(high | values[i]);
+                }
+                return;
+            }
+            for (int w = 0; w < BITSET_WORDS; w++) {
+                for (long word = bits[w]; word != 0; word &= word - 1) {
+                    action.accept(high | (w << 6) + Long.numberOfTrailingZeros(word));
+                }
+            }
+        }
+
+        // Values in both chunks, or null if there are none
+        Chunk and(Chunk other) {
+            if (bits != null && other.bits != null) {
+                Chunk result = new Chunk(key);
+                result.bits = new long[BITSET_WORDS];
+                for (int w = 0; w < BITSET_WORDS; w++) {
+                    result.bits[w] = bits[w] & other.bits[w];
+                    result.cardinality += Long.bitCount(result.bits[w]);
+                }
+                return result.normalize();
+            }
+            Chunk sparse = bits == null && (other.bits != null || cardinality <= other.cardinality) ? this : other;
+            Chunk probe = sparse == this ? other : this;
+            Chunk result = new Chunk(key);
+            result.values = new char[Math.max(4, sparse.cardinality)];
+            for (int i = 0; i < sparse.cardinality; i++) {
+                if (probe.contains(sparse.values[i])) {
+                    result.values[result.cardinality++] = sparse.values[i];
+                }
+            }
+            return result.cardinality == 0 ? null : result;
+        }
+
+        // Values in this chunk but not the other, or null if there are none
+        Chunk andNot(Chunk other) {
+            Chunk result = new Chunk(key);
+            if (bits == null) {
+                result.values = new char[Math.max(4, cardinality)];
+                for (int i = 0; i < cardinality; i++) {
+                    if (!other.contains(values[i])) {
+                        result.values[result.cardinality++] = values[i];
+                    }
+                }
+                return result.cardinality == 0 ? null : result;
+            }
+            result.bits = bits.clone();
+            if (other.bits != null) {
+                for (int w = 0; w < BITSET_WORDS; w++) {
+                    result.bits[w] &= ~other.bits[w];
+                }
+            } else {
+                for (int i = 0; i < other.cardinality; i++) {
+                    result.bits[other.values[i] >>> 6] &= ~(1L << other.values[i]);
+                }
+            }
+            for (long word : result.bits) {
+                result.cardinality += Long.bitCount(word);
+            }
+            return result.normalize();
+        }
+
+        private Chunk normalize() {
+            if (cardinality == 0) {
+                return null;
+            }
+            if (bits != null && cardinality <= ARRAY_LIMIT) {
+                toArray();
+            }
+            return this;
+        }
+    }
+
+    // Sorted by key
+    private final List<Chunk> chunks = new ArrayList<>();
+    private int cardinality;
+
+    public boolean add(int value) {
+        int index = find(value >>> 16);
+        Chunk chunk;
+        if (index >= 0) {
+            chunk = chunks.get(index);
+        } else {
+            chunk = new Chunk(value >>> 16);
+            chunks.add(-index - 1, chunk);
+        }
+        if (chunk.add((char) value)) {
+            cardinality++;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean remove(int value) {
+        int index = find(value >>> 16);
+        if (index < 0 || !chunks.get(index).remove((char) value)) {
+            return false;
+        }
+        if (chunks.get(index).cardinality == 0) {
+            chunks.remove(index);
+        }
+        cardinality--;
+        return true;
+    }
+
+    public boolean contains(int value) {
+        int index = find(value >>> 16);
+        return index >= 0 && chunks.get(index).contains((char) value);
+    }
+
+    public int getCardinality() {
+        return cardinality;
+    }
+
+    public void clear() {
+        chunks.clear();
+        cardinality = 0;
+    }
+
+    // Calls back with every value in ascending order
+    public void forEach(java.util.function.IntConsumer action) {
+        for (Chunk chunk : chunks) {
+            chunk.forEach(action);
+        }
+    }
+
+    public OrdinalBitmap and(OrdinalBitmap other) {
+        OrdinalBitmap result = new OrdinalBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < chunks.size() && j < other.chunks.size()) {
+            Chunk a = chunks.get(i);
+            Chunk b = other.chunks.get(j);
+            if (a.key < b.key) {
+                i++;
+            } else if (a.key > b.key) {
+                j++;
+            } else {
+                result.append(a.and(b));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    public OrdinalBitmap copy() {
+        OrdinalBitmap copy = new OrdinalBitmap();
+        for (Chunk chunk : chunks) {
+            copy.append(chunk.copy());
+        }
+        return copy;
+    }
+
+    public OrdinalBitmap andNot(OrdinalBitmap other) {
+        OrdinalBitmap result = new OrdinalBitmap();
+        int j = 0;
+        for (Chunk a : chunks) {
+            while (j < other.chunks.size() && other.chunks.get(j).key < a.key) {
+                j++;
+            }
+            if (j < other.chunks.size() && other.chunks.get(j).key == a.key) {
+                result.append(a.andNot(other.chunks.get(j)));
+            } else {
+                result.append(a.copy());
+            }
+        }
+        return result;
+    }
+
+    // Chunks are written with their key and cardinality; the cardinality tells
+    // the reader whether a sorted array or a bitset follows
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(chunks.size());
+        for (Chunk chunk : chunks) {
+            out.writeChar(chunk.key);
+            out.writeInt(chunk.cardinality);
+            if (chunk.bits != null) {
+                for (long word : chunk.bits) {
+                    out.writeLong(word);
+                }
+            } else {
+                for (int i = 0; i < chunk.cardinality; i++) {
+                    out.writeChar(chunk.values[i]);
+                }
+            }
+        }
+    }
+
+    public static OrdinalBitmap read(DataInputStream in) throws IOException {
+        OrdinalBitmap bitmap = new OrdinalBitmap();
+        int count = in.readInt();
+        int previousKey = -1;
+        for (int c = 0; c < count; c++) {
+            Chunk chunk = new Chunk(in.readChar());
+            int cardinality = in.readInt();
+            if (chunk.key <= previousKey || cardinality <= 0 || cardinality > 65536) {
+                throw new IOException("Malformed bitmap in index file");
+            }
+            if (cardinality > ARRAY_LIMIT) {
+                chunk.values = null;
+                chunk.bits = new long[BITSET_WORDS];
+                for (int w = 0; w < BITSET_WORDS; w++) {
+                    chunk.bits[w] = in.readLong();
+                }
+            } else {
+                chunk.values = new char[Math.max(4, cardinality)];
+                for (int i = 0; i < cardinality; i++) {
+                    chunk.values[i] = in.readChar();
+                }
+            }
+            chunk.cardinality = cardinality;
+            bitmap.append(chunk);
+            previousKey = chunk.key;
+        }
+        return bitmap;
+    }
+
+    private void append(Chunk chunk) {
+        if (chunk != null) {
+            chunks.add(chunk);
+            cardinality += chunk.cardinality;
+        }
+    }
+
+    private int find(int key) {
+        int low = 0;
+        int high = chunks.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midKey = chunks.get(mid).key;
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+}
+
+// Facet bitmaps for browsing the catalog. Every book gets a dense int ordinal
+// (freed ordinals are reused) and the index keeps an OrdinalBitmap of live,
+// borrowed and overdue books plus one per genre code and per author code.
+// Counts are bitmap cardinalities, and a combined filter such as "available,
+// Fantasy, title contains ring" is an intersection of bitmaps. The bitmaps are
+// saved in books.idx next to books.dat so startup does not rebuild them.
+class FacetIndex {
+    static final String AVAILABLE = "Available";
+    static final String BORROWED = "Borrowed";
+    static final String OVERDUE = "Overdue";
+
+    private static final int MAGIC = 0x4C4D5349; // "LMSI"
+    private static final byte VERSION = 1;
+    private static final long NOT_COUNTED = Long.MIN_VALUE;
+
+    private final List<Book> byOrdinal = new ArrayList<>();
+    private final Deque<Integer> freeOrdinals = new ArrayDeque<>();
+    private OrdinalBitmap live = new OrdinalBitmap();
+    private OrdinalBitmap borrowed = new OrdinalBitmap();
+    private final Map<Integer, OrdinalBitmap> byGenre = new HashMap<>();
+    private final Map<Integer, OrdinalBitmap> byAuthor = new HashMap<>();
+    // Books due before overdueAsOf; rebuilt from the borrowed set when the day changes
+    private OrdinalBitmap overdue = new OrdinalBitmap();
+    private long overdueAsOf = NOT_COUNTED;
+
+    public synchronized void add(Book book) {
+        int ordinal = freeOrdinals.isEmpty() ? byOrdinal.size() : freeOrdinals.pop();
+        if (ordinal == byOrdinal.size()) {
+            byOrdinal.add(book);
+        } else {
+            byOrdinal.set(ordinal, book);
+        }
+        book.setOrdinal(ordinal);
+        live.add(ordinal);
+        byGenre.computeIfAbsent(book.getGenreCode(), k -> new OrdinalBitmap()).add(ordinal);
+        byAuthor.computeIfAbsent(book.getAuthorCode(), k -> new OrdinalBitmap()).add(ordinal);
+        if (!book.isAvailable()) {
+            setAvailable(book, false);
+        }
+    }
+
+    public synchronized void remove(Book book) {
+        int ordinal = book.getOrdinal();
+        if (ordinal < 0 || !live.remove(ordinal)) {
+            return;
+        }
+        removePosting(byGenre, book.getGenreCode(), ordinal);
+        removePosting(byAuthor, book.getAuthorCode(), ordinal);
+        borrowed.remove(ordinal);
+        overdue.remove(ordinal);
+        byOrdinal.set(ordinal, null);
+        freeOrdinals.push(ordinal);
+        book.setOrdinal(-1);
+    }
+
+    // Call after the book's loan fields have been updated
+    public synchronized void setAvailable(Book book, boolean available) {
+        int ordinal = book.getOrdinal();
+        if (available) {
+            borrowed.remove(ordinal);
+            overdue.remove(ordinal);
+        } else {
+            borrowed.add(ordinal);
+            if (book.getDueDate() != null && book.getDueDate().toEpochDay() < overdueAsOf) {
+                overdue.add(ordinal);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        byOrdinal.clear();
+        freeOrdinals.clear();
+        live.clear();
+        borrowed.clear();
+        byGenre.clear();
+        byAuthor.clear();
+        overdue = new OrdinalBitmap();
+        overdueAsOf = NOT_COUNTED;
+    }
+
+    // Genre -> number of books, largest first
+    public synchronized Map<String, Integer> getGenreCounts() {
+        return counts(byGenre, SymbolTable.GENRES);
+    }
+
+    public synchronized Map<String, Integer> getAuthorCounts() {
+        return counts(byAuthor, SymbolTable.AUTHORS);
+    }
+
+    public synchronized Map<String, Integer> getStatusCounts(LocalDate today) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        counts.put(AVAILABLE, live.getCardinality() - borrowed.getCardinality());
+        counts.put(BORROWED, borrowed.getCardinality());
+        counts.put(OVERDUE, overdue(today).getCardinality());
+        return counts;
+    }
+
+    // Books in ordinal order, the order they are written to books.dat
+    public synchronized List<Book> getBooks() {
+        List<Book> books = new ArrayList<>(live.getCardinality());
+        live.forEach(ordinal -> books.add(byOrdinal.get(ordinal)));
+        return books;
+    }
+
+    // Books matching every given facet; a null argument leaves that facet open.
+    // If candidates is given (e.g. the ordinals of search hits) only those are
+    // considered. Bitmaps are intersected smallest first.
+    public synchronized List<Book> select(String genre, String author, String status,
+                                          OrdinalBitmap candidates, LocalDate today) {
+        List<OrdinalBitmap> required = new ArrayList<>();
+        if (candidates != null) {
+            required.add(candidates);
+        }
+        if (genre != null) {
+            required.add(byGenre.getOrDefault(SymbolTable.GENRES.find(genre), new OrdinalBitmap()));
+        }
+        if (author != null) {
+            required.add(byAuthor.getOrDefault(SymbolTable.AUTHORS.find(author), new OrdinalBitmap()));
+        }
+        if (BORROWED.equals(status)) {
+            required.add(borrowed);
+        } else if (OVERDUE.equals(status)) {
+            required.add(overdue(today));
+        }
+        required.sort(Comparator.comparingInt(OrdinalBitmap::getCardinality));
+
+        OrdinalBitmap result = required.isEmpty() ? live : required.get(0);
+        for (int i = 1; i < required.size() && result.getCardinality() > 0; i++) {
+            result = result.and(required.get(i));
+        }
+        if (AVAILABLE.equals(status)) {
+            result = result.andNot(borrowed);
+        }
+        List<Book> books = new ArrayList<>(result.getCardinality());
+        result.forEach(ordinal -> {
+            Book book = byOrdinal.get(ordinal);
+            if (book != null) {
+                books.add(book);
+            }
+        });
+        return books;
+    }
+
+    // Copy of the bitmaps with the overdue set brought up to today, so it can be
+    // written after the library lock is released. The copy has no books, so
+    // write() must be given the same day.
+    public synchronized FacetIndex copy(LocalDate today) {
+        FacetIndex copy = new FacetIndex();
+        overdue(today);
+        copy.byOrdinal.addAll(Collections.nCopies(byOrdinal.size(), (Book) null));
+        copy.live = live.copy();
+        copy.borrowed = borrowed.copy();
+        copy.overdue = overdue.copy();
+        copy.overdueAsOf = overdueAsOf;
+        byGenre.forEach((code, ordinals) -> copy.byGenre.put(code, ordinals.copy()));
+        byAuthor.forEach((code, ordinals) -> copy.byAuthor.put(code, ordinals.copy()));
+        return copy;
+    }
+
+    // Writes the bitmaps, stamped with the generation of the books.dat written
+    // alongside. Genres and authors are written by name since codes are per run.
+    public synchronized void write(OutputStream stream, long generation, LocalDate today) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+        OrdinalBitmap currentOverdue = overdue(today);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(generation);
+        out.writeInt(byOrdinal.size());
+        live.write(out);
+        borrowed.write(out);
+        out.writeLong(overdueAsOf);
+        currentOverdue.write(out);
+        writePostings(out, byGenre, SymbolTable.GENRES);
+        writePostings(out, byAuthor, SymbolTable.AUTHORS);
+        out.flush();
+    }
+
+    // Restores the bitmaps saved with books.dat. books must be in file order;
+    // the n-th book gets the n-th live ordinal. Returns false, leaving the index
+    // empty, if the file does not belong to this generation of books.dat.
+    public synchronized boolean load(InputStream stream, List<Book> books, long generation) throws IOException {
+        clear();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 64 * 1024));
+        if (in.readInt() != MAGIC || in.readByte() != VERSION || in.readLong() != generation) {
+            return false;
+        }
+        int ordinals = in.readInt();
+        OrdinalBitmap savedLive = OrdinalBitmap.read(in);
+        if (savedLive.getCardinality() != books.size() || ordinals < books.size()) {
+            return false;
+        }
+        for (int i = 0; i < ordinals; i++) {
+            byOrdinal.add(null);
+        }
+        int[] next = {0};
+        try {
+            savedLive.forEach(ordinal -> {
+                Book book = books.get(next[0]++);
+                book.setOrdinal(ordinal);
+                byOrdinal.set(ordinal, book);
+                live.add(ordinal);
+            });
+        } catch (IndexOutOfBoundsException e) {
+            clear();
+            return false;
+        }
+        for (int ordinal = ordinals - 1; ordinal >= 0; ordinal--) {
+            if (byOrdinal.get(ordinal) == null) {
+                freeOrdinals.push(ordinal);
+            }
+        }
+        OrdinalBitmap.read(in).forEach(borrowed::add);
+        overdueAsOf = in.readLong();
+        overdue = OrdinalBitmap.read(in);
+        readPostings(in, byGenre, SymbolTable.GENRES);
+        readPostings(in, byAuthor, SymbolTable.AUTHORS);
+        return true;
+    }
+
+    private OrdinalBitmap overdue(LocalDate today) {
+        long day = today.toEpochDay();
+        if (day != overdueAsOf) {
+            OrdinalBitmap rebuilt = new OrdinalBitmap();
+            borrowed.forEach(ordinal -> {
+                LocalDate dueDate = byOrdinal.get(ordinal).getDueDate();
+                if (dueDate != null && dueDate.toEpochDay() < day) {
+                    rebuilt.add(ordinal);
+                }
+            });
+            overdue = rebuilt;
+            overdueAsOf = day;
+        }
+        return overdue;
+    }
+
+    private static void removePosting(Map<Integer, OrdinalBitmap> postings, int code, int ordinal) {
+        OrdinalBitmap ordinals = postings.get(code);
+        if (ordinals != null) {
+            ordinals.remove(ordinal);
+            if (ordinals.getCardinality() == 0) {
+                postings.remove(code);
+            }
+        }
+    }
+
+    private static void writePostings(DataOutputStream out, Map<Integer, OrdinalBitmap> postings,
+                                      SymbolTable symbols) throws IOException {
+        out.writeInt(postings.size());
+        for (Map.Entry<Integer, OrdinalBitmap> entry : postings.entrySet()) {
+            out.writeUTF(symbols.lookup(entry.getKey()));
+            entry.getValue().write(out);
+        }
+    }
+
+    private static void readPostings(DataInputStream in, Map<Integer, OrdinalBitmap> postings,
+                                     SymbolTable symbols) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            postings.put(symbols.intern(in.readUTF()), OrdinalBitmap.read(in));
+        }
+    }
+
+    private static Map<String, Integer> counts(Map<Integer, OrdinalBitmap> postings, SymbolTable symbols) {
+        List<Map.Entry<Integer, OrdinalBitmap>> entries = new ArrayList<>(postings.entrySet());
+        entries.sort((a, b) -> Integer.compare(b.getValue().getCardinality(), a.getValue().getCardinality()));
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (Map.Entry<Integer, OrdinalBitmap> entry : entries) {
+            counts.put(symbols.lookup(entry.getKey()), entry.getValue().getCardinality());
+        }
+        return counts;
+    }
+}
+
+// Background persistence for the GUI. Library changes only mark the data dirty;
+// one writer thread waits briefly so a burst of changes turns into a single
+// write, and the Event Dispatch Thread never waits on the disk.
+class PersistenceWriter {
+    private static final long COALESCE_MILLIS = 250;
+
+    private final Runnable writeTask;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "library-persistence");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PersistenceWriter(Runnable writeTask) {
+        this.writeTask = writeTask;
+    }
+
+    public void markDirty() {
+        dirty.set(true);
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.schedule(this::writeIfDirty, COALESCE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false); // Already shut down; flush() writes what is pending
+            }
+        }
+    }
+
+    private void writeIfDirty() {
+        scheduled.set(false);
+        if (dirty.getAndSet(false)) {
+            writeTask.run();
+        }
+    }
+
+    // Writes any pending changes and stops the writer; called once on exit
+    public void flush() {
+        try {
+            executor.submit(this::writeIfDirty);
+        } catch (RejectedExecutionException e) {
+            return; // Already flushed
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// ISBN normalization and validation. parse() accepts ISBN-13 and ISBN-10
+// strings, with or without hyphens and spaces and with X as an ISBN-10 check
+// digit. It verifies the check digit and returns the ISBN-13 as a number, or -1
+// if the string is not a valid ISBN. An ISBN-10 becomes its 978-prefixed
+// ISBN-13, so both forms of one book share a key. Parsing allocates nothing.
+final class Isbn {
+    static final long NOT_AN_ISBN = -1;
+
+    private Isbn() {
+    }
+
+    static long parse(String text) {
+        long value = 0;
+        int digits = 0;
+        int sum10 = 0;
+        int sum13 = 0;
+        boolean checkX = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '-' || c == ' ') {
+                continue;
+            }
+            int digit;
+            if (c >= '0' && c <= '9' && !checkX) {
+                digit = c - '0';
+            } else if ((c == 'X' || c == 'x') && digits == 9) {
+                digit = 10;
+                checkX = true;
+            } else {
+                return NOT_AN_ISBN;
+            }
+            if (++digits > 13) {
+                return NOT_AN_ISBN;
+            }
+            sum10 += digit * (11 - digits);
+            sum13 += digit * (digits % 2 == 1 ? 1 : 3);
+            value = value * 10 + digit;
+        }
+
+        if (digits == 13) {
+            long prefix = value / 10_000_000_000L;
+            return sum13 % 10 == 0 && (prefix == 978 || prefix == 979) ? value : NOT_AN_ISBN;
+        }
+        if (digits != 10 || sum10 % 11 != 0) {
+            return NOT_AN_ISBN;
+        }
+        // 978 + the first nine digits, followed by a new ISBN-13 check digit
+        long body = 978_000_000_000L + (checkX ? (value - 10) / 10 : value / 10);
+        int sum = 0;
+        long rest = body;
+        for (int position = 12; position >= 1; position--) {
+            sum += (int) (rest % 10) * (position % 2 == 1 ? 1 : 3);
+            rest /= 10;
+        }
+        return body * 10 + (10 - sum % 10) % 10;
+    }
+
+    static boolean isValid(String text) {
+        return parse(text) != NOT_AN_ISBN;
+    }
+
+    // The 13-digit form of a parsed key
+    static String format(long key) {
+        return Long.toString(key);
+    }
+}
+
+// Catalog map keyed by ISBN. Valid ISBNs are stored under their Isbn.parse()
+// value in an open-addressing table of long keys (linear probing, deletion by
+// backward shift), so a lookup hashes a long instead of a String and
+// "0-13-235088-2" finds the book added as "978-0132350884". The Book keeps its
+// original ISBN string for display. Identifiers that are not valid ISBNs fall
+// back to a HashMap. Lookups use an optimistic StampedLock read and changes take
+// the write lock, so the map can be shared between threads; iteration works on
+// a snapshot.
+class IsbnBookMap extends AbstractMap<String, Book> {
+    private static final long EMPTY = 0; // No ISBN-13 is zero
+    private static final int MIN_CAPACITY = 16;
+
+    // Keys and values are swapped together on resize
+    private static final class Table {
+        final long[] keys;
+        final Book[] values;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new Book[capacity];
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private final Map<String, Book> others = new HashMap<>();
+    private Table table;
+    private int isbnCount;
+
+    public IsbnBookMap() {
+        this(0);
+    }
+
+    public IsbnBookMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        table = new Table(capacity);
+    }
+
+    @Override
+    public Book get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        long isbn = Isbn.parse((String) key);
+        if (isbn == Isbn.NOT_AN_ISBN) {
+            long stamp = lock.readLock();
+            try {
+                return others.get(key);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        long stamp = lock.tryOptimisticRead();
+        Book book = find(table, isbn);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                book = find(table, isbn);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return book;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public Book put(String key, Book book) {
+        long isbn = Isbn.parse(key);
+        long stamp = lock.writeLock();
+        try {
+            if (isbn == Isbn.NOT_AN_ISBN) {
+                return others.put(key, book);
+            }
+            Table current = table;
+            int mask = current.keys.length - 1;
+            for (int i = slot(isbn, mask); ; i = (i + 1) & mask) {
+                if (current.keys[i] == isbn) {
+                    Book previous = current.values[i];
+                    current.values[i] = book;
+                    return previous;
+                }
+                if (current.keys[i] == EMPTY) {
+                    current.values[i] = book;
+                    current.keys[i] = isbn;
+                    if (++isbnCount > current.keys.length * 3 / 4) {
+                        resize(current.keys.length << 1);
+                    }
+                    return null;
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Book remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        long isbn = Isbn.parse((String) key);
+        long stamp = lock.writeLock();
+        try {
+            if (isbn == Isbn.NOT_AN_ISBN) {
+                return others.remove(key);
+            }
+            Table current = table;
+            int mask = current.keys.length - 1;
+            int i = slot(isbn, mask);
+            while (current.keys[i] != isbn) {
+                if (current.keys[i] == EMPTY) {
+                    return null;
+                }
+                i = (i + 1) & mask;
+            }
+            Book previous = current.values[i];
+            // Shift later entries of the probe run back so no tombstone is needed
+            for (int j = (i + 1) & mask; current.keys[j] != EMPTY; j = (j + 1) & mask) {
+                int home = slot(current.keys[j], mask);
+                boolean homeBetween = i <= j ? (home > i && home <= j) : (home > i || home <= j);
+                if (!homeBetween) {
+                    current.keys[i] = current.keys[j];
+                    current.values[i] = current.values[j];
+                    i = j;
+                }
+            }
+            current.keys[i] = EMPTY;
+            current.values[i] = null;
+            isbnCount--;
+            return previous;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            others.clear();
+            table = new Table(MIN_CAPACITY);
+            isbnCount = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return isbnCount + others.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // Snapshot of the books; changes made while iterating are not reflected
+    @Override
+    public Collection<Book> values() {
+        long stamp = lock.readLock();
+        try {
+            List<Book> books = new ArrayList<>(isbnCount + others.size());
+            for (Book book : table.values) {
+                if (book != null) {
+                    books.add(book);
+                }
+            }
+            books.addAll(others.values());
+            return books;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<String, Book>> entrySet() {
+        Set<Map.Entry<String, Book>> entries = new LinkedHashSet<>();
+        for (Book book : values()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(book.getIsbn(), book));
+        }
+        return entries;
+    }
+
+    // May run under an optimistic read, so it must tolerate a table being
+    // changed underneath it; the probe is bounded by the table size
+    private static Book find(Table current, long isbn) {
+        int mask = current.keys.length - 1;
+        int i = slot(isbn, mask);
+        for (int probes = 0; probes <= mask; probes++) {
+            long key = current.keys[i];
+            if (key == isbn) {
+                return current.values[i];
+            }
+            if (key == EMPTY) {
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    private void resize(int capacity) {
+        Table old = table;
+        Table grown = new Table(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < old.keys.length; j++) {
+            if (old.keys[j] != EMPTY) {
+                int i = slot(old.keys[j], mask);
+                while (grown.keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                grown.keys[i] = old.keys[j];
+                grown.values[i] = old.values[j];
+            }
+        }
+        table = grown;
+    }
+
+    private static int slot(long isbn, int mask) {
+        long h = isbn * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
+
+// Latency histogram in the style of HdrHistogram. Values are counted in
+// buckets that widen with the value, 32 to each power of two, so a latency of
+// any size is kept to within about 3% in a fixed array of counters. Recording
+// is a few atomic updates and allocates nothing, so it can sit on every
+// library operation.
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(nanos));
+        totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // Another thread raised the maximum; compare against the new one
+        }
+    }
+
+    // Values below SUB_BUCKETS have a bucket each; above that the top
+    // SUB_BUCKET_BITS + 1 bits of the value pick the bucket
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    // Largest value counted in the bucket
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    // Copy for reporting. Recording carries on while it is taken, so the
+    // figures can be a few operations apart.
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, totalNanos.get(), maxNanos.get());
+    }
+
+    static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        Snapshot(long[] counts, long count, long totalNanos, long maxNanos) {
+            this.counts = counts;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() { return count; }
+        public long getMaxNanos() { return maxNanos; }
+
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        // Nearest-rank percentile, reported as the top of its bucket
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+    }
+}
+
+// Named latency histograms and counters for the library's operations. Each
+// timer is published over JMX as lms:type=Operation,name=<timer> when it is
+// created, and the counters together as lms:type=Counters. The Library keeps
+// the metrics in static fields, so the hot paths never look up a name.
+class MetricsRegistry {
+    static final MetricsRegistry LIBRARY = new MetricsRegistry();
+
+    private static final String DOMAIN = "lms";
+    private static final String[] TIMER_ATTRIBUTES = {
+        "Count", "MeanMicros", "P50Micros", "P90Micros", "P99Micros", "P999Micros", "MaxMicros"
+    };
+
+    private final Map<String, LatencyHistogram> timers = new LinkedHashMap<>();
+    private final Map<String, LongAdder> counters = new LinkedHashMap<>();
+
+    public synchronized LatencyHistogram timer(String name) {
+        LatencyHistogram timer = timers.get(name);
+        if (timer == null) {
+            timer = new LatencyHistogram();
+            timers.put(name, timer);
+            register(new TimerMBean(name, timer), DOMAIN + ":type=Operation,name=" + name);
+        }
+        return timer;
+    }
+
+    public synchronized LongAdder counter(String name) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            if (counters.isEmpty()) {
+                register(new CountersMBean(), DOMAIN + ":type=Counters");
+            }
+            counter = new LongAdder();
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    // Metrics still work without JMX, so a failed registration is only reported
+    private static void register(DynamicMBean bean, String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName(name));
+        } catch (JMException e) {
+            System.err.println("Could not publish " + name + " over JMX: " + e.getMessage());
+        }
+    }
+
+    // Plain-text table of every timer (in microseconds) and counter
+    public synchronized String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-16s %10s %10s %10s %10s %10s %10s %10s\n",
+                "Operation", "Count", "Mean", "p50", "p90", "p99", "p99.9", "Max"));
+        for (Map.Entry<String, LatencyHistogram> entry : timers.entrySet()) {
+            LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+            report.append(String.format("%-16s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f\n",
+                    entry.getKey(), snapshot.getCount(), snapshot.getMeanNanos() / 1000.0,
+                    snapshot.getValueAtPercentile(50) / 1000.0, snapshot.getValueAtPercentile(90) / 1000.0,
+                    snapshot.getValueAtPercentile(99) / 1000.0, snapshot.getValueAtPercentile(99.9) / 1000.0,
+                    snapshot.getMaxNanos() / 1000.0));
+        }
+        report.append("(times in microseconds)\n");
+        if (!counters.isEmpty()) {
+            report.append('\n');
+            for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+                report.append(String.format("%-27s %10d\n", entry.getKey(), entry.getValue().sum()));
+            }
+        }
+        return report.toString();
+    }
+
+    private synchronized Map<String, Long> counterValues() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().sum());
+        }
+        return values;
+    }
+
+    // Read-only MBean whose attributes are computed on request
+    private abstract static class ReadOnlyMBean implements DynamicMBean {
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                try {
+                    list.add(new Attribute(name, getAttribute(name)));
+                } catch (JMException e) {
+                    // Unknown attributes are left out, as the interface allows
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(action));
+        }
+
+        static MBeanAttributeInfo attribute(String name, String type, String description) {
+            return new MBeanAttributeInfo(name, type, description, true, false, false);
+        }
+    }
+
+    private static final class TimerMBean extends ReadOnlyMBean {
+        private final String name;
+        private final LatencyHistogram timer;
+
+        TimerMBean(String name, LatencyHistogram timer) {
+            this.name = name;
+            this.timer = timer;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            LatencyHistogram.Snapshot snapshot = timer.snapshot();
+            switch (attribute) {
+                case "Count": return snapshot.getCount();
+                case "MeanMicros": return snapshot.getMeanNanos() / 1000.0;
+                case "P50Micros": return snapshot.getValueAtPercentile(50) / 1000.0;
+                case "P90Micros": return snapshot.getValueAtPercentile(90) / 1000.0;
+                case "P99Micros": return snapshot.getValueAtPercentile(99) / 1000.0;
+                case "P999Micros": return snapshot.getValueAtPercentile(99.9) / 1000.0;
+                case "MaxMicros": return snapshot.getMaxNanos() / 1000.0;
+                default: throw new AttributeNotFoundException(attribute);
+            }
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[TIMER_ATTRIBUTES.length];
+            attributes[0] = attribute("Count", "long", "Operations recorded");
+            for (int i = 1; i < attributes.length; i++) {
+                attributes[i] = attribute(TIMER_ATTRIBUTES[i], "double", "Latency in microseconds");
+            }
+            return new MBeanInfo(getClass().getName(), "Latency of " + name, attributes, null, null, null);
+        }
+    }
+
+    private final class CountersMBean extends ReadOnlyMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = counterValues().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : counterValues().keySet()) {
+                attributes.add(attribute(name, "long", name));
+            }
+            return new MBeanInfo(getClass().getName(), "Library counters",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
+
+// Library class
+class Library implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private Map<String, Book> books;
+    private Map<String, Member> members;
+    private transient SearchIndex searchIndex = new SearchIndex();
+    private transient SearchCache searchCache = new SearchCache(searchIndex);
+    private transient LoanIndex loanIndex = new LoanIndex();
+    private transient FacetIndex facetIndex = new FacetIndex();
+    private transient PersistenceWriter persistence = new PersistenceWriter(this::writeData);
+    private static final String BOOKS_FILE = "books.dat";
+    private static final String MEMBERS_FILE = "members.dat";
+    private static final String BOOKS_INDEX_FILE = "books.idx";
+    private static final int MAX_BORROW_DAYS = 14;
+    private static final int MAX_BOOKS_PER_MEMBER = 5;
+    // Operation latencies, including any wait for the library lock, and
+    // persistence totals. Shown on the Reports tab and published over JMX.
+    private static final LatencyHistogram ADD_BOOK_TIME = MetricsRegistry.LIBRARY.timer("addBook");
+    private static final LatencyHistogram REMOVE_BOOK_TIME = MetricsRegistry.LIBRARY.timer("removeBook");
+    private static final LatencyHistogram SEARCH_TIME = MetricsRegistry.LIBRARY.timer("searchBooks");
+    private static final LatencyHistogram BORROW_TIME = MetricsRegistry.LIBRARY.timer("borrowBook");
+    private static final LatencyHistogram RETURN_TIME = MetricsRegistry.LIBRARY.timer("returnBook");
+    private static final LatencyHistogram LOAD_TIME = MetricsRegistry.LIBRARY.timer("loadData");
+    private static final LatencyHistogram SAVE_TIME = MetricsRegistry.LIBRARY.timer("saveData");
+    private static final LongAdder SAVED_BYTES = MetricsRegistry.LIBRARY.counter("saveData.bytes");
+    private static final LongAdder SAVE_ERRORS = MetricsRegistry.LIBRARY.counter("saveData.errors");
+    // Stamped into books.dat and books.idx so a stale index is never loaded
+    private transient long saveGeneration;
+    private final transient File dataDir;
+    private final transient SnapshotStore snapshots;
+    private transient String startupReport = "";
+
+    public Library() {
+        this(new File("."));
+    }
+
+    // Keeps the snapshots of books.dat, members.dat and books.idx in the given directory
+    Library(File dataDir) {
+        this.dataDir = dataDir;
+        snapshots = new SnapshotStore(dataDir);
+        books = new IsbnBookMap();
+        members = new HashMap<>();
+        long start = System.nanoTime();
+        loadData();
+        LOAD_TIME.record(System.nanoTime() - start);
+    }
+
+    // Book management methods
+    public boolean addBook(String isbn, String title, String author, String genre) {
+        long start = System.nanoTime();
+        try {
+            synchronized (this) {
+                if (books.containsKey(isbn)) {
+                    return false;
+                }
+                Book book = new Book(isbn, title, author, genre);
+                books.put(isbn, book);
+                searchIndex.add(book);
+                searchCache.invalidate();
+                facetIndex.add(book);
+                saveData();
+                return true;
+            }
+        } finally {
+            ADD_BOOK_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    public boolean removeBook(String isbn) {
+        long start = System.nanoTime();
+        try {
+            synchronized (this) {
+                if (!books.containsKey(isbn)) {
+                    return false;
+                }
+                Book book = books.get(isbn);
+                if (!book.isAvailable()) {
+                    return false;
+                }
+                books.remove(isbn);
+                isbn = book.getIsbn(); // The indexes use the catalog's spelling
+                searchIndex.remove(isbn);
+                searchCache.invalidate();
+                facetIndex.remove(book);
+                saveData();
+                return true;
+            }
+        } finally {
+            REMOVE_BOOK_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    public List<Book> searchBooks(String query) {
+        long start = System.nanoTime();
+        try {
+            synchronized (this) {
+                List<Book> results = new ArrayList<>();
+                if (query == null || query.trim().isEmpty()) {
+                    return getAllBooks();
+                }
+        
+                for (String isbn : searchCache.search(query)) {
+                    results.add(books.get(isbn));
+                }
+                return results;
+            }
+        } finally {
+            SEARCH_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    public synchronized List<Book> getAllBooks() {
+        return new ArrayList<>(books.values());
+    }
+
+    // Facet counts for the browse sidebar
+    public synchronized Map<String, Integer> getGenreCounts() {
+        return facetIndex.getGenreCounts();
+    }
+
+    public synchronized Map<String, Integer> getAuthorCounts() {
+        return facetIndex.getAuthorCounts();
+    }
+
+    // Available, Borrowed and Overdue counts
+    public synchronized Map<String, Integer> getStatusCounts() {
+        return facetIndex.getStatusCounts(LocalDate.now());
+    }
+
+    // Books matching all of the chosen facets; pass null to leave a facet open.
+    // status is one of FacetIndex.AVAILABLE, BORROWED or OVERDUE.
+    public synchronized List<Book> browseBooks(String genre, String author, String status) {
+        return facetIndex.select(genre, author, status, null, LocalDate.now());
+    }
+
+    // Search hits narrowed by facets, e.g. available Fantasy books with "ring"
+    // in a field. The hits become a bitmap of ordinals and are intersected with
+    // the facet bitmaps.
+    public List<Book> findBooks(String query, String genre, String author, String status) {
+        long start = System.nanoTime();
+        try {
+            synchronized (this) {
+                if (query == null || query.trim().isEmpty()) {
+                    return browseBooks(genre, author, status);
+                }
+                OrdinalBitmap hits = new OrdinalBitmap();
+                for (String isbn : searchCache.search(query)) {
+                    hits.add(books.get(isbn).getOrdinal());
+                }
+                return facetIndex.select(genre, author, status, hits, LocalDate.now());
+            }
+        } finally {
+            SEARCH_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    // Member management methods
+    public synchronized boolean addMember(String memberId, String name, String email, String phone) {
+        if (members.containsKey(memberId)) {
+            return false;
+        }
+        members.put(memberId, new Member(memberId, name, email, phone));
+        saveData();
+        return true;
+    }
+
+    public synchronized boolean removeMember(String memberId) {
+        if (!members.containsKey(memberId)) {
+            return false;
+        }
+        Member member = members.get(memberId);
+        if (member.getBorrowedCount() > 0) {
+            return false;
+        }
+        members.remove(memberId);
+        saveData();
+        return true;
+    }
+
+    public synchronized List<Member> getAllMembers() {
+        return new ArrayList<>(members.values());
+    }
+
+    // Borrowing and returning methods
+    public String borrowBook(String isbn, String memberId) {
+        long start = System.nanoTime();
+        try {
+            synchronized (this) {
+                if (!books.containsKey(isbn)) {
+                    return "Book not found!";
+                }
+                if (!members.containsKey(memberId)) {
+                    return "Member not found!";
+                }
+
+                Book book = books.get(isbn);
+                Member member = members.get(memberId);
+                isbn = book.getIsbn(); // The indexes use the catalog's spelling
+
+                if (!book.isAvailable()) {
+                    return member.hasBorrowed(isbn) ? "Member has already borrowed this book!" : "Book is already borrowed!";
+                }
+
+                if (member.getBorrowedCount() >= MAX_BOOKS_PER_MEMBER) {
+                    return "Member has reached maximum borrowing limit!";
+                }
+
+                // Borrow the book
+                book.setAvailable(false);
+                book.setBorrowedBy(memberId);
+                book.setBorrowDate(LocalDate.now());
+                book.setDueDate(LocalDate.now().plusDays(MAX_BORROW_DAYS));
+                member.borrowBook(book.getIsbn());
+                loanIndex.add(isbn, book.getDueDate());
+                facetIndex.setAvailable(book, false);
+        
+                saveData();
+                return "Book borrowed successfully! Due date: " + 
+                       book.getDueDate().format(DateTimeFormatter.ofPattern("dd-MM-yyyy"));
+            }
+        } finally {
+            BORROW_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    public String returnBook(String isbn) {
+        long start = System.nanoTime();
+        try {
+            synchronized (this) {
+                if (!books.containsKey(isbn)) {
+                    return "Book not found!";
+                }
+
+                Book book = books.get(isbn);
+                if (book.isAvailable()) {
+                    return "Book is not currently borrowed!";
+                }
+                isbn = book.getIsbn();
+
+                String memberId = book.getBorrowedBy();
+                Member member = members.get(memberId);
+
+                String result = "Book returned successfully!";
+        
+                // Check for overdue
+                if (LocalDate.now().isAfter(book.getDueDate())) {
+                    long overdueDays = LocalDate.now().toEpochDay() - book.getDueDate().toEpochDay();
+                    result += " (Was overdue by " + overdueDays + " days)";
+                }
+
+                // Return the book
+                loanIndex.remove(isbn, book.getDueDate());
+                book.setAvailable(true);
+                book.setBorrowedBy(null);
+                book.setBorrowDate(null);
+                book.setDueDate(null);
+                facetIndex.setAvailable(book, true);
+                if (member != null) {
+                    member.returnBook(isbn);
+                }
+
+                saveData();
+                return result;
+            }
+        } finally {
+            RETURN_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    public synchronized List<Book> getBorrowedBooks() {
+        List<Book> borrowedBooks = new ArrayList<>();
+        for (String isbn : loanIndex.getBorrowed()) {
+            borrowedBooks.add(books.get(isbn));
+        }
+        return borrowedBooks;
+    }
+
+    public synchronized List<Book> getOverdueBooks() {
+        return lookupBooks(loanIndex.getOverdue(LocalDate.now()));
+    }
+
+    // Borrowed books due between today and the given number of days from now
+    public synchronized List<Book> getBooksDueWithin(int days) {
+        LocalDate today = LocalDate.now();
+        return lookupBooks(loanIndex.getDueBetween(today, today.plusDays(days)));
+    }
+
+    private List<Book> lookupBooks(List<String> isbns) {
+        List<Book> result = new ArrayList<>(isbns.size());
+        for (String isbn : isbns) {
+            result.add(books.get(isbn));
+        }
+        return result;
+    }
+
+    public synchronized Member getMember(String memberId) {
+        return members.get(memberId);
+    }
+
+    // Members for a batch of IDs under one lock, null where there is none
+    public synchronized List<Member> getMembers(List<String> memberIds) {
+        List<Member> result = new ArrayList<>(memberIds.size());
+        for (String memberId : memberIds) {
+            result.add(members.get(memberId));
+        }
+        return result;
+    }
+
+    public synchronized Book getBook(String isbn) {
+        return books.get(isbn);
+    }
+
+    // Data persistence methods
+    // Loads the newest snapshot whose books.dat and members.dat pass their
+    // checksums. A damaged snapshot is set aside and the previous one is tried
+    // instead; plain books.dat and members.dat (written before snapshots) are
+    // only read when there is no usable snapshot.
+    private void loadData() {
+        long start = System.nanoTime();
+        List<Book> bookList = Collections.emptyList();
+        List<Member> memberList = Collections.emptyList();
+        boolean fromSnapshot = false;
+        for (long generation : snapshots.generations(BOOKS_FILE, MEMBERS_FILE)) {
+            try {
+                bookList = readBooks(snapshots.read(generation, BOOKS_FILE));
+                memberList = readMembers(snapshots.read(generation, MEMBERS_FILE));
+                fromSnapshot = true;
+                break;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Snapshot " + generation + " is damaged, loading the previous one: " + e.getMessage());
+                snapshots.markDamaged(generation, BOOKS_FILE, MEMBERS_FILE, BOOKS_INDEX_FILE);
+            }
+        }
+        if (!fromSnapshot) {
+            File booksFile = new File(dataDir, BOOKS_FILE);
+            File membersFile = new File(dataDir, MEMBERS_FILE);
+            migrateLegacyData(booksFile, CatalogFormat.BOOKS);
+            migrateLegacyData(membersFile, CatalogFormat.MEMBERS);
+            try {
+                bookList = readBooks(ByteBuffer.wrap(Files.readAllBytes(booksFile.toPath())));
+            } catch (Exception e) {
+                // File doesn't exist or is corrupted, start with empty data
+                bookList = Collections.emptyList();
+            }
+            try {
+                memberList = readMembers(ByteBuffer.wrap(Files.readAllBytes(membersFile.toPath())));
+            } catch (Exception e) {
+                // File doesn't exist or is corrupted, start with empty data
+                memberList = Collections.emptyList();
+            }
+        }
+
+        long decoded = System.nanoTime();
+        buildCatalog(bookList, memberList, fromSnapshot);
+        long built = System.nanoTime();
+        startupReport = String.format("Loaded %,d books and %,d members in %d ms (read %d ms, indexes %d ms)",
+                bookList.size(), memberList.size(), (built - start) / 1_000_000,
+                (decoded - start) / 1_000_000, (built - decoded) / 1_000_000);
+    }
+
+    // Decodes the chunks in parallel; the books come back in file order
+    private List<Book> readBooks(ByteBuffer file) throws IOException {
+        try (CatalogReader reader = new CatalogReader(file.array(), file.limit())) {
+            List<Book> loaded = reader.readAllBooks();
+            saveGeneration = reader.getGeneration();
+            return loaded;
+        }
+    }
+
+    private List<Member> readMembers(ByteBuffer file) throws IOException {
+        try (CatalogReader reader = new CatalogReader(file.array(), file.limit())) {
+            return reader.readAllMembers();
+        }
+    }
+
+    // Fills the maps and indexes from the loaded records. The search index and
+    // the facet and loan indexes do not depend on the maps or on each other, so
+    // they are built on the common ForkJoinPool while this thread fills the
+    // books map and then the members, which share its ISBN strings.
+    private void buildCatalog(List<Book> bookList, List<Member> memberList, boolean fromSnapshot) {
+        searchIndex.clear();
+        loanIndex.clear();
+        ForkJoinTask<?> search = ForkJoinPool.commonPool().submit(() -> searchIndex.addAll(bookList));
+        ForkJoinTask<?> facets = ForkJoinPool.commonPool().submit(() -> {
+            boolean facetsLoaded = loadFacetIndex(bookList, fromSnapshot);
+            for (Book book : bookList) {
+                if (!facetsLoaded) {
+                    facetIndex.add(book);
+                }
+                if (!book.isAvailable()) {
+                    loanIndex.add(book.getIsbn(), book.getDueDate());
+                }
+            }
+        });
+
+        Map<String, Book> loadedBooks = new IsbnBookMap(bookList.size());
+        for (Book book : bookList) {
+            loadedBooks.put(book.getIsbn(), book);
+        }
+        Map<String, Member> loadedMembers = new HashMap<>(memberList.size() * 4 / 3 + 1);
+        for (Member member : memberList) {
+            member.shareIsbns(loadedBooks);
+            loadedMembers.put(member.getMemberId(), member);
+        }
+        books = loadedBooks;
+        members = loadedMembers;
+
+        search.join();
+        facets.join();
+        searchCache.invalidate();
+    }
+
+    // How long the last load took, for the status bar
+    public String getStartupReport() {
+        return startupReport;
+    }
+
+    // Reads books.idx if it was written together with the books.dat just loaded
+    private boolean loadFacetIndex(List<Book> booksInFileOrder, boolean fromSnapshot) {
+        if (booksInFileOrder.isEmpty()) {
+            facetIndex.clear();
+            return false;
+        }
+        try (InputStream in = openFacetIndex(fromSnapshot)) {
+            if (in != null && facetIndex.load(in, booksInFileOrder, saveGeneration)) {
+                return true;
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading " + BOOKS_INDEX_FILE + ", rebuilding it: " + e.getMessage());
+        }
+        facetIndex.clear();
+        return false;
+    }
+
+    // The snapshot's books.idx, or the plain one next to books.dat; null if missing
+    private InputStream openFacetIndex(boolean fromSnapshot) throws IOException {
+        if (fromSnapshot) {
+            return snapshots.exists(saveGeneration, BOOKS_INDEX_FILE)
+                    ? snapshots.open(saveGeneration, BOOKS_INDEX_FILE) : null;
+        }
+        File indexFile = new File(dataDir, BOOKS_INDEX_FILE);
+        return indexFile.exists() ? new FileInputStream(indexFile) : null;
+    }
+
+    // Converts a books.dat/members.dat written by older versions, keeping a .bak copy
+    private void migrateLegacyData(File file, byte kind) {
+        if (!CatalogFormat.isLegacy(file)) {
+            return;
+        }
+        try {
+            CatalogFormat.migrateLegacy(file, kind);
+        } catch (IOException e) {
+            System.err.println("Error converting " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    // Changes are written by the persistence thread shortly afterwards
+    private void saveData() {
+        persistence.markDirty();
+    }
+
+    // Runs on the persistence thread: copies the records and facet bitmaps under
+    // the library lock, then encodes and writes them as the next snapshot
+    // without holding it. Package-private for the benchmarks.
+    void writeData() {
+        long start = System.nanoTime();
+        long generation;
+        LocalDate today = LocalDate.now();
+        List<Book> bookCopies;
+        List<Member> memberCopies;
+        FacetIndex facetCopy;
+        synchronized (this) {
+            generation = ++saveGeneration;
+            // Books go out in ordinal order so the index can be matched up on load
+            List<Book> current = facetIndex.getBooks();
+            bookCopies = new ArrayList<>(current.size());
+            for (Book book : current) {
+                bookCopies.add(book.copy());
+            }
+            memberCopies = new ArrayList<>(members.size());
+            for (Member member : members.values()) {
+                memberCopies.add(member.copy());
+            }
+            facetCopy = facetIndex.copy(today);
+        }
+
+        ByteArrayOutputStream booksBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream membersBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        try {
+            CatalogFormat.writeBooks(booksBytes, bookCopies, generation);
+            CatalogFormat.writeMembers(membersBytes, memberCopies, 0);
+            facetCopy.write(indexBytes, generation, today);
+        } catch (IOException e) {
+            System.err.println("Error saving data: " + e.getMessage());
+            SAVE_ERRORS.increment();
+            return;
+        }
+
+        // Until the new manifest is in place the previous snapshot stays current,
+        // so a failed or interrupted save loses only this one
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put(BOOKS_FILE, booksBytes.toByteArray());
+        files.put(MEMBERS_FILE, membersBytes.toByteArray());
+        files.put(BOOKS_INDEX_FILE, indexBytes.toByteArray());
+        try {
+            snapshots.write(generation, files);
+            SAVED_BYTES.add(booksBytes.size() + membersBytes.size() + indexBytes.size());
+        } catch (IOException e) {
+            System.err.println("Error saving data: " + e.getMessage());
+            SAVE_ERRORS.increment();
+        }
+        SAVE_TIME.record(System.nanoTime() - start);
+    }
+
+    // Writes pending changes before exit
+    public void close() {
+        persistence.flush();
+    }
+
+    // Hit, refinement and miss counts of the search result cache
+    public String getSearchCacheStats() {
+        return searchCache.toString();
+    }
+
+    public synchronized Map<String, Integer> getLibraryStats() {
+        Map<String, Integer> stats = new HashMap<>();
+        stats.put("totalBooks", books.size());
+        stats.put("totalMembers", members.size());
+        
+        int borrowedCount = loanIndex.getBorrowedCount();
+        stats.put("availableBooks", books.size() - borrowedCount);
+        stats.put("borrowedBooks", borrowedCount);
+        stats.put("overdueBooks", loanIndex.getOverdueCount(LocalDate.now()));
+        
+        return stats;
+    }
+}
+
+// Keeps the most recent latency samples so the status bar can show a percentile
+class LatencyRecorder {
+    private final long[] samples;
+    private int count;
+    private int next;
+
+    public LatencyRecorder(int capacity) {
+        samples = new long[capacity];
+    }
+
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    // Nearest-rank percentile of the retained samples, in milliseconds
+    public synchronized double percentileMillis(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * count);
+        return sorted[Math.max(0, rank - 1)] / 1_000_000.0;
+    }
+}
+
+// Writes a loan report a chunk of rows at a time, as plain text or CSV, so a
+// report over tens of thousands of loans is never built as one string.
+// Borrowers are looked up a chunk at a time in one library call, and dates
+// share one formatter.
+class LoanReportWriter {
+    enum Format {
+        TEXT("Text"), CSV("CSV");
+
+        private final String label;
+
+        Format(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    enum Report {
+        OVERDUE("OVERDUE BOOKS REPORT", "No overdue books found.",
+                "ISBN", "Title", "Author", "Borrowed by", "Member ID", "Due Date", "Days Overdue"),
+        BORROWED("ALL BORROWED BOOKS REPORT", "No books are currently borrowed.",
+                "ISBN", "Title", "Author", "Borrowed by", "Member ID", "Borrow Date", "Due Date", "Status"),
+        DUE_SOON("BOOKS DUE IN THE NEXT 7 DAYS", "No books are due in the next 7 days.",
+                "ISBN", "Title", "Borrowed by", "Member ID", "Due Date");
+
+        final String title;
+        final String emptyMessage;
+        final String[] columns;
+
+        Report(String title, String emptyMessage, String... columns) {
+            this.title = title;
+            this.emptyMessage = emptyMessage;
+            this.columns = columns;
+        }
+    }
+
+    static final int CHUNK_SIZE = 500;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+    private static final String SEPARATOR = "----------------------------------------\n";
+
+    private final Report report;
+    private final Format format;
+    private final Writer out;
+    private final LocalDate today = LocalDate.now();
+    private final String[] row;
+    private int rows;
+
+    public LoanReportWriter(Report report, Format format, Writer out) {
+        this.report = report;
+        this.format = format;
+        this.out = out;
+        this.row = new String[report.columns.length];
+    }
+
+    public int getRowCount() { return rows; }
+
+    public void writeHeader() throws IOException {
+        if (format == Format.CSV) {
+            writeCsvRow(report.columns);
+        } else {
+            out.write("=== " + report.title + " ===\n\n");
+        }
+    }
+
+    // Books returned since the list was taken are skipped
+    public void writeChunk(Library library, List<Book> books) throws IOException {
+        List<String> memberIds = new ArrayList<>(books.size());
+        for (Book book : books) {
+            memberIds.add(book.getBorrowedBy());
         }
-        
-        String lowerQuery = query.toLowerCase();
-        for (Book book : books.values()) {
-            if (book.getTitle().toLowerCase().contains(lowerQuery) ||
-                book.getAuthor().toLowerCase().contains(lowerQuery) ||
-                book.getGenre().toLowerCase().contains(lowerQuery) ||
-                book.getIsbn().toLowerCase().contains(lowerQuery)) {
-                results.add(book);
+        List<Member> borrowers = library.getMembers(memberIds);
+        for (int i = 0; i < books.size(); i++) {
+            Book book = books.get(i);
+            String memberId = memberIds.get(i);
+            LocalDate dueDate = book.getDueDate();
+            if (memberId == null || dueDate == null) {
+                continue;
             }
+            Member member = borrowers.get(i);
+            fillRow(book, member != null ? member.getName() : "Unknown", memberId, dueDate);
+            if (format == Format.CSV) {
+                writeCsvRow(row);
+            } else {
+                writeTextRow();
+            }
+            rows++;
         }
-        return results;
     }
 
-    public List<Book> getAllBooks() {
-        return new ArrayList<>(books.values());
+    public void writeFooter() throws IOException {
+        if (format == Format.TEXT && rows == 0) {
+            out.write(report.emptyMessage + "\n");
+        }
     }
 
-    // Member management methods
-    public boolean addMember(String memberId, String name, String email, String phone) {
-        if (members.containsKey(memberId)) {
-            return false;
+    private void fillRow(Book book, String borrowerName, String memberId, LocalDate dueDate) {
+        int column = 0;
+        row[column++] = book.getIsbn();
+        row[column++] = book.getTitle();
+        if (report != Report.DUE_SOON) {
+            row[column++] = book.getAuthor();
+        }
+        row[column++] = borrowerName;
+        row[column++] = memberId;
+        if (report == Report.BORROWED) {
+            LocalDate borrowDate = book.getBorrowDate();
+            row[column++] = borrowDate != null ? borrowDate.format(DATE_FORMAT) : "";
+        }
+        row[column++] = dueDate.format(DATE_FORMAT);
+        long overdueDays = today.toEpochDay() - dueDate.toEpochDay();
+        if (report == Report.OVERDUE) {
+            row[column] = Long.toString(overdueDays);
+        } else if (report == Report.BORROWED) {
+            row[column] = overdueDays > 0 ? "OVERDUE (" + overdueDays + " days)" : "On Time";
         }
-        members.put(memberId, new Member(memberId, name, email, phone));
-        saveData();
-        return true;
     }
 
-    public boolean removeMember(String memberId) {
-        if (!members.containsKey(memberId)) {
-            return false;
+    // Same layout as the reports used to have; the member ID goes in brackets
+    private void writeTextRow() throws IOException {
+        String[] columns = report.columns;
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals("Member ID")) {
+                continue;
+            }
+            out.write(columns[i]);
+            out.write(": ");
+            out.write(row[i]);
+            if (columns[i].equals("Borrowed by")) {
+                out.write(" (" + row[i + 1] + ")");
+            }
+            out.write('\n');
         }
-        Member member = members.get(memberId);
-        if (!member.getBorrowedBooks().isEmpty()) {
-            return false;
+        out.write(SEPARATOR);
+    }
+
+    private void writeCsvRow(String[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            String value = values[i];
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0) {
+                out.write('"');
+                out.write(value.replace("\"", "\"\""));
+                out.write('"');
+            } else {
+                out.write(value);
+            }
         }
-        members.remove(memberId);
-        saveData();
-        return true;
+        out.write('\n');
+    }
+}
+
+// Table model over a list of library objects. Cells are computed when the table
+// asks for them, and rows are found by key so a single change fires a single event.
+// The key map holds each row's position as of the last rebuild, counting removed
+// rows as if they were still there. removedPositions lists those gaps in order,
+// so a row's index is its position minus the gaps before it, and a removal does
+// not renumber every row after it. The map is rebuilt once the gaps pile up.
+abstract class KeyedTableModel<T> extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    protected static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+    private static final int MIN_GAPS_BEFORE_REBUILD = 64;
+
+    private final String[] columns;
+    private final List<T> rows = new ArrayList<>();
+    private final Map<String, Integer> rowByKey = new HashMap<>();
+    private final List<Integer> removedPositions = new ArrayList<>();
+
+    protected KeyedTableModel(String[] columns) {
+        this.columns = columns;
     }
 
-    public List<Member> getAllMembers() {
-        return new ArrayList<>(members.values());
+    protected abstract String keyOf(T item);
+
+    public void setRows(List<T> items) {
+        rows.clear();
+        rows.addAll(items);
+        rebuildKeys();
+        fireTableDataChanged();
     }
 
-    // Borrowing and returning methods
-    public String borrowBook(String isbn, String memberId) {
-        if (!books.containsKey(isbn)) {
-            return "Book not found!";
+    // Appends a page of rows that are not already in the table
+    public void addRows(List<T> items) {
+        int first = rows.size();
+        for (T item : items) {
+            if (!rowByKey.containsKey(keyOf(item))) {
+                rowByKey.put(keyOf(item), nextPosition());
+                rows.add(item);
+            }
         }
-        if (!members.containsKey(memberId)) {
-            return "Member not found!";
+        if (rows.size() > first) {
+            fireTableRowsInserted(first, rows.size() - 1);
         }
+    }
 
-        Book book = books.get(isbn);
-        Member member = members.get(memberId);
+    public T getRow(int row) {
+        return rows.get(row);
+    }
 
-        if (!book.isAvailable()) {
-            return "Book is already borrowed!";
+    public void rowAdded(T item) {
+        if (rowByKey.containsKey(keyOf(item))) {
+            rowChanged(keyOf(item));
+            return;
         }
+        int row = rows.size();
+        rowByKey.put(keyOf(item), nextPosition());
+        rows.add(item);
+        fireTableRowsInserted(row, row);
+    }
 
-        if (member.getBorrowedBooks().size() >= MAX_BOOKS_PER_MEMBER) {
-            return "Member has reached maximum borrowing limit!";
+    public void rowChanged(String key) {
+        Integer position = rowByKey.get(key);
+        if (position != null) {
+            int row = position - gapsBefore(position);
+            fireTableRowsUpdated(row, row);
         }
-
-        // Borrow the book
-        book.setAvailable(false);
-        book.setBorrowedBy(memberId);
-        book.setBorrowDate(LocalDate.now());
-        book.setDueDate(LocalDate.now().plusDays(MAX_BORROW_DAYS));
-        member.borrowBook(isbn);
-        
-        saveData();
-        return "Book borrowed successfully! Due date: " + 
-               book.getDueDate().format(DateTimeFormatter.ofPattern("dd-MM-yyyy"));
     }
 
-    public String returnBook(String isbn) {
-        if (!books.containsKey(isbn)) {
-            return "Book not found!";
+    public void rowRemoved(String key) {
+        Integer position = rowByKey.remove(key);
+        if (position == null) {
+            return;
         }
-
-        Book book = books.get(isbn);
-        if (book.isAvailable()) {
-            return "Book is not currently borrowed!";
+        int gaps = gapsBefore(position);
+        int row = position - gaps;
+        rows.remove(row);
+        removedPositions.add(gaps, position);
+        if (removedPositions.size() > Math.max(MIN_GAPS_BEFORE_REBUILD, rows.size() / 16)) {
+            rebuildKeys();
         }
+        fireTableRowsDeleted(row, row);
+    }
 
-        String memberId = book.getBorrowedBy();
-        Member member = members.get(memberId);
+    // Number of removed positions before this one
+    private int gapsBefore(int position) {
+        int index = Collections.binarySearch(removedPositions, position);
+        return index >= 0 ? index : -index - 1;
+    }
 
-        String result = "Book returned successfully!";
-        
-        // Check for overdue
-        if (LocalDate.now().isAfter(book.getDueDate())) {
-            long overdueDays = LocalDate.now().toEpochDay() - book.getDueDate().toEpochDay();
-            result += " (Was overdue by " + overdueDays + " days)";
-        }
+    private int nextPosition() {
+        return rows.size() + removedPositions.size();
+    }
 
-        // Return the book
-        book.setAvailable(true);
-        book.setBorrowedBy(null);
-        book.setBorrowDate(null);
-        book.setDueDate(null);
-        if (member != null) {
-            member.returnBook(isbn);
+    private void rebuildKeys() {
+        rowByKey.clear();
+        removedPositions.clear();
+        for (int i = 0; i < rows.size(); i++) {
+            rowByKey.put(keyOf(rows.get(i)), i);
         }
+    }
 
-        saveData();
-        return result;
+    @Override
+    public int getRowCount() {
+        return rows.size();
     }
 
-    public List<Book> getBorrowedBooks() {
-        List<Book> borrowedBooks = new ArrayList<>();
-        for (Book book : books.values()) {
-            if (!book.isAvailable()) {
-                borrowedBooks.add(book);
-            }
-        }
-        return borrowedBooks;
+    @Override
+    public int getColumnCount() {
+        return columns.length;
     }
 
-    public List<Book> getOverdueBooks() {
-        List<Book> overdueBooks = new ArrayList<>();
-        for (Book book : books.values()) {
-            if (!book.isAvailable() && book.getDueDate() != null && 
-                LocalDate.now().isAfter(book.getDueDate())) {
-                overdueBooks.add(book);
-            }
-        }
-        return overdueBooks;
+    @Override
+    public String getColumnName(int column) {
+        return columns[column];
     }
 
-    public Member getMember(String memberId) {
-        return members.get(memberId);
+    protected static String formatDate(LocalDate date) {
+        return date != null ? date.format(DATE_FORMAT) : "N/A";
     }
+}
 
-    public Book getBook(String isbn) {
-        return books.get(isbn);
+class BookTableModel extends KeyedTableModel<Book> {
+    private static final long serialVersionUID = 1L;
+
+    public BookTableModel() {
+        super(new String[] {"ISBN", "Title", "Author", "Genre", "Status"});
     }
 
-    // Data persistence methods
-    @SuppressWarnings("unchecked")
-    private void loadData() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(BOOKS_FILE))) {
-            books = (Map<String, Book>) ois.readObject();
-        } catch (Exception e) {
-            // File doesn't exist or is corrupted, start with empty data
-            books = new HashMap<>();
-        }
+    @Override
+    protected String keyOf(Book book) {
+        return book.getIsbn();
+    }
 
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(MEMBERS_FILE))) {
-            members = (Map<String, Member>) ois.readObject();
-        } catch (Exception e) {
-            // File doesn't exist or is corrupted, start with empty data
-            members = new HashMap<>();
+    @Override
+    public Object getValueAt(int row, int column) {
+        Book book = getRow(row);
+        switch (column) {
+            case 0: return book.getIsbn();
+            case 1: return book.getTitle();
+            case 2: return book.getAuthor();
+            case 3: return book.getGenre();
+            default:
+                return book.isAvailable() ? "Available" :
+                        "Borrowed" + (book.getDueDate() != null ? " (Due: " + book.getDueDate().format(DATE_FORMAT) + ")" : "");
         }
     }
+}
 
-    private void saveData() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(BOOKS_FILE))) {
-            oos.writeObject(books);
-        } catch (IOException e) {
-            System.err.println("Error saving books data: " + e.getMessage());
-        }
+class MemberTableModel extends KeyedTableModel<Member> {
+    private static final long serialVersionUID = 1L;
 
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(MEMBERS_FILE))) {
-            oos.writeObject(members);
-        } catch (IOException e) {
-            System.err.println("Error saving members data: " + e.getMessage());
+    public MemberTableModel() {
+        super(new String[] {"Member ID", "Name", "Email", "Phone", "Books Borrowed", "Member Since"});
+    }
+
+    @Override
+    protected String keyOf(Member member) {
+        return member.getMemberId();
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Member member = getRow(row);
+        switch (column) {
+            case 0: return member.getMemberId();
+            case 1: return member.getName();
+            case 2: return member.getEmail();
+            case 3: return member.getPhone();
+            case 4: return member.getBorrowedCount();
+            default: return formatDate(member.getMembershipDate());
         }
     }
+}
 
-    public Map<String, Integer> getLibraryStats() {
-        Map<String, Integer> stats = new HashMap<>();
-        stats.put("totalBooks", books.size());
-        stats.put("totalMembers", members.size());
-        
-        long availableCount = books.values().stream().filter(Book::isAvailable).count();
-        stats.put("availableBooks", (int) availableCount);
-        stats.put("borrowedBooks", books.size() - (int) availableCount);
-        
-        long overdueCount = books.values().stream()
-            .filter(book -> !book.isAvailable() && book.getDueDate() != null && 
-                           LocalDate.now().isAfter(book.getDueDate()))
-            .count();
-        stats.put("overdueBooks", (int) overdueCount);
-        
-        return stats;
+class BorrowedTableModel extends KeyedTableModel<Book> {
+    private static final long serialVersionUID = 1L;
+    private final Library library;
+
+    public BorrowedTableModel(Library library) {
+        super(new String[] {"ISBN", "Title", "Author", "Borrowed By", "Member Name", "Borrow Date", "Due Date", "Status"});
+        this.library = library;
+    }
+
+    @Override
+    protected String keyOf(Book book) {
+        return book.getIsbn();
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Book book = getRow(row);
+        switch (column) {
+            case 0: return book.getIsbn();
+            case 1: return book.getTitle();
+            case 2: return book.getAuthor();
+            case 3: return book.getBorrowedBy();
+            case 4:
+                Member member = library.getMember(book.getBorrowedBy());
+                return member != null ? member.getName() : "Unknown";
+            case 5: return formatDate(book.getBorrowDate());
+            case 6: return formatDate(book.getDueDate());
+            default:
+                if (book.getDueDate() != null && LocalDate.now().isAfter(book.getDueDate())) {
+                    long overdueDays = LocalDate.now().toEpochDay() - book.getDueDate().toEpochDay();
+                    return "OVERDUE (" + overdueDays + " days)";
+                }
+                return "On Time";
+        }
     }
 }
 
 // Main GUI class
 public class LibraryManagementGUI extends JFrame {
+    private static final long serialVersionUID = 1L;
     private Library library;
     private JTabbedPane tabbedPane;
-    private DefaultTableModel bookTableModel;
-    private DefaultTableModel memberTableModel;
-    private DefaultTableModel borrowedTableModel;
+    private BookTableModel bookTableModel;
+    private MemberTableModel memberTableModel;
+    private BorrowedTableModel borrowedTableModel;
     private JTable bookTable;
     private JTable memberTable;
     private JTable borrowedTable;
+    private JLabel statusLabel;
+    private JList<FacetChoice> genreFacetList;
+    private JList<FacetChoice> authorFacetList;
+    private JList<FacetChoice> statusFacetList;
+    private JTextField bookSearchField;
+    private boolean updatingFacets;
+
+    // Search-as-you-type: keystrokes are debounced, queries run on one background
+    // thread, and a newer query cancels the one in flight. searchGeneration is
+    // only touched on the EDT and discards pages from superseded queries.
+    private static final int SEARCH_DEBOUNCE_MILLIS = 150;
+    private static final int SEARCH_PAGE_SIZE = 1000;
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "book-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LatencyRecorder searchLatency = new LatencyRecorder(200);
+    private Future<?> pendingSearch;
+    private long searchGeneration;
+    private long lastKeystrokeNanos;
+
+    private static final int DIAGNOSTICS_REFRESH_MILLIS = 1000;
+    // The report being written, if any; only touched on the EDT
+    private ReportWorker reportWorker;
+
+    // The window opens at once on a loading card while the library loads in
+    // the background. Each tab's table is then filled the first time the tab
+    // is selected, so tabs that are never opened cost nothing.
+    private static final String LOADING_CARD = "loading";
+    private static final String TABS_CARD = "tabs";
+    private static final int BOOKS_TAB = 0;
+    private static final int MEMBERS_TAB = 1;
+    private static final int BORROW_TAB = 2;
+    private final boolean[] tabPopulated = new boolean[4];
+    private JPanel contentPanel;
 
     public LibraryManagementGUI() {
-        library = new Library();
         initializeGUI();
-        refreshAllTables();
+        new LibraryLoader().execute();
     }
 
     private void initializeGUI() {
@@ -347,21 +3752,22 @@ public class LibraryManagementGUI extends JFrame {
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
 
-        // Create tabbed pane
-        tabbedPane = new JTabbedPane();
-
-        // Add tabs
-        tabbedPane.addTab("Books", createBookPanel());
-        tabbedPane.addTab("Members", createMemberPanel());
-        tabbedPane.addTab("Borrow/Return", createBorrowReturnPanel());
-        tabbedPane.addTab("Reports", createReportsPanel());
+        JPanel loadingPanel = new JPanel(new GridBagLayout());
+        JPanel loadingBox = new JPanel(new BorderLayout(0, 10));
+        loadingBox.add(new JLabel("Loading library data...", SwingConstants.CENTER), BorderLayout.NORTH);
+        JProgressBar loadingProgress = new JProgressBar();
+        loadingProgress.setIndeterminate(true);
+        loadingBox.add(loadingProgress, BorderLayout.CENTER);
+        loadingPanel.add(loadingBox);
 
-        add(tabbedPane, BorderLayout.CENTER);
+        contentPanel = new JPanel(new CardLayout());
+        contentPanel.add(loadingPanel, LOADING_CARD);
+        add(contentPanel, BorderLayout.CENTER);
 
         // Status bar
         JPanel statusBar = new JPanel(new FlowLayout(FlowLayout.LEFT));
         statusBar.setBorder(BorderFactory.createLoweredBevelBorder());
-        JLabel statusLabel = new JLabel("Library Management System Ready");
+        statusLabel = new JLabel("Loading...");
         statusBar.add(statusLabel);
         add(statusBar, BorderLayout.SOUTH);
 
@@ -369,6 +3775,60 @@ public class LibraryManagementGUI extends JFrame {
         setLocationRelativeTo(null);
     }
 
+    // Builds the tabs once the library is loaded and fills the selected one
+    private void showTabs() {
+        tabbedPane = new JTabbedPane();
+        tabbedPane.addTab("Books", createBookPanel());
+        tabbedPane.addTab("Members", createMemberPanel());
+        tabbedPane.addTab("Borrow/Return", createBorrowReturnPanel());
+        tabbedPane.addTab("Reports", createReportsPanel());
+        tabbedPane.addChangeListener(e -> populateTab(tabbedPane.getSelectedIndex()));
+
+        contentPanel.add(tabbedPane, TABS_CARD);
+        ((CardLayout) contentPanel.getLayout()).show(contentPanel, TABS_CARD);
+        statusLabel.setText("Ready | " + library.getStartupReport());
+        populateTab(tabbedPane.getSelectedIndex());
+    }
+
+    private void populateTab(int index) {
+        if (index < 0 || tabPopulated[index]) {
+            return;
+        }
+        tabPopulated[index] = true;
+        switch (index) {
+            case BOOKS_TAB: refreshBookTable(); break;
+            case MEMBERS_TAB: refreshMemberTable(); break;
+            case BORROW_TAB: refreshBorrowedTable(); break;
+            default: break; // Reports are generated on request
+        }
+    }
+
+    // Loads the library off the EDT. The flush on exit is only registered
+    // once there is a library to flush.
+    private class LibraryLoader extends SwingWorker<Library, Void> {
+        @Override
+        protected Library doInBackground() {
+            return new Library();
+        }
+
+        @Override
+        protected void done() {
+            try {
+                library = get();
+            } catch (ExecutionException e) {
+                JOptionPane.showMessageDialog(LibraryManagementGUI.this,
+                        "Error loading library data: " + e.getCause().getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                System.exit(1);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(library::close, "library-flush"));
+            showTabs();
+        }
+    }
+
     private JPanel createBookPanel() {
         JPanel panel = new JPanel(new BorderLayout());
 
@@ -383,6 +3843,7 @@ public class LibraryManagementGUI extends JFrame {
         JTextField authorField = new JTextField(15);
         JTextField genreField = new JTextField(15);
         JTextField searchField = new JTextField(15);
+        bookSearchField = searchField;
 
         // Add components to form
         gbc.gridx = 0; gbc.gridy = 0;
@@ -426,13 +3887,7 @@ public class LibraryManagementGUI extends JFrame {
         formPanel.add(buttonPanel, gbc);
 
         // Table
-        String[] bookColumns = {"ISBN", "Title", "Author", "Genre", "Status"};
-        bookTableModel = new DefaultTableModel(bookColumns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        bookTableModel = new BookTableModel();
         bookTable = new JTable(bookTableModel);
         bookTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 
@@ -447,11 +3902,20 @@ public class LibraryManagementGUI extends JFrame {
                 JOptionPane.showMessageDialog(this, "All fields are required!", "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
+            if (!Isbn.isValid(isbn)) {
+                JOptionPane.showMessageDialog(this, "Please enter a valid ISBN-10 or ISBN-13!", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
 
             if (library.addBook(isbn, title, author, genre)) {
                 JOptionPane.showMessageDialog(this, "Book added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
                 clearBookForm(isbnField, titleField, authorField, genreField);
-                refreshBookTable();
+                refreshFacets(false);
+                if (bookFilterActive()) {
+                    applyFacets(); // Shown only if it matches the search and facets
+                } else {
+                    bookTableModel.rowAdded(library.getBook(isbn));
+                }
             } else {
                 JOptionPane.showMessageDialog(this, "Book with this ISBN already exists!", "Error", JOptionPane.ERROR_MESSAGE);
             }
@@ -464,33 +3928,147 @@ public class LibraryManagementGUI extends JFrame {
                 return;
             }
 
-            String isbn = (String) bookTableModel.getValueAt(selectedRow, 0);
+            String isbn = bookTableModel.getRow(selectedRow).getIsbn();
             int result = JOptionPane.showConfirmDialog(this, "Are you sure you want to remove this book?", "Confirm", JOptionPane.YES_NO_OPTION);
             
             if (result == JOptionPane.YES_OPTION) {
                 if (library.removeBook(isbn)) {
                     JOptionPane.showMessageDialog(this, "Book removed successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-                    refreshBookTable();
+                    bookTableModel.rowRemoved(isbn);
+                    refreshFacets(false);
                 } else {
                     JOptionPane.showMessageDialog(this, "Cannot remove book - it may be currently borrowed!", "Error", JOptionPane.ERROR_MESSAGE);
                 }
             }
         });
 
+        javax.swing.Timer searchDebounce = new javax.swing.Timer(SEARCH_DEBOUNCE_MILLIS,
+                e -> runSearch(searchField.getText().trim(), lastKeystrokeNanos));
+        searchDebounce.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) { searchChanged(); }
+            @Override
+            public void removeUpdate(DocumentEvent e) { searchChanged(); }
+            @Override
+            public void changedUpdate(DocumentEvent e) { searchChanged(); }
+
+            private void searchChanged() {
+                lastKeystrokeNanos = System.nanoTime();
+                searchDebounce.restart();
+            }
+        });
+
         searchButton.addActionListener(e -> {
-            String query = searchField.getText().trim();
-            List<Book> results = library.searchBooks(query);
-            populateBookTable(results);
+            searchDebounce.stop();
+            runSearch(searchField.getText().trim(), System.nanoTime());
         });
 
         refreshButton.addActionListener(e -> refreshBookTable());
 
         panel.add(formPanel, BorderLayout.NORTH);
+        panel.add(createFacetPanel(), BorderLayout.WEST);
         panel.add(new JScrollPane(bookTable), BorderLayout.CENTER);
 
         return panel;
     }
 
+    // One entry in a facet list; a null value stands for "All"
+    private static class FacetChoice {
+        final String value;
+        final int count;
+
+        FacetChoice(String value, int count) {
+            this.value = value;
+            this.count = count;
+        }
+
+        @Override
+        public String toString() {
+            return (value == null ? "All" : value) + " (" + count + ")";
+        }
+    }
+
+    private JPanel createFacetPanel() {
+        JPanel facetPanel = new JPanel(new GridLayout(3, 1, 0, 5));
+        facetPanel.setBorder(new TitledBorder("Browse"));
+        facetPanel.setPreferredSize(new Dimension(200, 0));
+
+        genreFacetList = new JList<>(new DefaultListModel<>());
+        authorFacetList = new JList<>(new DefaultListModel<>());
+        statusFacetList = new JList<>(new DefaultListModel<>());
+        for (JList<FacetChoice> list : Arrays.asList(genreFacetList, authorFacetList, statusFacetList)) {
+            list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+            list.setPrototypeCellValue(new FacetChoice("Science Fiction", 100000)); // Skips measuring every row
+            list.addListSelectionListener(e -> {
+                if (!e.getValueIsAdjusting() && !updatingFacets) {
+                    applyFacets();
+                }
+            });
+        }
+
+        facetPanel.add(facetScrollPane("Genre", genreFacetList));
+        facetPanel.add(facetScrollPane("Author", authorFacetList));
+        facetPanel.add(facetScrollPane("Status", statusFacetList));
+        return facetPanel;
+    }
+
+    private JScrollPane facetScrollPane(String title, JList<FacetChoice> list) {
+        JScrollPane scrollPane = new JScrollPane(list);
+        scrollPane.setBorder(new TitledBorder(title));
+        return scrollPane;
+    }
+
+    // Reloads the facet counts. Selections are kept where the value still
+    // exists, or reset to "All" when the whole catalog is being shown again.
+    private void refreshFacets(boolean resetSelection) {
+        if (!tabPopulated[BOOKS_TAB]) {
+            return; // Counted when the Books tab is first opened
+        }
+        Map<String, Integer> statusCounts = library.getStatusCounts();
+        int total = statusCounts.get(FacetIndex.AVAILABLE) + statusCounts.get(FacetIndex.BORROWED);
+        updatingFacets = true;
+        try {
+            fillFacetList(genreFacetList, library.getGenreCounts(), total, resetSelection);
+            fillFacetList(authorFacetList, library.getAuthorCounts(), total, resetSelection);
+            fillFacetList(statusFacetList, statusCounts, total, resetSelection);
+        } finally {
+            updatingFacets = false;
+        }
+    }
+
+    private void fillFacetList(JList<FacetChoice> list, Map<String, Integer> counts, int total, boolean resetSelection) {
+        String selected = resetSelection ? null : selectedFacet(list);
+        // A fresh model fires one event instead of one per element
+        DefaultListModel<FacetChoice> model = new DefaultListModel<>();
+        model.addElement(new FacetChoice(null, total));
+        int selectedIndex = 0;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getKey().equals(selected)) {
+                selectedIndex = model.getSize();
+            }
+            model.addElement(new FacetChoice(entry.getKey(), entry.getValue()));
+        }
+        list.setModel(model);
+        list.setSelectedIndex(selectedIndex);
+    }
+
+    private static String selectedFacet(JList<FacetChoice> list) {
+        FacetChoice choice = list.getSelectedValue();
+        return choice != null ? choice.value : null;
+    }
+
+    // True when a search or a facet selection narrows the book table
+    private boolean bookFilterActive() {
+        return !bookSearchField.getText().trim().isEmpty() || selectedFacet(genreFacetList) != null
+                || selectedFacet(authorFacetList) != null || selectedFacet(statusFacetList) != null;
+    }
+
+    // Facets narrow the current search, so the query is simply run again
+    private void applyFacets() {
+        runSearch(bookSearchField.getText().trim(), System.nanoTime());
+    }
+
     private JPanel createMemberPanel() {
         JPanel panel = new JPanel(new BorderLayout());
 
@@ -540,13 +4118,7 @@ public class LibraryManagementGUI extends JFrame {
         formPanel.add(buttonPanel, gbc);
 
         // Table
-        String[] memberColumns = {"Member ID", "Name", "Email", "Phone", "Books Borrowed", "Member Since"};
-        memberTableModel = new DefaultTableModel(memberColumns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        memberTableModel = new MemberTableModel();
         memberTable = new JTable(memberTableModel);
         memberTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 
@@ -565,7 +4137,7 @@ public class LibraryManagementGUI extends JFrame {
             if (library.addMember(memberId, name, email, phone)) {
                 JOptionPane.showMessageDialog(this, "Member added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
                 clearMemberForm(memberIdField, nameField, emailField, phoneField);
-                refreshMemberTable();
+                memberTableModel.rowAdded(library.getMember(memberId));
             } else {
                 JOptionPane.showMessageDialog(this, "Member with this ID already exists!", "Error", JOptionPane.ERROR_MESSAGE);
             }
@@ -578,13 +4150,13 @@ public class LibraryManagementGUI extends JFrame {
                 return;
             }
 
-            String memberId = (String) memberTableModel.getValueAt(selectedRow, 0);
+            String memberId = memberTableModel.getRow(selectedRow).getMemberId();
             int result = JOptionPane.showConfirmDialog(this, "Are you sure you want to remove this member?", "Confirm", JOptionPane.YES_NO_OPTION);
             
             if (result == JOptionPane.YES_OPTION) {
                 if (library.removeMember(memberId)) {
                     JOptionPane.showMessageDialog(this, "Member removed successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-                    refreshMemberTable();
+                    memberTableModel.rowRemoved(memberId);
                 } else {
                     JOptionPane.showMessageDialog(this, "Cannot remove member - they have borrowed books!", "Error", JOptionPane.ERROR_MESSAGE);
                 }
@@ -649,13 +4221,7 @@ public class LibraryManagementGUI extends JFrame {
         topPanel.add(returnPanel);
 
         // Borrowed books table
-        String[] borrowedColumns = {"ISBN", "Title", "Author", "Borrowed By", "Member Name", "Borrow Date", "Due Date", "Status"};
-        borrowedTableModel = new DefaultTableModel(borrowedColumns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        borrowedTableModel = new BorrowedTableModel(library);
         borrowedTable = new JTable(borrowedTableModel);
         borrowedTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 
@@ -674,7 +4240,11 @@ public class LibraryManagementGUI extends JFrame {
                 JOptionPane.showMessageDialog(this, result, "Success", JOptionPane.INFORMATION_MESSAGE);
                 borrowIsbnField.setText("");
                 borrowMemberIdField.setText("");
-                refreshAllTables();
+                Book borrowed = library.getBook(isbn);
+                bookTableModel.rowChanged(borrowed.getIsbn());
+                memberTableModel.rowChanged(memberId);
+                borrowedTableModel.rowAdded(borrowed);
+                refreshFacets(false);
             } else {
                 JOptionPane.showMessageDialog(this, result, "Error", JOptionPane.ERROR_MESSAGE);
             }
@@ -688,11 +4258,16 @@ public class LibraryManagementGUI extends JFrame {
                 return;
             }
 
+            Book returned = library.getBook(isbn);
+            String borrower = returned != null ? returned.getBorrowedBy() : null;
             String result = library.returnBook(isbn);
             if (result.startsWith("Book returned successfully")) {
                 JOptionPane.showMessageDialog(this, result, "Success", JOptionPane.INFORMATION_MESSAGE);
                 returnIsbnField.setText("");
-                refreshAllTables();
+                bookTableModel.rowChanged(returned.getIsbn());
+                memberTableModel.rowChanged(borrower);
+                borrowedTableModel.rowRemoved(returned.getIsbn());
+                refreshFacets(false);
             } else {
                 JOptionPane.showMessageDialog(this, result, "Error", JOptionPane.ERROR_MESSAGE);
             }
@@ -742,10 +4317,47 @@ public class LibraryManagementGUI extends JFrame {
         JButton refreshStatsButton = new JButton("Refresh Statistics");
         JButton showOverdueButton = new JButton("Show Overdue Books");
         JButton showBorrowedButton = new JButton("Show All Borrowed Books");
+        JButton showDueSoonButton = new JButton("Show Books Due This Week");
 
         buttonPanel.add(refreshStatsButton);
         buttonPanel.add(showOverdueButton);
         buttonPanel.add(showBorrowedButton);
+        buttonPanel.add(showDueSoonButton);
+
+        // Reports are written on a background worker, into the text area or a file
+        JPanel reportOptionsPanel = new JPanel(new FlowLayout());
+        JComboBox<LoanReportWriter.Format> reportFormatBox = new JComboBox<>(LoanReportWriter.Format.values());
+        JCheckBox saveReportBox = new JCheckBox("Save to File");
+        JProgressBar reportProgress = new JProgressBar(0, 100);
+        reportProgress.setStringPainted(true);
+        JButton cancelReportButton = new JButton("Cancel Report");
+        cancelReportButton.setEnabled(false);
+        reportOptionsPanel.add(new JLabel("Format:"));
+        reportOptionsPanel.add(reportFormatBox);
+        reportOptionsPanel.add(saveReportBox);
+        reportOptionsPanel.add(reportProgress);
+        reportOptionsPanel.add(cancelReportButton);
+
+        // Diagnostics: operation latencies and persistence totals, refreshed
+        // while the Reports tab is showing
+        JTextArea diagnosticsArea = new JTextArea(10, 80);
+        diagnosticsArea.setEditable(false);
+        diagnosticsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JPanel diagnosticsPanel = new JPanel(new BorderLayout());
+        diagnosticsPanel.setBorder(new TitledBorder("Diagnostics"));
+        diagnosticsPanel.add(new JScrollPane(diagnosticsArea), BorderLayout.CENTER);
+        javax.swing.Timer diagnosticsRefresh = new javax.swing.Timer(DIAGNOSTICS_REFRESH_MILLIS, e -> {
+            if (diagnosticsArea.isShowing()) {
+                diagnosticsArea.setText(MetricsRegistry.LIBRARY.report()
+                        + "\nSearch cache: " + library.getSearchCacheStats());
+                diagnosticsArea.setCaretPosition(0);
+            }
+        });
+        diagnosticsRefresh.start();
+
+        JPanel topPanel = new JPanel(new BorderLayout());
+        topPanel.add(statsPanel, BorderLayout.WEST);
+        topPanel.add(diagnosticsPanel, BorderLayout.CENTER);
 
         // Text area for reports
         JTextArea reportArea = new JTextArea(20, 50);
@@ -762,136 +4374,225 @@ public class LibraryManagementGUI extends JFrame {
             overdueBooksLabel.setText("Overdue Books: " + stats.get("overdueBooks"));
         });
 
-        showOverdueButton.addActionListener(e -> {
-            List<Book> overdueBooks = library.getOverdueBooks();
-            StringBuilder report = new StringBuilder();
-            report.append("=== OVERDUE BOOKS REPORT ===\n\n");
-            
-            if (overdueBooks.isEmpty()) {
-                report.append("No overdue books found.\n");
-            } else {
-                for (Book book : overdueBooks) {
-                    Member member = library.getMember(book.getBorrowedBy());
-                    long overdueDays = LocalDate.now().toEpochDay() - book.getDueDate().toEpochDay();
-                    
-                    report.append("ISBN: ").append(book.getIsbn()).append("\n");
-                    report.append("Title: ").append(book.getTitle()).append("\n");
-                    report.append("Author: ").append(book.getAuthor()).append("\n");
-                    report.append("Borrowed by: ").append(member != null ? member.getName() : "Unknown").append(" (").append(book.getBorrowedBy()).append(")\n");
-                    report.append("Due Date: ").append(book.getDueDate().format(DateTimeFormatter.ofPattern("dd-MM-yyyy"))).append("\n");
-                    report.append("Days Overdue: ").append(overdueDays).append("\n");
-                    report.append("----------------------------------------\n");
-                }
+        showOverdueButton.addActionListener(e -> startReport(LoanReportWriter.Report.OVERDUE,
+                (LoanReportWriter.Format) reportFormatBox.getSelectedItem(), saveReportBox.isSelected(),
+                reportArea, reportProgress, cancelReportButton));
+        showBorrowedButton.addActionListener(e -> startReport(LoanReportWriter.Report.BORROWED,
+                (LoanReportWriter.Format) reportFormatBox.getSelectedItem(), saveReportBox.isSelected(),
+                reportArea, reportProgress, cancelReportButton));
+        showDueSoonButton.addActionListener(e -> startReport(LoanReportWriter.Report.DUE_SOON,
+                (LoanReportWriter.Format) reportFormatBox.getSelectedItem(), saveReportBox.isSelected(),
+                reportArea, reportProgress, cancelReportButton));
+        cancelReportButton.addActionListener(e -> {
+            if (reportWorker != null) {
+                reportWorker.cancel(true);
             }
-            reportArea.setText(report.toString());
         });
 
-        showBorrowedButton.addActionListener(e -> {
-            List<Book> borrowedBooks = library.getBorrowedBooks();
-            StringBuilder report = new StringBuilder();
-            report.append("=== ALL BORROWED BOOKS REPORT ===\n\n");
-            
-            if (borrowedBooks.isEmpty()) {
-                report.append("No books are currently borrowed.\n");
-            } else {
-                for (Book book : borrowedBooks) {
-                    Member member = library.getMember(book.getBorrowedBy());
-                    
-                    report.append("ISBN: ").append(book.getIsbn()).append("\n");
-                    report.append("Title: ").append(book.getTitle()).append("\n");
-                    report.append("Author: ").append(book.getAuthor()).append("\n");
-                    report.append("Borrowed by: ").append(member != null ? member.getName() : "Unknown").append(" (").append(book.getBorrowedBy()).append(")\n");
-                    report.append("Borrow Date: ").append(book.getBorrowDate().format(DateTimeFormatter.ofPattern("dd-MM-yyyy"))).append("\n");
-                    report.append("Due Date: ").append(book.getDueDate().format(DateTimeFormatter.ofPattern("dd-MM-yyyy"))).append("\n");
-                    
-                    if (LocalDate.now().isAfter(book.getDueDate())) {
-                        long overdueDays = LocalDate.now().toEpochDay() - book.getDueDate().toEpochDay();
-                        report.append("Status: OVERDUE (").append(overdueDays).append(" days)\n");
-                    } else {
-                        report.append("Status: On Time\n");
-                    }
-                    report.append("----------------------------------------\n");
-                }
-            }
-            reportArea.setText(report.toString());
-        });
+        JPanel controlsPanel = new JPanel(new GridLayout(2, 1));
+        controlsPanel.add(buttonPanel);
+        controlsPanel.add(reportOptionsPanel);
 
-        panel.add(statsPanel, BorderLayout.NORTH);
-        panel.add(buttonPanel, BorderLayout.CENTER);
+        panel.add(topPanel, BorderLayout.NORTH);
+        panel.add(controlsPanel, BorderLayout.CENTER);
         panel.add(new JScrollPane(reportArea), BorderLayout.SOUTH);
 
         return panel;
     }
 
-    private void refreshAllTables() {
-        refreshBookTable();
-        refreshMemberTable();
-        refreshBorrowedTable();
+    // Starts writing a report into the text area, or into a file the user picks.
+    // A report that is still running is cancelled first.
+    private void startReport(LoanReportWriter.Report report, LoanReportWriter.Format format, boolean toFile,
+                             JTextArea reportArea, JProgressBar progress, JButton cancelButton) {
+        File file = null;
+        if (toFile) {
+            JFileChooser chooser = new JFileChooser();
+            String extension = format == LoanReportWriter.Format.CSV ? ".csv" : ".txt";
+            chooser.setSelectedFile(new File(report.name().toLowerCase().replace('_', '-') + "-report" + extension));
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            file = chooser.getSelectedFile();
+        }
+        if (reportWorker != null) {
+            reportWorker.cancel(true);
+        }
+        reportArea.setText(file != null ? "Writing report to " + file + "...\n" : "");
+        progress.setValue(0);
+        cancelButton.setEnabled(true);
+        reportWorker = new ReportWorker(report, format, file, reportArea, progress, cancelButton);
+        reportWorker.addPropertyChangeListener(event -> {
+            // A superseded worker's last update must not move the new report's bar
+            if ("progress".equals(event.getPropertyName()) && event.getSource() == reportWorker) {
+                progress.setValue((Integer) event.getNewValue());
+            }
+        });
+        reportWorker.execute();
     }
 
-    private void refreshBookTable() {
-        populateBookTable(library.getAllBooks());
+    // Writes a loan report a chunk at a time off the EDT. Text for the report
+    // area is published per chunk and appended, so the window stays responsive
+    // and the whole report is never held as one string. A file report is written
+    // next to the chosen file and renamed onto it once complete, so a cancelled
+    // or failed report leaves no partial file behind.
+    private class ReportWorker extends SwingWorker<Integer, String> {
+        private final LoanReportWriter.Report report;
+        private final LoanReportWriter.Format format;
+        private final File file;
+        private final JTextArea reportArea;
+        private final JProgressBar progress;
+        private final JButton cancelButton;
+
+        ReportWorker(LoanReportWriter.Report report, LoanReportWriter.Format format, File file,
+                     JTextArea reportArea, JProgressBar progress, JButton cancelButton) {
+            this.report = report;
+            this.format = format;
+            this.file = file;
+            this.reportArea = reportArea;
+            this.progress = progress;
+            this.cancelButton = cancelButton;
+        }
+
+        @Override
+        protected Integer doInBackground() throws IOException {
+            List<Book> books;
+            switch (report) {
+                case OVERDUE: books = library.getOverdueBooks(); break;
+                case BORROWED: books = library.getBorrowedBooks(); break;
+                default: books = library.getBooksDueWithin(7); break;
+            }
+
+            StringWriter chunk = new StringWriter();
+            File partial = file != null ? new File(file.getPath() + ".part") : null;
+            boolean complete = false;
+            try {
+                int rows;
+                try (Writer out = partial != null
+                        ? new BufferedWriter(new OutputStreamWriter(new FileOutputStream(partial), StandardCharsets.UTF_8))
+                        : chunk) {
+                    LoanReportWriter writer = new LoanReportWriter(report, format, out);
+                    writer.writeHeader();
+                    for (int from = 0; from < books.size() && !isCancelled(); from += LoanReportWriter.CHUNK_SIZE) {
+                        int to = Math.min(books.size(), from + LoanReportWriter.CHUNK_SIZE);
+                        writer.writeChunk(library, books.subList(from, to));
+                        publishChunk(chunk);
+                        setProgress((int) (100L * to / books.size()));
+                    }
+                    if (isCancelled()) {
+                        return writer.getRowCount();
+                    }
+                    writer.writeFooter();
+                    publishChunk(chunk);
+                    rows = writer.getRowCount();
+                }
+                if (partial != null) {
+                    Files.move(partial.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                complete = true;
+                return rows;
+            } finally {
+                if (partial != null && !complete) {
+                    partial.delete();
+                }
+            }
+        }
+
+        private void publishChunk(StringWriter chunk) {
+            if (chunk.getBuffer().length() > 0) {
+                publish(chunk.toString());
+                chunk.getBuffer().setLength(0);
+            }
+        }
+
+        @Override
+        protected void process(List<String> chunks) {
+            if (reportWorker != this) {
+                return; // Superseded by a newer report
+            }
+            for (String text : chunks) {
+                reportArea.append(text);
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (reportWorker != this) {
+                return;
+            }
+            reportWorker = null;
+            cancelButton.setEnabled(false);
+            if (isCancelled()) {
+                reportArea.append(file != null ? "\n(Report cancelled; " + file + " was not saved)\n" : "\n(Report cancelled)\n");
+                statusLabel.setText("Report cancelled");
+                return;
+            }
+            try {
+                int rows = get();
+                progress.setValue(100);
+                if (file != null) {
+                    reportArea.append("Saved " + rows + " rows.\n");
+                }
+                statusLabel.setText(report.title + ": " + rows + " rows" + (file != null ? " saved to " + file : ""));
+            } catch (ExecutionException e) {
+                reportArea.append("\nError writing report: " + e.getCause().getMessage() + "\n");
+                JOptionPane.showMessageDialog(LibraryManagementGUI.this, "Error writing report: " + e.getCause().getMessage(),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
-    private void populateBookTable(List<Book> books) {
-        bookTableModel.setRowCount(0);
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy");
-        
-        for (Book book : books) {
-            String status = book.isAvailable() ? "Available" : 
-                           "Borrowed" + (book.getDueDate() != null ? " (Due: " + book.getDueDate().format(formatter) + ")" : "");
-            
-            bookTableModel.addRow(new Object[]{
-                book.getIsbn(),
-                book.getTitle(),
-                book.getAuthor(),
-                book.getGenre(),
-                status
-            });
+    // Runs the query, narrowed by the selected facets, off the EDT and streams
+    // the results into the book table a page at a time; the first page records
+    // keystroke-to-results latency
+    private void runSearch(String query, long startNanos) {
+        if (pendingSearch != null) {
+            pendingSearch.cancel(true);
         }
+        long generation = ++searchGeneration;
+        String genre = selectedFacet(genreFacetList);
+        String author = selectedFacet(authorFacetList);
+        String status = selectedFacet(statusFacetList);
+        pendingSearch = searchExecutor.submit(() -> {
+            List<Book> results = library.findBooks(query, genre, author, status);
+            int from = 0;
+            do {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                List<Book> page = results.subList(from, Math.min(results.size(), from + SEARCH_PAGE_SIZE));
+                boolean firstPage = from == 0;
+                SwingUtilities.invokeLater(() -> {
+                    if (generation != searchGeneration) {
+                        return; // A newer query has started
+                    }
+                    if (firstPage) {
+                        bookTableModel.setRows(page);
+                        searchLatency.record(System.nanoTime() - startNanos);
+                        statusLabel.setText(String.format("%d books found | search p99: %.0f ms (last %d searches) | cache: %s",
+                                results.size(), searchLatency.percentileMillis(99), searchLatency.getCount(),
+                                library.getSearchCacheStats()));
+                    } else {
+                        bookTableModel.addRows(page);
+                    }
+                });
+                from += SEARCH_PAGE_SIZE;
+            } while (from < results.size());
+        });
+    }
+
+    private void refreshBookTable() {
+        bookTableModel.setRows(library.getAllBooks());
+        refreshFacets(true);
     }
 
     private void refreshMemberTable() {
-        memberTableModel.setRowCount(0);
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy");
-        
-        for (Member member : library.getAllMembers()) {
-            memberTableModel.addRow(new Object[]{
-                member.getMemberId(),
-                member.getName(),
-                member.getEmail(),
-                member.getPhone(),
-                member.getBorrowedBooks().size(),
-                member.getMembershipDate().format(formatter)
-            });
-        }
+        memberTableModel.setRows(library.getAllMembers());
     }
 
     private void refreshBorrowedTable() {
-        borrowedTableModel.setRowCount(0);
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy");
-        
-        for (Book book : library.getBorrowedBooks()) {
-            Member member = library.getMember(book.getBorrowedBy());
-            String memberName = member != null ? member.getName() : "Unknown";
-            
-            String status = "On Time";
-            if (book.getDueDate() != null && LocalDate.now().isAfter(book.getDueDate())) {
-                long overdueDays = LocalDate.now().toEpochDay() - book.getDueDate().toEpochDay();
-                status = "OVERDUE (" + overdueDays + " days)";
-            }
-            
-            borrowedTableModel.addRow(new Object[]{
-                book.getIsbn(),
-                book.getTitle(),
-                book.getAuthor(),
-                book.getBorrowedBy(),
-                memberName,
-                book.getBorrowDate() != null ? book.getBorrowDate().format(formatter) : "N/A",
-                book.getDueDate() != null ? book.getDueDate().format(formatter) : "N/A",
-                status
-            });
-        }
+        borrowedTableModel.setRows(library.getBorrowedBooks());
     }
 
     private void clearBookForm(JTextField... fields) {
@@ -914,8 +4615,6 @@ public class LibraryManagementGUI extends JFrame {
             // Use default look and feel if system look and feel is not available
         }
 
-        SwingUtilities.invokeLater(() -> {
-            new LibraryManagementGUI().setVisible(true);
-        });
+        SwingUtilities.invokeLater(() -> new LibraryManagementGUI().setVisible(true));
     }
 }
\ No newline at end of file